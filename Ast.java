@@ -0,0 +1,80 @@
+import java.util.List;
+
+// Syntax tree built by Parser. Nodes refer to tokens by their index in the
+// TokenBuffer they were parsed from; first() and end() bound the tokens a node
+// covers, so the source text of any node can be recovered from the buffer.
+public final class Ast {
+    private Ast() {
+    }
+
+    public interface Node {
+        int first();
+        int end();
+    }
+
+    public interface Stmt extends Node {
+    }
+
+    public interface Expr extends Node {
+    }
+
+    // Top-level statement k refers to tokens shifts[k] further on than its own
+    // indices say: an incremental reparse reuses statements after an edit as
+    // they are and only records how far the edit moved them
+    public record Program(List<Stmt> statements, int[] shifts, int first, int end) implements Node {
+        public int shift(int k) {
+            return shifts[k];
+        }
+    }
+
+    public record Block(List<Stmt> statements, int first, int end) implements Stmt {
+    }
+
+    // 'type' and 'name' are token indices; init is null without '= expr'
+    public record Declaration(int type, int name, Expr init, int first, int end) implements Stmt {
+    }
+
+    public record Assignment(int name, Expr value, int first, int end) implements Stmt {
+    }
+
+    // otherwise is a Block, an If for 'else if', or null
+    public record If(Expr condition, Block then, Stmt otherwise, int first, int end) implements Stmt {
+    }
+
+    public record While(Expr condition, Block body, int first, int end) implements Stmt {
+    }
+
+    // init, condition and update are null when left out of the header
+    public record For(Stmt init, Expr condition, Assignment update, Block body, int first, int end) implements Stmt {
+    }
+
+    public record Switch(Expr selector, List<Case> cases, int first, int end) implements Stmt {
+    }
+
+    // value is the token after 'case', or -1 for 'default'
+    public record Case(int value, List<Stmt> body, int first, int end) implements Node {
+    }
+
+    public record Break(int first, int end) implements Stmt {
+    }
+
+    // An identifier, number or string literal
+    public record Operand(int token) implements Expr {
+        public int first() { return token; }
+        public int end() { return token + 1; }
+    }
+
+    public record Unary(int operator, Expr operand, int first, int end) implements Expr {
+    }
+
+    public record Binary(int operator, Expr left, Expr right, int first, int end) implements Expr {
+    }
+
+    // Stands in for a header the parser could not read; only built when errors were reported
+    public record Invalid(int first, int end) implements Expr {
+    }
+
+    // Kept so that first() and end() of the enclosing expression include the parentheses
+    public record Parens(Expr inner, int first, int end) implements Expr {
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+// The code of one JVM method being assembled. Instructions are appended to a
+// byte array; branches name labels, which are patched with their offsets
+// once everything is placed. The depth of the operand stack, in words, is
+// followed along for max_stack: each emit says how it changes the depth,
+// and code after an unconditional jump starts from the depth the jumps to
+// its label left. Branches carry 16-bit offsets unless the code is made
+// with far branches, where each is a goto_w, behind a branch on the
+// opposite condition if it has one.
+public class Bytecode {
+    // The opcodes BytecodeGenerator uses
+    public static final int ICONST_0 = 0x03, LCONST_0 = 0x09, LCONST_1 = 0x0a,
+        FCONST_0 = 0x0b, DCONST_0 = 0x0e, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+    public static final int ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, DALOAD = 0x31;
+    public static final int ISTORE = 0x36, LSTORE = 0x37, ASTORE = 0x3a, DASTORE = 0x52;
+    public static final int POP = 0x57, DUP = 0x59, DUP2 = 0x5c;
+    // Arithmetic on ints; the float and double forms follow at +2 and +3
+    public static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, INEG = 0x74;
+    public static final int LSUB = 0x65, I2F = 0x86, I2D = 0x87, L2D = 0x8a, F2I = 0x8b, F2D = 0x8d,
+        D2I = 0x8e, D2L = 0x8f, D2F = 0x90;
+    public static final int LCMP = 0x94, FCMPL = 0x95, FCMPG = 0x96, DCMPL = 0x97, DCMPG = 0x98;
+    // Conditions in the order eq, ne, lt, ge, gt, le; flipping the low bit negates one
+    public static final int IFEQ = 0x99, IF_ICMPEQ = 0x9f;
+    public static final int GOTO = 0xa7, GOTO_W = 0xc8, TABLESWITCH = 0xaa, LOOKUPSWITCH = 0xab;
+    public static final int ARETURN = 0xb0, RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2, INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, NEWARRAY = 0xbc;
+    public static final int WIDE = 0xc4;
+    public static final int T_DOUBLE = 7;
+
+    private final boolean far;
+    private byte[] code = new byte[256];
+    private int length;
+    private int stack;
+    private int maxStack;
+    private boolean reachable = true;
+
+    private int[] labelPositions = new int[16]; // -1 until placed
+    private int[] labelDepths = new int[16]; // stack depth jumps to the label leave, -1 if none yet
+    private int labelCount;
+
+    // Offsets to fill in: the instruction they are relative to, where they
+    // go, their label, and whether they take 4 bytes rather than 2
+    private int[] fixupFrom = new int[16];
+    private int[] fixupAt = new int[16];
+    private int[] fixupLabel = new int[16];
+    private boolean[] fixupWide = new boolean[16];
+    private int fixupCount;
+
+    public Bytecode() {
+        this(false);
+    }
+
+    public Bytecode(boolean far) {
+        this.far = far;
+    }
+
+    public int newLabel() {
+        if (labelCount == labelPositions.length) {
+            labelPositions = Arrays.copyOf(labelPositions, labelCount * 2);
+            labelDepths = Arrays.copyOf(labelDepths, labelCount * 2);
+        }
+        labelPositions[labelCount] = -1;
+        labelDepths[labelCount] = -1;
+        return labelCount++;
+    }
+
+    // Places 'label' at the next instruction
+    public void mark(int label) {
+        labelPositions[label] = length;
+        if (!reachable && labelDepths[label] >= 0) stack = labelDepths[label];
+        reachable = true;
+    }
+
+    // An instruction without operands
+    public void op(int opcode, int delta) {
+        u1(opcode);
+        adjust(delta);
+        if (opcode == GOTO || opcode == RETURN || opcode == ARETURN) reachable = false;
+    }
+
+    // An instruction with a one-byte operand
+    public void op1(int opcode, int operand, int delta) {
+        u1(opcode);
+        u1(operand);
+        adjust(delta);
+    }
+
+    // An instruction with a two-byte operand, such as a constant pool index
+    public void op2(int opcode, int operand, int delta) {
+        u1(opcode);
+        u2(operand);
+        adjust(delta);
+    }
+
+    // A load or store of a local slot, widened past slot 255
+    public void local(int opcode, int slot, int delta) {
+        if (slot > 255) {
+            u1(WIDE);
+            op2(opcode, slot, delta);
+        } else {
+            op1(opcode, slot, delta);
+        }
+    }
+
+    public void pushInt(int value, ClassFile classFile) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value == (byte) value) {
+            op1(BIPUSH, value & 0xff, 1);
+        } else if (value == (short) value) {
+            op2(SIPUSH, value & 0xffff, 1);
+        } else {
+            pushConstant(classFile.integer(value), 1);
+        }
+    }
+
+    // ldc of a one-word constant pool entry, or ldc2_w of a two-word one
+    public void pushConstant(int index, int words) {
+        if (words == 2) {
+            op2(LDC2_W, index, 2);
+        } else if (index > 255) {
+            op2(LDC_W, index, 1);
+        } else {
+            op1(LDC, index, 1);
+        }
+    }
+
+    // A branch to 'label'; 'delta' is what the branch itself pops
+    public void branch(int opcode, int label, int delta) {
+        adjust(delta);
+        labelDepths[label] = stack;
+        if (far) {
+            if (opcode != GOTO) {
+                // Over the goto_w when the condition does not hold
+                u1(((opcode - IFEQ) ^ 1) + IFEQ);
+                u2(3 + 5);
+            }
+            int from = length;
+            u1(GOTO_W);
+            addFixup(from, length, label, true);
+            u4(0);
+        } else {
+            int from = length;
+            u1(opcode);
+            addFixup(from, length, label, false);
+            u2(0);
+        }
+        if (opcode == GOTO) reachable = false;
+    }
+
+    // Pops an int and jumps to labels[i] when it is low + i, to defaultLabel otherwise
+    public void tableSwitch(int low, int[] labels, int defaultLabel) {
+        int from = switchHeader(TABLESWITCH, defaultLabel);
+        u4(low);
+        u4(low + labels.length - 1);
+        for (int label : labels) {
+            labelDepths[label] = stack;
+            addFixup(from, length, label, true);
+            u4(0);
+        }
+        reachable = false;
+    }
+
+    // Pops an int and jumps to labels[i] when it is keys[i]; keys must be sorted
+    public void lookupSwitch(int[] keys, int[] labels, int count, int defaultLabel) {
+        int from = switchHeader(LOOKUPSWITCH, defaultLabel);
+        u4(count);
+        for (int k = 0; k < count; k++) {
+            u4(keys[k]);
+            labelDepths[labels[k]] = stack;
+            addFixup(from, length, labels[k], true);
+            u4(0);
+        }
+        reachable = false;
+    }
+
+    // The opcode, padding to a multiple of 4 and the default offset
+    private int switchHeader(int opcode, int defaultLabel) {
+        adjust(-1);
+        int from = length;
+        u1(opcode);
+        while (length % 4 != 0) u1(0);
+        labelDepths[defaultLabel] = stack;
+        addFixup(from, length, defaultLabel, true);
+        u4(0);
+        return from;
+    }
+
+    public int maxStack() {
+        return maxStack;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // False if a branch is too far for a 16-bit offset, so the code has to
+    // be made again with far branches
+    public boolean branchesFit() {
+        for (int f = 0; f < fixupCount; f++) {
+            int offset = labelPositions[fixupLabel[f]] - fixupFrom[f];
+            if (!fixupWide[f] && offset != (short) offset) return false;
+        }
+        return true;
+    }
+
+    // The finished code with every offset filled in
+    public byte[] toBytes() {
+        if (length > 65535 || !branchesFit()) throw new IllegalStateException("The program is too large for one JVM method");
+        for (int f = 0; f < fixupCount; f++) {
+            int offset = labelPositions[fixupLabel[f]] - fixupFrom[f];
+            int at = fixupAt[f];
+            if (fixupWide[f]) {
+                code[at] = (byte) (offset >>> 24);
+                code[at + 1] = (byte) (offset >>> 16);
+                at += 2;
+            }
+            code[at] = (byte) (offset >>> 8);
+            code[at + 1] = (byte) offset;
+        }
+        return Arrays.copyOf(code, length);
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void addFixup(int from, int at, int label, boolean wide) {
+        if (fixupCount == fixupFrom.length) {
+            int capacity = fixupCount * 2;
+            fixupFrom = Arrays.copyOf(fixupFrom, capacity);
+            fixupAt = Arrays.copyOf(fixupAt, capacity);
+            fixupLabel = Arrays.copyOf(fixupLabel, capacity);
+            fixupWide = Arrays.copyOf(fixupWide, capacity);
+        }
+        fixupFrom[fixupCount] = from;
+        fixupAt[fixupCount] = at;
+        fixupLabel[fixupCount] = label;
+        fixupWide[fixupCount++] = wide;
+    }
+
+    private void u1(int b) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    private void u2(int v) {
+        u1(v >>> 8);
+        u1(v);
+    }
+
+    private void u4(int v) {
+        u2(v >>> 16);
+        u2(v);
+    }
+}
@@ -0,0 +1,556 @@
+import java.util.*;
+
+// A JVM class from the syntax tree, so programs can run as compiled Java and
+// be compiled on by HotSpot. The class, Program, has
+//   public static double[] run(long budget)
+// which runs the whole program and returns the final value of every
+// variable, in the order variableName() gives, followed by what is left of
+// the budget; and a main method that prints them. Each variable gets a local
+// of its declared type: int, char and boolean in int slots, float and double
+// in their own. Names used without a declaration, as loop and switch headers
+// allow, are doubles. Arithmetic follows Java, as the IR from TACGenerator
+// does: operands are widened to the wider of the two, so int division
+// truncates and int arithmetic wraps, and a wider value stored into a
+// narrower variable is narrowed as by a cast. Every loop iteration takes one from the budget, and
+// when it runs out the method returns at once with a negative budget left.
+public class BytecodeGenerator extends TreeWalker {
+    public static final String CLASS_NAME = "Program";
+
+    // Kinds of value, as the offset from an int opcode to the float or
+    // double one for loads, stores and arithmetic
+    private static final int INT = PrecedenceClimber.INT, FLOAT = PrecedenceClimber.FLOAT,
+        DOUBLE = PrecedenceClimber.DOUBLE;
+    // Comparisons, as the offset from ifeq and if_icmpeq
+    private static final int EQ = 0, NE = 1, LT = 2, GE = 3, GT = 4, LE = 5;
+    // Slots 0 and 1 hold the budget
+    private static final int BUDGET = 0;
+
+    private ClassFile classFile;
+    private Bytecode code;
+    private PrecedenceClimber climber;
+    private int labelDone;
+    private int scratch; // holds a switch selector that is tested case by case
+
+    // Per variable, symbols first and then undeclared names
+    private String[] names = new String[0];
+    private String[] types = new String[0];
+    private int[] kinds = new int[0];
+    private int[] slots = new int[0];
+    private int variableCount;
+    private int[] variableOf = new int[0]; // per identifier token: its variable
+
+    // 'program' and 'symbols' must have been built from the same tokens, and
+    // the program must be free of errors. Throws IllegalStateException when
+    // the program is too large for a JVM method.
+    public byte[] generate(Ast.Program program, TokenBuffer tokens, SymbolTable symbols) {
+        this.tokens = tokens;
+        climber = new PrecedenceClimber(new Expressions(), tokens);
+        int maxLocals = assignSlots(tokens, symbols);
+        generate(program, false);
+        if (!code.branchesFit()) generate(program, true);
+        classFile.addMethod("run", "(J)[D", code, maxLocals);
+        classFile.addMethod("main", "([Ljava/lang/String;)V", mainMethod(), 2);
+        return classFile.toBytes();
+    }
+
+    // The body of run(), with short branches or all far ones
+    private void generate(Ast.Program program, boolean far) {
+        classFile = new ClassFile(CLASS_NAME);
+        code = new Bytecode(far);
+        labelDone = code.newLabel();
+        for (int v = 0; v < variableCount; v++) {
+            code.op(kinds[v] == INT ? Bytecode.ICONST_0 : kinds[v] == FLOAT ? Bytecode.FCONST_0 : Bytecode.DCONST_0,
+                words(kinds[v]));
+            store(v);
+        }
+        generateStatements(program);
+        code.mark(labelDone);
+        returnValues();
+    }
+
+    public int variableCount() {
+        return variableCount;
+    }
+
+    // The symbol's IR name, or the name itself if it was never declared
+    public String variableName(int v) {
+        return names[v];
+    }
+
+    // The declared type, or null for an undeclared name
+    public String variableType(int v) {
+        return types[v];
+    }
+
+    // Gives every symbol, then every undeclared name, a variable and its
+    // slots; an undeclared name matching a symbol's IR name shares its
+    // variable, as it does in the IR. Returns the number of slots.
+    private int assignSlots(TokenBuffer tokens, SymbolTable symbols) {
+        int capacity = symbols.size() + 16;
+        names = new String[capacity];
+        types = new String[capacity];
+        kinds = new int[capacity];
+        variableCount = 0;
+        Map<String, Integer> byName = new HashMap<>();
+        for (int s = 0; s < symbols.size(); s++) {
+            SymbolEntry entry = symbols.get(s);
+            addVariable(entry.getIrName(), entry.getType(), PrecedenceClimber.kindOf(entry));
+            byName.put(entry.getIrName(), s);
+        }
+        int size = tokens.size();
+        variableOf = new int[size];
+        for (int t = 0; t < size; t++) {
+            if (tokens.kind(t) != TokenKind.IDENTIFIER) continue;
+            int symbol = symbols.indexOf(t);
+            if (symbol >= 0) {
+                variableOf[t] = symbol;
+                continue;
+            }
+            String name = tokens.text(t);
+            Integer v = byName.get(name);
+            if (v == null) {
+                v = variableCount;
+                addVariable(name, null, DOUBLE);
+                byName.put(name, v);
+            }
+            variableOf[t] = v;
+        }
+
+        slots = new int[variableCount];
+        int next = BUDGET + 2;
+        for (int v = 0; v < variableCount; v++) {
+            slots[v] = next;
+            next += words(kinds[v]);
+        }
+        scratch = next;
+        next += 2;
+        if (next > 65535) throw new IllegalStateException("Too many variables for one JVM method");
+        return next;
+    }
+
+    private void addVariable(String name, String type, int kind) {
+        if (variableCount == names.length) {
+            int capacity = variableCount * 2;
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        names[variableCount] = name;
+        types[variableCount] = type;
+        kinds[variableCount++] = kind;
+    }
+
+    private static int words(int kind) {
+        return kind == DOUBLE ? 2 : 1;
+    }
+
+    private void load(int v) {
+        code.local(Bytecode.ILOAD + kinds[v], slots[v], words(kinds[v]));
+    }
+
+    private void store(int v) {
+        code.local(Bytecode.ISTORE + kinds[v], slots[v], -words(kinds[v]));
+    }
+
+    // Pushes an operand token from the tree and returns its kind. A string
+    // literal stands for NaN, as in the IR.
+    private int pushOperand(int i) {
+        int token = base + i;
+        byte kind = tokens.kind(token);
+        if (kind == TokenKind.IDENTIFIER) {
+            int v = variableOf[token];
+            load(v);
+            return kinds[v];
+        }
+        if (kind == TokenKind.NUMBER && PrecedenceClimber.isInt(tokens, token)) {
+            code.pushInt(Integer.parseInt(tokens.text(token)), classFile);
+            return INT;
+        }
+        double value = kind == TokenKind.NUMBER ? Double.parseDouble(tokens.text(token)) : Double.NaN;
+        if (value == 0 && 1 / value > 0) {
+            code.op(Bytecode.DCONST_0, 2);
+        } else {
+            code.pushConstant(classFile.doubleConstant(value), 2);
+        }
+        return DOUBLE;
+    }
+
+    // Converts the value on top of the stack
+    private void convert(int from, int to) {
+        if (from == to) return;
+        int opcode;
+        if (from == INT) {
+            opcode = to == FLOAT ? Bytecode.I2F : Bytecode.I2D;
+        } else if (from == FLOAT) {
+            opcode = to == INT ? Bytecode.F2I : Bytecode.F2D;
+        } else {
+            opcode = to == INT ? Bytecode.D2I : Bytecode.D2F;
+        }
+        code.op(opcode, words(to) - words(from));
+    }
+
+    // Arithmetic opcode or comparison of a binary operator token from the tree
+    private int operator(int i) {
+        int token = base + i;
+        int start = tokens.start(token);
+        char c = tokens.source().charAt(start);
+        if (tokens.end(token) - start == 2) {
+            return switch (c) {
+                case '<' -> LE;
+                case '>' -> GE;
+                case '=' -> EQ;
+                default -> NE;
+            };
+        }
+        return switch (c) {
+            case '+' -> Bytecode.IADD;
+            case '-' -> Bytecode.ISUB;
+            case '*' -> Bytecode.IMUL;
+            case '/' -> Bytecode.IDIV;
+            case '<' -> LT;
+            default -> GT;
+        };
+    }
+
+    private static boolean isComparison(int operator) {
+        return operator <= LE;
+    }
+
+    @Override
+    protected int newLabel() {
+        return code.newLabel();
+    }
+
+    @Override
+    protected void placeLabel(int label) {
+        code.mark(label);
+    }
+
+    @Override
+    protected void jumpTo(int label) {
+        code.branch(Bytecode.GOTO, label, 0);
+    }
+
+    // budget = budget - 1; if (budget < 0) return; goto loop
+    @Override
+    protected void loopBack(int labelLoop) {
+        code.local(Bytecode.LLOAD, BUDGET, 2);
+        code.op(Bytecode.LCONST_1, 2);
+        code.op(Bytecode.LSUB, -2);
+        code.op(Bytecode.DUP2, 2);
+        code.local(Bytecode.LSTORE, BUDGET, -2);
+        code.op(Bytecode.LCONST_0, 2);
+        code.op(Bytecode.LCMP, -3);
+        code.branch(Bytecode.IFEQ + LT, labelDone, -1);
+        code.branch(Bytecode.GOTO, labelLoop, 0);
+    }
+
+    @Override
+    protected void assign(int name, Ast.Expr value) {
+        int kind = generateExpression(value);
+        int v = variableOf[base + name];
+        convert(kind, kinds[v]);
+        store(v);
+    }
+
+    // Leaves the value on the operand stack and returns its kind
+    private int generateExpression(Ast.Expr expr) {
+        return climber.generate(expr, base);
+    }
+
+    // Values are left on the operand stack, so each is named by its kind
+    private final class Expressions implements PrecedenceClimber.Target {
+        @Override
+        public int variableKind(int i) {
+            return kinds[variableOf[base + i]];
+        }
+
+        @Override
+        public int operand(int i) {
+            return pushOperand(i);
+        }
+
+        @Override
+        public int widen(int value, int from, int to) {
+            convert(from, to);
+            return to;
+        }
+
+        @Override
+        public int unary(int operator, int value, int kind) {
+            if (tokens.is(base + operator, '-')) {
+                code.op(Bytecode.INEG + kind, 0);
+                return kind;
+            }
+            int labelTrue = code.newLabel();
+            branchOnTruth(kind, true, labelTrue);
+            pushBoolean(labelTrue, 0);
+            return INT;
+        }
+
+        @Override
+        public int binary(int operator, int left, int right, int kind) {
+            int op = BytecodeGenerator.this.operator(operator);
+            if (isComparison(op)) {
+                int labelTrue = code.newLabel();
+                compare(op, kind, true, labelTrue);
+                pushBoolean(labelTrue, 1);
+                return INT;
+            }
+            code.op(op + kind, -words(kind));
+            return kind;
+        }
+
+        // The label the branches of the run skip to
+        @Override
+        public int startLogical(boolean and) {
+            return code.newLabel();
+        }
+
+        @Override
+        public void logicalOperand(boolean and, int value, int kind, int label) {
+            branchOnTruth(kind, !and, label);
+        }
+
+        @Override
+        public int endLogical(boolean and, int value, int kind, int label) {
+            branchOnTruth(kind, !and, label);
+            pushBoolean(label, and ? 0 : 1);
+            return INT;
+        }
+    }
+
+    // Pushes 'whenTaken' if the branches to 'label' were taken, else the opposite
+    private void pushBoolean(int label, int whenTaken) {
+        int labelEnd = code.newLabel();
+        code.op(Bytecode.ICONST_0 + (1 - whenTaken), 1);
+        code.branch(Bytecode.GOTO, labelEnd, 0);
+        code.mark(label);
+        code.op(Bytecode.ICONST_0 + whenTaken, 1);
+        code.mark(labelEnd);
+    }
+
+    // Pops a value and jumps to 'label' if it is nonzero ('whenTrue') or zero
+    // (otherwise). NaN counts as true, as in the IR.
+    private void branchOnTruth(int kind, boolean whenTrue, int label) {
+        if (kind != INT) {
+            code.op(kind == FLOAT ? Bytecode.FCONST_0 : Bytecode.DCONST_0, words(kind));
+            code.op(kind == FLOAT ? Bytecode.FCMPL : Bytecode.DCMPL, 1 - 2 * words(kind));
+        }
+        code.branch(Bytecode.IFEQ + (whenTrue ? NE : EQ), label, -1);
+    }
+
+    // Pops two values of 'kind' and jumps to 'label' when the comparison is
+    // 'whenTrue'. With floating point, NaN makes every comparison but '!='
+    // false: '<' and '<=' use the compare that gives 1 for NaN, the others
+    // the one that gives -1.
+    private void compare(int comparison, int kind, boolean whenTrue, int label) {
+        int taken = whenTrue ? comparison : comparison ^ 1;
+        if (kind == INT) {
+            code.branch(Bytecode.IF_ICMPEQ + taken, label, -2);
+            return;
+        }
+        int g = comparison == LT || comparison == LE ? 1 : 0;
+        code.op((kind == FLOAT ? Bytecode.FCMPL : Bytecode.DCMPL) + g, 1 - 2 * words(kind));
+        code.branch(Bytecode.IFEQ + taken, label, -1);
+    }
+
+    // A condition to branch on: jump to 'label' when it is 'whenTrue', fall through otherwise
+    private record Condition(Ast.Expr expr, boolean whenTrue, int label) {
+    }
+
+    // Where a Condition's skip label goes, once the conditions pushed before it are done
+    private record Place(int label) {
+    }
+
+    @Override
+    protected void jumpUnless(Ast.Expr condition, int label) {
+        jump(condition, false, label);
+    }
+
+    // Branches for 'root', as TACGenerator.jumps() makes them. The labels
+    // exist before the branches, so instead of backpatching, 'a && b' and
+    // 'a || b' get a label of their own after b when a can skip past it.
+    private void jump(Ast.Expr root, boolean whenTrue, int label) {
+        Deque<Object> work = new ArrayDeque<>();
+        work.push(new Condition(root, whenTrue, label));
+        while (!work.isEmpty()) {
+            Object item = work.pop();
+            if (item instanceof Place p) {
+                code.mark(p.label());
+                continue;
+            }
+            Condition c = (Condition) item;
+            Ast.Expr expr = c.expr();
+            while (expr instanceof Ast.Parens p) expr = p.inner();
+            if (expr instanceof Ast.Unary u && tokens.is(base + u.operator(), '!')) {
+                work.push(new Condition(u.operand(), !c.whenTrue(), c.label()));
+            } else if (expr instanceof Ast.Binary b && isLogical(b)) {
+                boolean skip = tokens.textEquals(base + b.operator(), "&&") == c.whenTrue();
+                if (skip) {
+                    int labelSkip = code.newLabel();
+                    work.push(new Place(labelSkip));
+                    work.push(new Condition(b.right(), c.whenTrue(), c.label()));
+                    work.push(new Condition(b.left(), !c.whenTrue(), labelSkip));
+                } else {
+                    work.push(new Condition(b.right(), c.whenTrue(), c.label()));
+                    work.push(new Condition(b.left(), c.whenTrue(), c.label()));
+                }
+            } else {
+                branch(expr, c.whenTrue(), c.label());
+            }
+        }
+    }
+
+    // One jump to 'label' taken when 'expr' is 'whenTrue'
+    private void branch(Ast.Expr expr, boolean whenTrue, int label) {
+        if (expr instanceof Ast.Binary b) {
+            int op = operator(b.operator());
+            if (isComparison(op)) {
+                int kind = Math.max(climber.kindOf(b.left(), base), climber.kindOf(b.right(), base));
+                convert(generateExpression(b.left()), kind);
+                convert(generateExpression(b.right()), kind);
+                compare(op, kind, whenTrue, label);
+                return;
+            }
+        }
+        branchOnTruth(generateExpression(expr), whenTrue, label);
+    }
+
+    // A tableswitch must have at least this share of its slots taken by cases
+    private static final int MIN_TABLE_DENSITY_PERCENT = 40;
+
+    // An int selector with whole-number cases that fit in an int goes
+    // through tableswitch when they are dense and lookupswitch when not.
+    // Anything else is tested case by case in source order, where the first
+    // match wins.
+    @Override
+    protected void dispatch(Ast.Switch s, int[] caseLabels, int defaultLabel) {
+        int kind = generateExpression(s.selector());
+        List<Ast.Case> cases = s.cases();
+        // Case value tokens and the labels they go to, 'default' left out
+        int[] values = new int[caseLabels.length];
+        int[] targets = new int[caseLabels.length];
+        int count = 0;
+        boolean integral = kind == INT;
+        for (int k = 0; k < caseLabels.length; k++) {
+            Ast.Case c = cases.get(k);
+            if (c.value() < 0) continue;
+            values[count] = c.value();
+            targets[count++] = caseLabels[k];
+            integral &= tokens.kind(base + c.value()) == TokenKind.NUMBER && wholeValue(c.value()) != null;
+        }
+        if (integral) {
+            switchOnInt(values, targets, count, defaultLabel);
+        } else {
+            testCases(kind, values, targets, count, defaultLabel);
+        }
+    }
+
+    // The value of a number token from the tree if it is a whole number that fits in an int
+    private Integer wholeValue(int i) {
+        double value = Double.parseDouble(tokens.text(base + i));
+        return value == (int) value ? (int) value : null;
+    }
+
+    // Sorts the cases by value, keeping only the first case of each value
+    // since a later one can never match, and switches on the int on the stack
+    private void switchOnInt(int[] values, int[] targets, int count, int defaultLabel) {
+        Integer[] order = new Integer[count];
+        int[] keys = new int[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = k;
+            keys[k] = wholeValue(values[k]);
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(keys[a], keys[b]));
+        int[] sortedKeys = new int[count];
+        int[] sortedTargets = new int[count];
+        int kept = 0;
+        for (int k : order) {
+            if (kept > 0 && sortedKeys[kept - 1] == keys[k]) continue;
+            sortedKeys[kept] = keys[k];
+            sortedTargets[kept++] = targets[k];
+        }
+        if (kept == 0) {
+            code.op(Bytecode.POP, -1);
+            code.branch(Bytecode.GOTO, defaultLabel, 0);
+            return;
+        }
+        int low = sortedKeys[0];
+        long range = (long) sortedKeys[kept - 1] - low + 1;
+        if (kept * 100L < range * MIN_TABLE_DENSITY_PERCENT) {
+            code.lookupSwitch(sortedKeys, sortedTargets, kept, defaultLabel);
+            return;
+        }
+        int[] labels = new int[(int) range];
+        Arrays.fill(labels, defaultLabel);
+        for (int k = 0; k < kept; k++) {
+            labels[sortedKeys[k] - low] = sortedTargets[k];
+        }
+        code.tableSwitch(low, labels, defaultLabel);
+    }
+
+    // Keeps the selector in the scratch slot and compares it with each case value in turn
+    private void testCases(int kind, int[] values, int[] targets, int count, int defaultLabel) {
+        code.local(Bytecode.ISTORE + kind, scratch, -words(kind));
+        for (int k = 0; k < count; k++) {
+            int wider = Math.max(kind, climber.operandKind(values[k], base));
+            code.local(Bytecode.ILOAD + kind, scratch, words(kind));
+            convert(kind, wider);
+            convert(pushOperand(values[k]), wider);
+            compare(EQ, wider, true, targets[k]);
+        }
+        code.branch(Bytecode.GOTO, defaultLabel, 0);
+    }
+
+    // At the end, or when the budget runs out: the values of all variables
+    // and what is left of the budget, as doubles
+    private void returnValues() {
+        code.pushInt(variableCount + 1, classFile);
+        code.op1(Bytecode.NEWARRAY, Bytecode.T_DOUBLE, 0);
+        for (int v = 0; v < variableCount; v++) {
+            code.op(Bytecode.DUP, 1);
+            code.pushInt(v, classFile);
+            load(v);
+            convert(kinds[v], DOUBLE);
+            code.op(Bytecode.DASTORE, -4);
+        }
+        code.op(Bytecode.DUP, 1);
+        code.pushInt(variableCount, classFile);
+        code.local(Bytecode.LLOAD, BUDGET, 2);
+        code.op(Bytecode.L2D, 0);
+        code.op(Bytecode.DASTORE, -4);
+        code.op(Bytecode.ARETURN, -1);
+    }
+
+    // Runs with no budget to speak of and prints 'name = value' for every variable
+    private Bytecode mainMethod() {
+        Bytecode main = new Bytecode();
+        String printStream = "java/io/PrintStream";
+        int out = classFile.fieldRef("java/lang/System", "out", "L" + printStream + ";");
+        main.pushConstant(classFile.longConstant(Long.MAX_VALUE), 2);
+        main.op2(Bytecode.INVOKESTATIC, classFile.methodRef(CLASS_NAME, "run", "(J)[D"), -1);
+        main.local(Bytecode.ASTORE, 1, -1);
+        for (int v = 0; v < variableCount; v++) {
+            main.op2(Bytecode.GETSTATIC, out, 1);
+            main.pushConstant(classFile.string(names[v] + " = "), 1);
+            main.op2(Bytecode.INVOKEVIRTUAL, classFile.methodRef(printStream, "print", "(Ljava/lang/String;)V"), -2);
+            main.op2(Bytecode.GETSTATIC, out, 1);
+            main.local(Bytecode.ALOAD, 1, 1);
+            main.pushInt(v, classFile);
+            main.op(Bytecode.DALOAD, 0);
+            String descriptor = "(D)V";
+            if (kinds[v] == INT) {
+                main.op(Bytecode.D2L, 0);
+                descriptor = "(J)V";
+            } else if (kinds[v] == FLOAT) {
+                main.op(Bytecode.D2F, -1);
+                descriptor = "(F)V";
+            }
+            main.op2(Bytecode.INVOKEVIRTUAL, classFile.methodRef(printStream, "println", descriptor),
+                -1 - (kinds[v] == FLOAT ? 1 : 2));
+        }
+        main.op(Bytecode.RETURN, 0);
+        return main;
+    }
+}
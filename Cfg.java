@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+// Control-flow graph of an Ir. Blocks are numbered in code order: block b runs
+// from instruction start(b) up to start(b + 1), begins at a label (a run of
+// labels shares one block) or after a jump, and ends with at most one jump.
+// Edges are kept as adjacency arrays, successors and predecessors alike.
+public class Cfg {
+    private final Ir ir;
+    private int[] starts;
+    private int blockCount;
+    private final int[] blockOfLabel;
+    private int[] successorStarts;
+    private int[] successors;
+    private int[] predecessorStarts;
+    private int[] predecessors;
+    private int[] predecessorIndices; // per successor edge, its place among the successor's predecessors
+
+    public Cfg(Ir ir) {
+        this.ir = ir;
+        int n = ir.size();
+        starts = new int[16];
+        blockOfLabel = new int[ir.labelCount() + 1];
+        for (int k = 0; k < n; k++) {
+            int op = ir.op(k);
+            boolean leader = k == 0
+                || op == Ir.LABEL && ir.op(k - 1) != Ir.LABEL
+                || Ir.isJump(ir.op(k - 1));
+            if (leader) {
+                if (blockCount + 1 >= starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[blockCount++] = k;
+            }
+            if (op == Ir.LABEL) blockOfLabel[ir.dest(k)] = blockCount - 1;
+        }
+        starts[blockCount] = n;
+        link();
+    }
+
+    private void link() {
+        // Successors, duplicates left out; a jump target comes before the fall-through
+        successorStarts = new int[blockCount + 1];
+        successors = new int[blockCount * 2];
+        int[] seen = new int[blockCount];
+        int count = 0;
+        for (int b = 0; b < blockCount; b++) {
+            successorStarts[b] = count;
+            int last = end(b) - 1;
+            int op = ir.op(last);
+            if (op == Ir.JUMP_TABLE) {
+                int[] labels = ir.tableLabels(ir.src2(last));
+                if (count + labels.length + 1 > successors.length) {
+                    successors = Arrays.copyOf(successors, Math.max(successors.length * 2, count + labels.length + 1));
+                }
+                count = addSuccessor(b, blockOfLabel[ir.dest(last)], count, seen);
+                for (int label : labels) count = addSuccessor(b, blockOfLabel[label], count, seen);
+                continue;
+            }
+            if (count + 2 > successors.length) successors = Arrays.copyOf(successors, successors.length * 2 + 2);
+            if (op >= Ir.GOTO) count = addSuccessor(b, blockOfLabel[ir.dest(last)], count, seen);
+            if (op != Ir.GOTO && b + 1 < blockCount) count = addSuccessor(b, b + 1, count, seen);
+        }
+        successorStarts[blockCount] = count;
+
+        predecessorStarts = new int[blockCount + 1];
+        for (int i = 0; i < count; i++) predecessorStarts[successors[i] + 1]++;
+        for (int b = 0; b < blockCount; b++) predecessorStarts[b + 1] += predecessorStarts[b];
+        predecessors = new int[count];
+        predecessorIndices = new int[count];
+        int[] fill = Arrays.copyOf(predecessorStarts, blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            for (int i = successorStarts[b]; i < successorStarts[b + 1]; i++) {
+                int s = successors[i];
+                predecessorIndices[i] = fill[s] - predecessorStarts[s];
+                predecessors[fill[s]++] = b;
+            }
+        }
+    }
+
+    // 'seen' holds b + 1 for blocks already added as successors of b
+    private int addSuccessor(int b, int successor, int count, int[] seen) {
+        if (seen[successor] == b + 1) return count;
+        seen[successor] = b + 1;
+        successors[count] = successor;
+        return count + 1;
+    }
+
+    public Ir ir() { return ir; }
+    public int size() { return blockCount; }
+    public int start(int b) { return starts[b]; }
+    public int end(int b) { return starts[b + 1]; }
+
+    // Block holding instruction k
+    public int blockAt(int k) {
+        int b = Arrays.binarySearch(starts, 0, blockCount, k);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    // Whether control can run off the end of the program from block b
+    public boolean exits(int b) {
+        int op = ir.op(end(b) - 1);
+        return b == blockCount - 1 && op != Ir.GOTO && op != Ir.JUMP_TABLE;
+    }
+
+    public int blockOfLabel(int label) { return blockOfLabel[label]; }
+
+    public int successorCount(int b) { return successorStarts[b + 1] - successorStarts[b]; }
+    public int successor(int b, int i) { return successors[successorStarts[b] + i]; }
+    public int predecessorCount(int b) { return predecessorStarts[b + 1] - predecessorStarts[b]; }
+    public int predecessor(int b, int i) { return predecessors[predecessorStarts[b] + i]; }
+
+    // Where b comes among the predecessors of its i-th successor
+    public int predecessorIndex(int b, int i) { return predecessorIndices[successorStarts[b] + i]; }
+}
@@ -0,0 +1,46 @@
+// Finds where a run of whitespace, identifier characters or digits ends in a
+// char array. These loops are the scalar version; when the build includes
+// vector/VectorCharClassifier.java and jdk.incubator.vector is available, that
+// subclass is loaded instead and classifies a whole vector of chars per step.
+public class CharClassifier {
+    private static final CharClassifier PREFERRED = load();
+
+    public static CharClassifier preferred() {
+        return PREFERRED;
+    }
+
+    private static CharClassifier load() {
+        if (Boolean.getBoolean("lexer.scalar")) return new CharClassifier();
+        try {
+            return (CharClassifier) Class.forName("VectorCharClassifier").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new CharClassifier();
+        }
+    }
+
+    // False for this scalar version, so the scanner can read the text in place
+    public boolean isVectorized() {
+        return false;
+    }
+
+    // Index of the first char in a[from, to) that is not whitespace, or 'to'
+    public int spaceEnd(char[] a, int from, int to) {
+        int i = from;
+        while (i < to && LexerDFA.isSpace(a[i])) i++;
+        return i;
+    }
+
+    // Index of the first char in a[from, to) outside [A-Za-z0-9_], or 'to'
+    public int identEnd(char[] a, int from, int to) {
+        int i = from;
+        while (i < to && LexerDFA.isIdentPart(a[i])) i++;
+        return i;
+    }
+
+    // Index of the first char in a[from, to) outside [0-9], or 'to'
+    public int digitEnd(char[] a, int from, int to) {
+        int i = from;
+        while (i < to && LexerDFA.isDigit(a[i])) i++;
+        return i;
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A JVM class file with public static methods and nothing else, written by
+// hand so no bytecode library is needed. Constant pool entries are shared:
+// asking twice for the same constant gives the same index. The version is
+// 49 (Java 5), the last one verified without StackMapTable frames, which
+// lets Bytecode leave them out.
+public class ClassFile {
+    private static final int MAJOR_VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_SUPER = 0x0020;
+    private static final int UTF8 = 1, INTEGER = 3, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+        FIELDREF = 9, METHODREF = 10, NAME_AND_TYPE = 12;
+
+    private final String name;
+    // The constant pool as written, and the index of each entry by a key made from its contents
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> indices = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    public ClassFile(String name) {
+        this.name = name;
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int utf8(String text) {
+        Integer index = indices.get("U" + text);
+        if (index != null) return index;
+        try {
+            poolOut.writeByte(UTF8);
+            poolOut.writeUTF(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a name too long for the class file
+        }
+        return add("U" + text, 1);
+    }
+
+    public int integer(int value) {
+        Integer index = indices.get("I" + value);
+        if (index != null) return index;
+        write(INTEGER, value);
+        return add("I" + value, 1);
+    }
+
+    public int longConstant(long value) {
+        Integer index = indices.get("J" + value);
+        if (index != null) return index;
+        write(LONG, (int) (value >>> 32));
+        writeInt((int) value);
+        return add("J" + value, 2);
+    }
+
+    // Keyed by bits, so 0.0 and -0.0 stay apart
+    public int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = indices.get("D" + bits);
+        if (index != null) return index;
+        write(DOUBLE, (int) (bits >>> 32));
+        writeInt((int) bits);
+        return add("D" + bits, 2);
+    }
+
+    public int classRef(String internalName) {
+        return reference("C", CLASS, utf8(internalName), -1, internalName);
+    }
+
+    public int string(String text) {
+        return reference("S", STRING, utf8(text), -1, text);
+    }
+
+    public int fieldRef(String owner, String field, String descriptor) {
+        return reference("F", FIELDREF, classRef(owner), nameAndType(field, descriptor),
+            owner + '.' + field + ':' + descriptor);
+    }
+
+    public int methodRef(String owner, String method, String descriptor) {
+        return reference("M", METHODREF, classRef(owner), nameAndType(method, descriptor),
+            owner + '.' + method + descriptor);
+    }
+
+    private int nameAndType(String member, String descriptor) {
+        return reference("N", NAME_AND_TYPE, utf8(member), utf8(descriptor), member + ':' + descriptor);
+    }
+
+    // An entry of one or two other indices
+    private int reference(String prefix, int tag, int first, int second, String key) {
+        Integer index = indices.get(prefix + key);
+        if (index != null) return index;
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if (second >= 0) poolOut.writeShort(second);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add(prefix + key, 1);
+    }
+
+    private void write(int tag, int value) {
+        try {
+            poolOut.writeByte(tag);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        writeInt(value);
+    }
+
+    private void writeInt(int value) {
+        try {
+            poolOut.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Longs and doubles take two entries
+    private int add(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        if (poolCount > 65535) throw new IllegalStateException("Too many constants for one class file");
+        indices.put(key, index);
+        return index;
+    }
+
+    // A public static method; 'maxLocals' counts its parameters too
+    public void addMethod(String method, String descriptor, Bytecode code, int maxLocals) {
+        byte[] bytes = code.toBytes();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length + 32);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(utf8(method));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytes.length);
+            out.writeShort(code.maxStack());
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(buffer.toByteArray());
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(pool.size() + 256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,60 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// A class from BytecodeGenerator loaded into this JVM, to be run as compiled
+// code. Each instance loads it through a class loader of its own, so any
+// number of programs, all named Program, can be loaded side by side; one
+// is unloaded with its instance. A run is an ordinary static call, so loops
+// that run long enough are compiled by HotSpot like any other Java code.
+public class CompiledProgram {
+    private final Method run;
+    private double[] values = new double[0];
+    private long nanos;
+
+    public CompiledProgram(byte[] classFile) {
+        Class<?> program = new Loader().define(classFile);
+        try {
+            run = program.getMethod("run", long.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("not a class from BytecodeGenerator", e);
+        }
+    }
+
+    // Runs the program from the start with every variable at 0; true if it
+    // ran to the end, false if it was stopped after 'budget' loop iterations.
+    // An int division by zero throws ArithmeticException.
+    public boolean run(long budget) {
+        long start = System.nanoTime();
+        try {
+            values = (double[]) run.invoke(null, budget);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            nanos = System.nanoTime() - start;
+        }
+        return isFinished();
+    }
+
+    // Of the last run
+    public long nanos() { return nanos; }
+    public boolean isFinished() { return values.length > 0 && values[values.length - 1] >= 0; }
+
+    // Value of variable v, numbered as BytecodeGenerator.variableName() numbers them, where the last run ended
+    public double value(int v) {
+        return values[v];
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(CompiledProgram.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] classFile) {
+            return defineClass(BytecodeGenerator.CLASS_NAME, classFile, 0, classFile.length);
+        }
+    }
+}
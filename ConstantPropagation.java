@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+// Sparse conditional constant propagation: operands known to hold a constant
+// are replaced by it and operators on constants are folded, following only
+// the branch edges that can be taken given what is known so far. Branches
+// with a known outcome become a goto or disappear, blocks control never
+// reaches are dropped, and temporaries whose every use was folded go too.
+public class ConstantPropagation implements IrPass {
+    @Override
+    public String name() {
+        return "constant propagation";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        if (ir.size() == 0) return;
+        new Analysis(new Cfg(ir)).rewrite();
+    }
+
+    private static final class Analysis extends Propagation {
+        private static final int ALL = -1;
+        // Per block, the only successor its branch can go to, ALL if it can go to any
+        // and cfg.size() if to none (a branch that is never taken at the very end)
+        private final int[] only;
+
+        Analysis(Cfg cfg) {
+            super(cfg);
+            only = new int[cfg.size()];
+            Arrays.fill(only, ALL);
+        }
+
+        @Override
+        protected boolean update(int b) {
+            if (!enter(b)) return false;
+            for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                transfer(k);
+            }
+            int target = onlySuccessor(b);
+            boolean changed = target != only[b];
+            only[b] = target;
+            return leave(b) | changed;
+        }
+
+        @Override
+        protected boolean flows(int b, int successor) {
+            return only[b] == ALL || only[b] == successor;
+        }
+
+        // The constant operand held by operand v here, or Ir.NONE
+        private int constant(int v) {
+            return ir.isConstant(v) ? v : fact(v);
+        }
+
+        // Applies instruction k to the facts; returns the constant it assigns, or Ir.NONE
+        private int transfer(int k) {
+            int op = ir.op(k);
+            if (!Ir.defines(op)) return Ir.NONE;
+            int result = Ir.NONE;
+            int x = constant(ir.src1(k));
+            if (op == Ir.COPY) {
+                result = x;
+            } else if (x != Ir.NONE && op < Ir.ADD) {
+                result = ir.constant(Ir.evaluate(op, ir.value(x), 0));
+            } else if (x != Ir.NONE) {
+                int y = constant(ir.src2(k));
+                // Division by zero is left for run time, as the generator does
+                if (y != Ir.NONE && !((op == Ir.DIV || op == Ir.IDIV) && ir.value(y) == 0)) {
+                    result = ir.constant(Ir.evaluate(op, ir.value(x), ir.value(y)));
+                }
+            }
+            define(ir.dest(k), result);
+            return result;
+        }
+
+        // Where the jump ending block b goes, given the facts at its end:
+        // a successor block, ALL when unknown or cfg.size() for nowhere
+        private int onlySuccessor(int b) {
+            int k = cfg.end(b) - 1;
+            int op = ir.op(k);
+            if (op < Ir.IF) return ALL;
+            int x = constant(ir.src1(k));
+            if (x == Ir.NONE) return ALL;
+            if (op == Ir.JUMP_TABLE) {
+                int table = ir.src2(k);
+                int[] labels = ir.tableLabels(table);
+                double i = ir.value(x) - ir.tableLow(table);
+                int label = i == (int) i && i >= 0 && i < labels.length ? labels[(int) i] : ir.dest(k);
+                return cfg.blockOfLabel(label);
+            }
+            boolean taken;
+            if (op == Ir.IF || op == Ir.IF_FALSE) {
+                taken = (ir.value(x) != 0) == (op == Ir.IF);
+            } else {
+                int y = constant(ir.src2(k));
+                if (y == Ir.NONE) return ALL;
+                boolean whenTrue = op <= Ir.IF_NE;
+                int relation = op - (whenTrue ? Ir.IF_LT : Ir.IF_FALSE_LT) + Ir.LT;
+                taken = (Ir.evaluate(relation, ir.value(x), ir.value(y)) != 0) == whenTrue;
+            }
+            if (taken) return cfg.blockOfLabel(ir.dest(k));
+            return b + 1 < cfg.size() ? b + 1 : cfg.size();
+        }
+
+        void rewrite() {
+            solve();
+            boolean[] removed = new boolean[ir.size()];
+            for (int b = 0; b < cfg.size(); b++) {
+                if (!enter(b)) {
+                    Arrays.fill(removed, cfg.start(b), cfg.end(b), true);
+                    continue;
+                }
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    int src1 = ir.src1(k);
+                    int src2 = ir.src2(k);
+                    if (Ir.readsSrc1(op) && constant(src1) != Ir.NONE) src1 = constant(src1);
+                    if (Ir.readsSrc2(op) && constant(src2) != Ir.NONE) src2 = constant(src2);
+                    ir.set(k, op, ir.dest(k), src1, src2);
+                    int result = transfer(k);
+                    if (result != Ir.NONE) ir.set(k, Ir.COPY, ir.dest(k), result, Ir.NONE);
+                }
+                int last = cfg.end(b) - 1;
+                if (only[b] == ALL || ir.op(last) < Ir.IF) continue;
+                if (only[b] < cfg.size() && only[b] != b + 1) {
+                    ir.set(last, Ir.GOTO, ir.dest(cfg.start(only[b])), Ir.NONE, Ir.NONE);
+                } else {
+                    removed[last] = true;
+                }
+            }
+            removeUnusedTemps(ir, removed);
+            ir.remove(removed);
+        }
+    }
+}
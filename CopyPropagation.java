@@ -0,0 +1,86 @@
+// Copy propagation. A temporary computed only to be copied into a variable
+// by the next instruction is computed into the variable directly. Then,
+// wherever a copy 'x = y' of a variable is known to still hold, reads of x
+// read y instead, and copies that end up assigning a variable to itself go.
+public class CopyPropagation implements IrPass {
+    @Override
+    public String name() {
+        return "copy propagation";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        if (ir.size() == 0) return;
+        boolean[] removed = new boolean[ir.size()];
+        coalesce(ir, removed);
+        ir.remove(removed);
+        new Analysis(new Cfg(ir)).rewrite();
+    }
+
+    // 't = a op b; x = t' becomes 'x = a op b' when that copy is all t is used for
+    private static void coalesce(Ir ir, boolean[] removed) {
+        int[] reads = new int[ir.operandCount()];
+        int[] writes = new int[ir.operandCount()];
+        for (int k = 0; k < ir.size(); k++) {
+            Propagation.countReads(ir, k, reads, 1);
+            if (Ir.defines(ir.op(k))) writes[ir.dest(k)]++;
+        }
+        for (int k = 0; k + 1 < ir.size(); k++) {
+            int op = ir.op(k);
+            if (!Ir.defines(op)) continue;
+            int temp = ir.dest(k);
+            if (ir.isTemp(temp) && reads[temp] == 1 && writes[temp] == 1
+                    && ir.op(k + 1) == Ir.COPY && ir.src1(k + 1) == temp) {
+                ir.set(k, op, ir.dest(k + 1), ir.src1(k), ir.src2(k));
+                removed[k + 1] = true;
+            }
+        }
+    }
+
+    private static final class Analysis extends Propagation {
+        Analysis(Cfg cfg) {
+            super(cfg);
+        }
+
+        @Override
+        protected boolean update(int b) {
+            if (!enter(b)) return false;
+            for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                transfer(k);
+            }
+            return leave(b);
+        }
+
+        // The operand whose value v holds here: the source of a copy still in force, or v
+        private int source(int v) {
+            int w = fact(v);
+            return w != Ir.NONE ? w : v;
+        }
+
+        private void transfer(int k) {
+            int op = ir.op(k);
+            if (!Ir.defines(op)) return;
+            int src = ir.src1(k);
+            boolean copy = op == Ir.COPY && ir.kind(src) == Ir.VARIABLE;
+            define(ir.dest(k), copy ? source(src) : Ir.NONE);
+        }
+
+        void rewrite() {
+            solve();
+            boolean[] removed = new boolean[ir.size()];
+            for (int b = 0; b < cfg.size(); b++) {
+                if (!enter(b)) continue;
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    int src1 = Ir.readsSrc1(op) ? source(ir.src1(k)) : ir.src1(k);
+                    int src2 = Ir.readsSrc2(op) ? source(ir.src2(k)) : ir.src2(k);
+                    ir.set(k, op, ir.dest(k), src1, src2);
+                    if (op == Ir.COPY && src1 == ir.dest(k)) removed[k] = true;
+                    transfer(k);
+                }
+            }
+            removeUnusedTemps(ir, removed);
+            ir.remove(removed);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Worklist solver for dataflow problems over a Cfg. Subclasses keep the facts
+// of each block and recompute them in update(); whenever a block's facts
+// change, the blocks reading them (successors going forward, predecessors
+// going backward) are queued again, until nothing changes.
+public abstract class Dataflow {
+    protected final Cfg cfg;
+    private final boolean forward;
+
+    protected Dataflow(Cfg cfg, boolean forward) {
+        this.cfg = cfg;
+        this.forward = forward;
+    }
+
+    public void solve() {
+        int n = cfg.size();
+        // Circular queue holding each block at most once, first filled in code order
+        // (reversed going backward) so most facts are ready before they are read
+        int[] queue = new int[n + 1];
+        boolean[] queued = new boolean[n];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            queue[tail++] = forward ? i : n - 1 - i;
+            queued[i] = true;
+        }
+        while (head != tail) {
+            int b = queue[head];
+            head = head == n ? 0 : head + 1;
+            queued[b] = false;
+            if (!update(b)) continue;
+            int count = forward ? cfg.successorCount(b) : cfg.predecessorCount(b);
+            for (int i = 0; i < count; i++) {
+                int next = forward ? cfg.successor(b, i) : cfg.predecessor(b, i);
+                if (queued[next] || forward && !flows(b, next)) continue;
+                queued[next] = true;
+                queue[tail] = next;
+                tail = tail == n ? 0 : tail + 1;
+            }
+        }
+    }
+
+    // Recomputes the facts of block b from its neighbours; true if they changed
+    protected abstract boolean update(int b);
+
+    // Whether control can pass from block b to its successor; a forward
+    // problem that proves a branch one-sided leaves the other edge out
+    protected boolean flows(int b, int successor) {
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+// Dead code elimination: drops the blocks control cannot reach from the
+// start, then every assignment whose destination is not live after it,
+// unless it can stop the program.
+// Removing an assignment can leave the ones feeding it dead in turn, so
+// liveness is recomputed until a round removes nothing.
+public class DeadCodeElimination implements IrPass {
+    @Override
+    public String name() {
+        return "dead code elimination";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        removeUnreachable(ir);
+        boolean removed = true;
+        while (removed && ir.size() > 0) removed = removeDead(ir);
+    }
+
+    static void removeUnreachable(Ir ir) {
+        if (ir.size() == 0) return;
+        Cfg cfg = new Cfg(ir);
+        boolean[] reached = new boolean[cfg.size()];
+        int[] stack = new int[cfg.size()];
+        int top = 0;
+        stack[top++] = 0;
+        reached[0] = true;
+        while (top > 0) {
+            int b = stack[--top];
+            for (int i = 0; i < cfg.successorCount(b); i++) {
+                int next = cfg.successor(b, i);
+                if (reached[next]) continue;
+                reached[next] = true;
+                stack[top++] = next;
+            }
+        }
+        boolean[] removed = new boolean[ir.size()];
+        for (int b = 0; b < cfg.size(); b++) {
+            if (reached[b]) continue;
+            for (int k = cfg.start(b); k < cfg.end(b); k++) removed[k] = true;
+        }
+        ir.remove(removed);
+    }
+
+    // One sweep backward through each block; true if anything was removed
+    private static boolean removeDead(Ir ir) {
+        Cfg cfg = new Cfg(ir);
+        Liveness liveness = new Liveness(cfg);
+        boolean[] removed = new boolean[ir.size()];
+        boolean any = false;
+        // Liveness inside the block being swept: seen[v] == b + 1 means live[v] is set
+        boolean[] live = new boolean[ir.operandCount()];
+        int[] seen = new int[ir.operandCount()];
+        for (int b = 0; b < cfg.size(); b++) {
+            for (int k = cfg.end(b) - 1; k >= cfg.start(b); k--) {
+                int op = ir.op(k);
+                if (Ir.defines(op)) {
+                    int dest = ir.dest(k);
+                    boolean needed = seen[dest] == b + 1 ? live[dest] : liveness.isLiveOut(b, dest);
+                    if (!needed && !ir.canTrap(k)) {
+                        removed[k] = true;
+                        any = true;
+                        continue;
+                    }
+                    seen[dest] = b + 1;
+                    live[dest] = false;
+                }
+                if (Ir.readsSrc1(op)) {
+                    seen[ir.src1(k)] = b + 1;
+                    live[ir.src1(k)] = true;
+                }
+                if (Ir.readsSrc2(op)) {
+                    seen[ir.src2(k)] = b + 1;
+                    live[ir.src2(k)] = true;
+                }
+            }
+        }
+        if (any) ir.remove(removed);
+        return any;
+    }
+}
@@ -0,0 +1,40 @@
+// One problem found while compiling: severity, a stable code for tools, the
+// source span it applies to and a message. start, end and token are -1 when
+// the problem has no location.
+public class Diagnostic {
+    public enum Severity { ERROR, WARNING }
+
+    private final Severity severity;
+    private final String code;
+    private final int start;
+    private final int end;
+    private final int token;
+    private final String position;
+    private final String message;
+
+    public Diagnostic(Severity severity, String code, int start, int end, int token, String position, String message) {
+        this.severity = severity;
+        this.code = code;
+        this.start = start;
+        this.end = end;
+        this.token = token;
+        this.position = position;
+        this.message = message;
+    }
+
+    public Severity getSeverity() { return severity; }
+    public String getCode() { return code; }
+    public int getStart() { return start; }
+    public int getEnd() { return end; }
+    // Token index in the buffer version it was reported against
+    public int getToken() { return token; }
+    // "line:column", "end of input", or "" without a location
+    public String getPosition() { return position; }
+    public String getMessage() { return message; }
+
+    @Override
+    public String toString() {
+        String text = severity == Severity.WARNING ? "Warning: " + message : message;
+        return position.isEmpty() ? text + "." : text + " at " + position + ".";
+    }
+}
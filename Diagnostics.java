@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Collects the diagnostics of one compile. Once maxErrors errors have been
+// reported the next one ends the compile: a final "too-many-errors" entry is
+// added and a SyntaxError is thrown for the driver to catch.
+public class Diagnostics {
+    public static final int DEFAULT_MAX_ERRORS = 100;
+
+    private final TokenBuffer tokens;
+    private final int maxErrors;
+    private final List<Diagnostic> list = new ArrayList<>();
+    private int errorCount;
+
+    public Diagnostics(TokenBuffer tokens, int maxErrors) {
+        this.tokens = tokens;
+        this.maxErrors = maxErrors;
+    }
+
+    // 'token' may be tokens.size() for the end of input, or -1 for no location
+    public void error(String code, int token, String message) throws SyntaxError {
+        if (errorCount == maxErrors) {
+            list.add(at(Diagnostic.Severity.ERROR, "too-many-errors", -1, "Too many errors, stopped after " + maxErrors));
+            errorCount++;
+            throw new SyntaxError("Too many errors, stopped after " + maxErrors + ".", token);
+        }
+        list.add(at(Diagnostic.Severity.ERROR, code, token, message));
+        errorCount++;
+    }
+
+    public void warning(String code, int token, String message) {
+        list.add(at(Diagnostic.Severity.WARNING, code, token, message));
+    }
+
+    private Diagnostic at(Diagnostic.Severity severity, String code, int token, String message) {
+        if (token < 0) return new Diagnostic(severity, code, -1, -1, -1, "", message);
+        if (token >= tokens.size()) {
+            int end = tokens.source().length();
+            return new Diagnostic(severity, code, end, end, tokens.size(), "end of input", message);
+        }
+        return new Diagnostic(severity, code, tokens.start(token), tokens.end(token), token, tokens.position(token), message);
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public List<Diagnostic> getList() {
+        return Collections.unmodifiableList(list);
+    }
+
+    // Errors first, then warnings, each in source order with unlocated entries last
+    public String format() {
+        List<Diagnostic> sorted = new ArrayList<>(list);
+        sorted.sort(Comparator.comparing(Diagnostic::getSeverity)
+            .thenComparingInt(d -> d.getStart() < 0 ? Integer.MAX_VALUE : d.getStart()));
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic d : sorted) {
+            sb.append(d).append('\n');
+        }
+        return sb.toString();
+    }
+}
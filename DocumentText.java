@@ -0,0 +1,59 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+// Read-only CharSequence view over a Swing Document. The first piece is fetched
+// with a partial return, so GapContent hands back its own array up to the gap;
+// the remainder after the gap is contiguous and is also returned without a copy.
+public class DocumentText implements CharSequence {
+    private final Segment head = new Segment();
+    private final Segment tail = new Segment();
+    private int headLength;
+    private int length;
+
+    public DocumentText() {
+        head.setPartialReturn(true);
+    }
+
+    // Must be called again after the document changes.
+    public DocumentText load(Document doc) {
+        length = doc.getLength();
+        try {
+            doc.getText(0, length, head);
+            headLength = head.count;
+            tail.count = 0;
+            if (headLength < length) {
+                doc.getText(headLength, length - headLength, tail);
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < headLength) return head.array[head.offset + index];
+        return tail.array[tail.offset + index - headLength];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (end <= headLength) return new String(head.array, head.offset + start, end - start);
+        if (start >= headLength) return new String(tail.array, tail.offset + start - headLength, end - start);
+        return new StringBuilder(end - start)
+            .append(head.array, head.offset + start, headLength - start)
+            .append(tail.array, tail.offset, end - headLength)
+            .toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
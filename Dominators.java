@@ -0,0 +1,193 @@
+import java.util.Arrays;
+
+// Dominator tree of the blocks reachable from the start of a Cfg, by the
+// iterative algorithm of Cooper, Harvey and Kennedy: immediate dominators
+// are refined in reverse postorder until they settle. Numbering the tree in
+// preorder and postorder answers dominates() in constant time.
+public class Dominators {
+    private final Cfg cfg;
+    private final int[] order; // reachable blocks in reverse postorder
+    private final int[] orderIndex; // per block, its place in 'order', or -1 if unreachable
+    private final int[] idom; // per block, -1 for the start and unreachable blocks
+    private final int[] pre;
+    private final int[] post;
+    private int[] childStarts; // dominator tree children, CSR over blocks
+    private int[] children;
+    private int[] frontierStarts; // dominance frontiers, CSR, built on first use
+    private int[] frontiers;
+
+    public Dominators(Cfg cfg) {
+        this.cfg = cfg;
+        int blocks = cfg.size();
+        orderIndex = new int[blocks];
+        Arrays.fill(orderIndex, -1);
+        order = reversePostorder(blocks);
+        for (int i = 0; i < order.length; i++) orderIndex[order[i]] = i;
+
+        idom = new int[blocks];
+        Arrays.fill(idom, -1);
+        if (order.length > 0) idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                int b = order[i];
+                int next = -1;
+                for (int j = 0; j < cfg.predecessorCount(b); j++) {
+                    int p = cfg.predecessor(b, j);
+                    if (idom[p] < 0) continue;
+                    next = next < 0 ? p : intersect(p, next);
+                }
+                if (next != idom[b]) {
+                    idom[b] = next;
+                    changed = true;
+                }
+            }
+        }
+        if (order.length > 0) idom[0] = -1;
+
+        pre = new int[blocks];
+        post = new int[blocks];
+        number(blocks);
+    }
+
+    // Walks up from both blocks to their nearest common dominator
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (orderIndex[a] > orderIndex[b]) a = idom[a];
+            while (orderIndex[b] > orderIndex[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    private int[] reversePostorder(int blocks) {
+        int[] result = new int[blocks];
+        if (blocks == 0) return result;
+        int count = blocks;
+        boolean[] visited = new boolean[blocks];
+        int[] stack = new int[blocks];
+        int[] next = new int[blocks]; // successor index to try next, per block on the stack
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (next[b] < cfg.successorCount(b)) {
+                int s = cfg.successor(b, next[b]++);
+                if (!visited[s]) {
+                    visited[s] = true;
+                    stack[top++] = s;
+                }
+            } else {
+                result[--count] = b;
+                top--;
+            }
+        }
+        return Arrays.copyOfRange(result, count, blocks);
+    }
+
+    // Preorder and postorder numbers of the dominator tree
+    private void number(int blocks) {
+        childStarts = new int[blocks + 1];
+        for (int b = 0; b < blocks; b++) {
+            if (idom[b] >= 0) childStarts[idom[b] + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) childStarts[b + 1] += childStarts[b];
+        children = new int[childStarts[blocks]];
+        int[] fill = Arrays.copyOf(childStarts, blocks);
+        for (int b = 0; b < blocks; b++) {
+            if (idom[b] >= 0) children[fill[idom[b]]++] = b;
+        }
+        if (order.length == 0) return;
+        int[] stack = new int[blocks];
+        int[] next = Arrays.copyOf(childStarts, blocks);
+        int top = 0;
+        int clock = 0;
+        stack[top++] = 0;
+        pre[0] = clock++;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (next[b] < childStarts[b + 1]) {
+                int c = children[next[b]++];
+                pre[c] = clock++;
+                stack[top++] = c;
+            } else {
+                post[b] = clock++;
+                top--;
+            }
+        }
+    }
+
+    public boolean isReachable(int b) {
+        return orderIndex[b] >= 0;
+    }
+
+    // Immediate dominator of b, or -1 for the start block and unreachable blocks
+    public int idom(int b) {
+        return idom[b];
+    }
+
+    // Whether every path from the start to b goes through a; both must be reachable
+    public boolean dominates(int a, int b) {
+        return pre[a] <= pre[b] && post[b] <= post[a];
+    }
+
+    // The reachable blocks, each after all its predecessors except along back edges
+    public int[] reversePostorder() {
+        return order;
+    }
+
+    public int childCount(int b) { return childStarts[b + 1] - childStarts[b]; }
+    public int child(int b, int i) { return children[childStarts[b] + i]; }
+
+    // Dominance frontier of b: the blocks where b's dominance ends, each
+    // reached from a block b dominates without b dominating it
+    public int frontierCount(int b) {
+        if (frontierStarts == null) buildFrontiers();
+        return frontierStarts[b + 1] - frontierStarts[b];
+    }
+
+    public int frontier(int b, int i) {
+        if (frontierStarts == null) buildFrontiers();
+        return frontiers[frontierStarts[b] + i];
+    }
+
+    // A join point j is in the frontier of each block from its predecessors
+    // up to, not including, its immediate dominator. Counted in the first
+    // pass and recorded in the second. The start block is a join point as
+    // soon as anything jumps back to it, since control also enters it from outside.
+    private void buildFrontiers() {
+        int blocks = cfg.size();
+        int[] starts = new int[blocks + 1];
+        int[] list = new int[0];
+        int[] added = new int[blocks]; // per block, the join point last added to its frontier, plus one
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(added, 0);
+            for (int j = 0; j < blocks; j++) {
+                if (!isReachable(j) || cfg.predecessorCount(j) < (j == 0 ? 1 : 2)) continue;
+                for (int i = 0; i < cfg.predecessorCount(j); i++) {
+                    int runner = cfg.predecessor(j, i);
+                    if (!isReachable(runner)) continue;
+                    while (runner >= 0 && runner != idom[j] && added[runner] != j + 1) {
+                        added[runner] = j + 1;
+                        if (pass == 0) {
+                            starts[runner + 1]++;
+                        } else {
+                            list[starts[runner]++] = j;
+                        }
+                        runner = idom[runner];
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int b = 0; b < blocks; b++) starts[b + 1] += starts[b];
+                list = new int[starts[blocks]];
+            }
+        }
+        // Recording moved each start up to the next block's; shift them back
+        System.arraycopy(starts, 0, starts, 1, blocks);
+        starts[0] = 0;
+        frontierStarts = starts;
+        frontiers = list;
+    }
+}
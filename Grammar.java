@@ -0,0 +1,490 @@
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// The mini-language as an LL(1) grammar, turned into a parse table once at
+// class load. Parser runs the table with an explicit stack, so nesting depth is
+// bounded by memory instead of the Java call stack.
+//
+// Notation: 'x' is a keyword, symbol or operator; ID NUM STR EOF and the
+// classes defined with '=' are token classes. A leading $ keeps the index of
+// the matched token as a value. "..." after a terminal is the context of its
+// "Expected" message, or a complete "!code message"; after a nonterminal it is
+// the context used when the nonterminal cannot start. A lone "!code message"
+// reports that error. ';'~ may be left out at a line break, and '}'^ is assumed
+// at the end of input after reporting the '{' its production opened. #name runs
+// a Parser action; @name is where Parser recovers from errors in the rest of
+// the production. In messages $0 and $1 are the first and second token of the
+// production and $ is the current token. A production marked * is used for
+// every lookahead that has no entry of its own.
+public final class Grammar {
+    private static final String DESCRIPTION = """
+        TYPE        = int float double char boolean
+        RELOP       = < > == != <= >=
+        ADDOP       = +
+        MULOP       = * /
+
+        Item        -> ';'
+        Item        -> * @statement Stmt
+        Stmt        -> Decl ';'~"after declaration of '$1'" #extend
+        Stmt        -> Assign ';'~"after assignment to '$0'" #extend
+        Stmt        -> IfStmt
+        Stmt        -> 'while' '('"after 'while'" WhileCond #enter Block"after 'while' condition" #leave #while
+        Stmt        -> 'for' '('"after 'for'" ForHeader #enter Block"after 'for' loop" #leave #for
+        Stmt        -> 'switch' '('"after 'switch'" SwitchCond #enter SwitchBody"after 'switch' expression" #leave #switch
+        Stmt        -> #checkbreak 'break' ';'~"after 'break'" #break
+        Stmt        -> Block
+        Stmt        -> "!misplaced-else 'else' without 'if'" 'else'
+        Stmt        -> "!misplaced-case 'case' outside 'switch'" 'case'
+        Stmt        -> "!misplaced-case 'default' outside 'switch'" 'default'
+        Stmt        -> * "!unexpected-token Unexpected '$'"
+        Decl        -> $TYPE $ID"!expected-identifier Expected identifier after type" DeclInit #decl
+        DeclInit    -> '=' Expr
+        DeclInit    -> #null
+        Assign      -> $ID '='"!expected-token Expected '=' after '$0'" Expr #assign
+        IfStmt      -> 'if' '('"after 'if'" IfCond Block"after 'if' condition" Else #if
+        Else        -> 'else' ElseBody
+        Else        -> #null
+        ElseBody    -> IfStmt
+        ElseBody    -> * Block"after 'else'"
+        IfCond      -> * @header Expr ')'"after 'if' condition"
+        WhileCond   -> * @header Expr ')'"after 'while' condition"
+        SwitchCond  -> * @header Expr ')'"after 'switch' expression"
+        ForHeader   -> * @forheader ForInit ';'"after 'for' initializer" ForCond ';'"after 'for' condition" ForUpdate ')'"after 'for' update"
+        ForInit     -> Decl
+        ForInit     -> #null
+        ForInit     -> * HeaderAssign
+        ForCond     -> #null
+        ForCond     -> * Expr
+        ForUpdate   -> #null
+        ForUpdate   -> * HeaderAssign
+        HeaderAssign -> Assign
+        HeaderAssign -> * "!expected-assignment Expected assignment in 'for' loop declaration"
+        SwitchBody  -> '{' Cases '}'^
+        Cases       -> * Case Cases
+        Cases       ->
+        Case        -> * Label CaseItems #case
+        Label       -> @caselabel 'case' CaseValue ':'"after 'case' value"
+        Label       -> @caselabel 'default' #default ':'"after 'default'"
+        Label       -> * @caselabel "!expected-case Expected 'case' or 'default' in 'switch'"
+        CaseValue   -> $NUM
+        CaseValue   -> $ID
+        CaseValue   -> * "!expected-case-value Expected constant or identifier after 'case'"
+        CaseItems   -> * Item CaseItems
+        CaseItems   ->
+        Block       -> '{' BlockItems '}'^ #block
+        BlockItems  -> * Item BlockItems
+        BlockItems  ->
+        Expr        -> * Conj OrTail
+        OrTail      -> $'||' Conj #binary OrTail
+        OrTail      ->
+        Conj        -> * Rel AndTail
+        AndTail     -> $'&&' Rel #binary AndTail
+        AndTail     ->
+        Rel         -> * Sum RelTail
+        RelTail     -> $RELOP Sum #binary RelTail
+        RelTail     ->
+        Sum         -> * Term SumTail
+        SumTail     -> $ADDOP Term #binary SumTail
+        SumTail     -> $'-' Term #binary SumTail
+        SumTail     ->
+        Term        -> * Unary MulTail
+        MulTail     -> $MULOP Unary #binary MulTail
+        MulTail     ->
+        Unary       -> $'-' Unary #unary
+        Unary       -> $'!' Unary #unary
+        Unary       -> * Primary
+        Primary     -> $ID #operand
+        Primary     -> $NUM #operand
+        Primary     -> $STR #operand
+        Primary     -> '(' Expr ')'"!unmatched-paren Unclosed parenthesis in expression" #parens
+        Primary     -> "!unmatched-paren Mismatched closing parenthesis ')'" ')'
+        Primary     -> "!expected-expression Expected expression" EOF
+        Primary     -> * "!expected-expression Expected expression but found '$'"
+        """;
+
+    // Parser actions, in the order of their ids below
+    private static final String[] ACTIONS = {"extend", "enter", "leave", "while", "for", "switch", "checkbreak",
+        "break", "decl", "null", "assign", "if", "case", "default", "block", "binary", "unary", "operand", "parens"};
+    static final int EXTEND = 0, ENTER = 1, LEAVE = 2, WHILE = 3, FOR = 4, SWITCH = 5, CHECK_BREAK = 6,
+        BREAK = 7, DECL = 8, NULL = 9, ASSIGN = 10, IF = 11, CASE = 12, DEFAULT = 13, BLOCK = 14,
+        BINARY = 15, UNARY = 16, OPERAND = 17, PARENS = 18;
+
+    private static final String[] RECOVERIES = {"statement", "header", "forheader", "caselabel"};
+    static final int STATEMENT = 0, HEADER = 1, FOR_HEADER = 2, CASE_LABEL = 3;
+
+    // A grammar symbol is kind << 24 | id
+    static final int TERMINAL = 0, CAPTURE = 1, INSERTABLE = 2, CLOSE = 3, NONTERMINAL = 4, ACTION = 5,
+        RECOVER = 6, ERROR = 7;
+
+    static final int EOF = 0, OTHER = 1, ID = 2, NUM = 3, STR = 4;
+    static final int START; // Item, one top-level statement
+
+    static final int TERMINAL_COUNT;
+    // Symbols that replace nonterminal n at lookahead t, in push order, at
+    // index n * TERMINAL_COUNT + t; null where the nonterminal cannot start
+    static final int[][] EXPANSIONS;
+    // Per pushed symbol: the message reported when it fails, or -1
+    static final int[][] EXPANSION_INFO;
+    static final String[] CODES;
+    static final String[] MESSAGES;
+
+    // Token text to terminal: keywords by KeywordTable number, one-character
+    // operators and symbols by character, and two-character operators ("x="
+    // and "xx") by first character
+    private static final int[] KEYWORDS = new int[KeywordTable.size()];
+    private static final int[] SINGLE = new int[128];
+    private static final int[] WITH_EQUALS = new int[128];
+    private static final int[] DOUBLED = new int[128];
+
+    private Grammar() {
+    }
+
+    static int kind(int symbol) {
+        return symbol >>> 24;
+    }
+
+    static int id(int symbol) {
+        return symbol & 0xFFFFFF;
+    }
+
+    static int symbol(int kind, int id) {
+        return kind << 24 | id;
+    }
+
+    // Terminal of token i, EOF past the last token
+    static int terminal(TokenBuffer tokens, int i) {
+        if (i >= tokens.size()) return EOF;
+        switch (tokens.kind(i)) {
+            case TokenKind.IDENTIFIER:
+                return ID;
+            case TokenKind.NUMBER:
+                return NUM;
+            case TokenKind.STRING_LITERAL:
+                return STR;
+            case TokenKind.KEYWORD:
+                return KEYWORDS[tokens.keywordIndex(i)];
+            case TokenKind.OPERATOR:
+            case TokenKind.SYMBOL:
+                int start = tokens.start(i);
+                char c = tokens.source().charAt(start);
+                if (c >= 128) return OTHER;
+                int length = tokens.end(i) - start;
+                if (length == 1) return SINGLE[c];
+                if (length != 2) return OTHER;
+                char second = tokens.source().charAt(start + 1);
+                return second == '=' ? WITH_EQUALS[c] : second == c ? DOUBLED[c] : OTHER;
+            default:
+                return OTHER;
+        }
+    }
+
+    static {
+        Arrays.fill(KEYWORDS, OTHER);
+        Arrays.fill(SINGLE, OTHER);
+        Arrays.fill(WITH_EQUALS, OTHER);
+        Arrays.fill(DOUBLED, OTHER);
+        List<String> terminalNames = new ArrayList<>(List.of("end of input", "", "identifier", "number", "string"));
+        Map<String, Integer> terminals = new HashMap<>(Map.of("EOF", EOF, "ID", ID, "NUM", NUM, "STR", STR));
+        Map<String, Integer> nonterminals = new LinkedHashMap<>();
+        List<String> lines = new ArrayList<>();
+        for (String line : DESCRIPTION.split("\n")) {
+            line = line.strip();
+            if (line.isEmpty()) continue;
+            int equals = line.indexOf(" = ");
+            if (equals < 0) {
+                lines.add(line);
+                nonterminals.putIfAbsent(line.substring(0, line.indexOf(' ')), nonterminals.size());
+                continue;
+            }
+            int terminal = terminalNames.size();
+            terminals.put(line.substring(0, equals).strip(), terminal);
+            terminalNames.add(line.substring(0, equals).strip());
+            for (String member : line.substring(equals + 3).strip().split("\\s+")) {
+                classify(member, terminal);
+            }
+        }
+
+        // Read the productions; quoted terminals are numbered as they appear
+        Pattern symbolPattern = Pattern.compile("(\\$?)('[^']+'|\\w+)([~^]?)(\"[^\"]*\")?|\"[^\"]*\"|\\*|[#@]\\w+");
+        List<String> codes = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        int count = lines.size();
+        int[] lhs = new int[count];
+        int[][] rhs = new int[count][];
+        int[][] info = new int[count][];
+        boolean[] isDefault = new boolean[count];
+        boolean[] isError = new boolean[count];
+        String[][] contexts = new String[count][];
+        for (int p = 0; p < count; p++) {
+            String line = lines.get(p);
+            int arrow = line.indexOf("->");
+            lhs[p] = nonterminals.get(line.substring(0, arrow).strip());
+            List<Integer> symbols = new ArrayList<>();
+            List<String> context = new ArrayList<>();
+            Matcher m = symbolPattern.matcher(line.substring(arrow + 2));
+            while (m.find()) {
+                String text = m.group();
+                if (text.equals("*")) {
+                    isDefault[p] = true;
+                } else if (text.startsWith("#")) {
+                    symbols.add(symbol(ACTION, indexOf(ACTIONS, text.substring(1))));
+                    context.add(null);
+                } else if (text.startsWith("@")) {
+                    if (!symbols.isEmpty()) throw new IllegalStateException("Recovery point must come first: " + line);
+                    symbols.add(symbol(RECOVER, indexOf(RECOVERIES, text.substring(1))));
+                    context.add(null);
+                } else if (text.startsWith("\"")) {
+                    symbols.add(symbol(ERROR, 0));
+                    context.add(text.substring(1, text.length() - 1));
+                    if (symbols.size() == 1 || kind(symbols.get(0)) == RECOVER) isError[p] = true;
+                } else {
+                    String name = m.group(2);
+                    String ctx = m.group(4) == null ? null : m.group(4).substring(1, m.group(4).length() - 1);
+                    if (name.startsWith("'")) {
+                        String token = name.substring(1, name.length() - 1);
+                        if (!terminals.containsKey(name)) {
+                            terminals.put(name, terminalNames.size());
+                            classify(token, terminalNames.size());
+                            terminalNames.add(token);
+                        }
+                    }
+                    Integer terminal = terminals.get(name);
+                    int kind;
+                    if (terminal == null) {
+                        kind = NONTERMINAL;
+                    } else if (!m.group(1).isEmpty()) {
+                        kind = CAPTURE;
+                    } else if (m.group(3).equals("~")) {
+                        kind = INSERTABLE;
+                    } else if (m.group(3).equals("^")) {
+                        kind = CLOSE;
+                    } else {
+                        kind = TERMINAL;
+                    }
+                    Integer id = terminal != null ? terminal : nonterminals.get(name);
+                    if (id == null) throw new IllegalStateException("Undefined symbol " + name);
+                    symbols.add(symbol(kind, id));
+                    context.add(ctx);
+                }
+            }
+            rhs[p] = symbols.stream().mapToInt(Integer::intValue).toArray();
+            contexts[p] = context.toArray(new String[0]);
+        }
+
+        int t = terminalNames.size();
+        int n = nonterminals.size();
+        TERMINAL_COUNT = t;
+        START = nonterminals.get("Item");
+
+        // Nullable, FIRST and FOLLOW over the productions that are not error reports
+        boolean[] nullable = new boolean[n];
+        BitSet[] first = new BitSet[n];
+        BitSet[] follow = new BitSet[n];
+        for (int a = 0; a < n; a++) {
+            first[a] = new BitSet(t);
+            follow[a] = new BitSet(t);
+        }
+        follow[START].set(EOF);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int p = 0; p < count; p++) {
+                if (isError[p]) continue;
+                int a = lhs[p];
+                BitSet f = firstOf(rhs[p], 0, first, nullable);
+                if (!isSubset(f, first[a])) {
+                    first[a].or(f);
+                    changed = true;
+                }
+                if (!nullable[a] && nullableFrom(rhs[p], 0, nullable)) {
+                    nullable[a] = true;
+                    changed = true;
+                }
+                for (int k = 0; k < rhs[p].length; k++) {
+                    if (kind(rhs[p][k]) != NONTERMINAL) continue;
+                    int b = id(rhs[p][k]);
+                    BitSet rest = firstOf(rhs[p], k + 1, first, nullable);
+                    if (nullableFrom(rhs[p], k + 1, nullable)) rest.or(follow[a]);
+                    if (!isSubset(rest, follow[b])) {
+                        follow[b].or(rest);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // FIRST entries, then FOLLOW for the empty production, then error
+        // reports, then end of input for nullable nonterminals, then defaults
+        int[] table = new int[n * t];
+        Arrays.fill(table, -1);
+        for (int p = 0; p < count; p++) {
+            if (isError[p]) continue;
+            BitSet f = firstOf(rhs[p], 0, first, nullable);
+            for (int x = f.nextSetBit(0); x >= 0; x = f.nextSetBit(x + 1)) {
+                put(table, lhs[p] * t + x, p);
+            }
+        }
+        int[] empty = new int[n];
+        int[] fallback = new int[n];
+        Arrays.fill(empty, -1);
+        Arrays.fill(fallback, -1);
+        for (int p = 0; p < count; p++) {
+            if (!isError[p] && nullableFrom(rhs[p], 0, nullable)) empty[lhs[p]] = p;
+            if (isDefault[p]) fallback[lhs[p]] = p;
+        }
+        for (int a = 0; a < n; a++) {
+            if (empty[a] < 0) continue;
+            for (int x = follow[a].nextSetBit(0); x >= 0; x = follow[a].nextSetBit(x + 1)) {
+                put(table, a * t + x, empty[a]);
+            }
+        }
+        for (int p = 0; p < count; p++) {
+            if (!isError[p]) continue;
+            BitSet f = firstOf(rhs[p], 0, first, nullable);
+            for (int x = f.nextSetBit(0); x >= 0; x = f.nextSetBit(x + 1)) {
+                if (table[lhs[p] * t + x] < 0) table[lhs[p] * t + x] = p;
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            if (empty[a] >= 0 && table[a * t + EOF] < 0) table[a * t + EOF] = empty[a];
+            int other = fallback[a] >= 0 ? fallback[a] : empty[a];
+            for (int x = 0; x < t; x++) {
+                if (table[a * t + x] < 0) table[a * t + x] = other;
+            }
+        }
+
+        // Messages for every symbol that can fail
+        for (int p = 0; p < count; p++) {
+            info[p] = new int[rhs[p].length];
+            for (int k = 0; k < rhs[p].length; k++) {
+                int s = rhs[p][k];
+                String ctx = contexts[p][k];
+                String code = "expected-token";
+                String message = null;
+                if (ctx != null && ctx.startsWith("!")) {
+                    int space = ctx.indexOf(' ');
+                    code = ctx.substring(1, space);
+                    message = ctx.substring(space + 1);
+                } else if (kind(s) == CLOSE) {
+                    code = "unmatched-brace";
+                    message = "Unmatched opening brace '{'";
+                } else if (kind(s) <= CLOSE) {
+                    message = "Expected '" + terminalNames.get(id(s)) + "'" + (ctx != null ? " " + ctx : "");
+                } else if (kind(s) == NONTERMINAL && ctx != null) {
+                    // Only nonterminals that start with a single terminal take a context
+                    BitSet f = first[id(s)];
+                    message = "Expected '" + terminalNames.get(f.nextSetBit(0)) + "' " + ctx;
+                }
+                info[p][k] = -1;
+                if (message != null) {
+                    info[p][k] = messages.size();
+                    codes.add(code);
+                    messages.add(message);
+                }
+            }
+        }
+
+        // A production that starts with a nonterminal is expanded together with
+        // the production chosen for that nonterminal at the same lookahead, and so
+        // on down the chain: nothing is consumed or built in between, so the
+        // parser pushes the whole chain at once
+        int[][] expansions = new int[n * t][];
+        int[][] expansionInfo = new int[n * t][];
+        for (int cell = 0; cell < n * t; cell++) {
+            int p = table[cell];
+            if (p < 0) continue;
+            List<Integer> symbols = new ArrayList<>();
+            List<Integer> infos = new ArrayList<>();
+            while (true) {
+                int[] r = rhs[p];
+                // A recovery point goes under the rest of its production, which it guards
+                int from = 0;
+                if (r.length > 0 && kind(r[0]) == RECOVER) {
+                    symbols.add(r[0]);
+                    infos.add(-1);
+                    from = 1;
+                }
+                int last = r.length > from && kind(r[from]) == NONTERMINAL
+                    && table[id(r[from]) * t + cell % t] >= 0 ? from + 1 : from;
+                for (int k = r.length - 1; k >= last; k--) {
+                    symbols.add(r[k]);
+                    infos.add(info[p][k]);
+                }
+                if (last == from) break;
+                p = table[id(r[from]) * t + cell % t];
+            }
+            expansions[cell] = symbols.stream().mapToInt(Integer::intValue).toArray();
+            expansionInfo[cell] = infos.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        EXPANSIONS = expansions;
+        EXPANSION_INFO = expansionInfo;
+        CODES = codes.toArray(new String[0]);
+        MESSAGES = messages.toArray(new String[0]);
+    }
+
+    private static void classify(String token, int terminal) {
+        char c = token.charAt(0);
+        if (Character.isLetter(c)) {
+            int keyword = KeywordTable.indexOf(token, 0, token.length());
+            if (keyword < 0) throw new IllegalStateException("Not a keyword: " + token);
+            KEYWORDS[keyword] = terminal;
+        } else if (token.length() == 1) {
+            SINGLE[c] = terminal;
+        } else if (token.length() == 2 && token.charAt(1) == '=') {
+            WITH_EQUALS[c] = terminal;
+        } else if (token.length() == 2 && token.charAt(1) == c) {
+            DOUBLED[c] = terminal;
+        } else {
+            throw new IllegalStateException("Cannot classify " + token);
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        int index = Arrays.asList(names).indexOf(name);
+        if (index < 0) throw new IllegalStateException("Unknown name " + name);
+        return index;
+    }
+
+    private static void put(int[] table, int cell, int production) {
+        if (table[cell] >= 0 && table[cell] != production) {
+            throw new IllegalStateException("Grammar is not LL(1): productions " + table[cell] + " and " + production);
+        }
+        table[cell] = production;
+    }
+
+    private static boolean isSubset(BitSet a, BitSet b) {
+        BitSet c = (BitSet) a.clone();
+        c.andNot(b);
+        return c.isEmpty();
+    }
+
+    // Actions, recovery points and error reports match no input
+    private static boolean isMarker(int symbol) {
+        return kind(symbol) >= ACTION;
+    }
+
+    private static BitSet firstOf(int[] rhs, int from, BitSet[] first, boolean[] nullable) {
+        BitSet f = new BitSet();
+        for (int k = from; k < rhs.length; k++) {
+            int s = rhs[k];
+            if (isMarker(s)) continue;
+            if (kind(s) != NONTERMINAL) {
+                f.set(id(s));
+                return f;
+            }
+            f.or(first[id(s)]);
+            if (!nullable[id(s)]) return f;
+        }
+        return f;
+    }
+
+    private static boolean nullableFrom(int[] rhs, int from, boolean[] nullable) {
+        for (int k = from; k < rhs.length; k++) {
+            int s = rhs[k];
+            if (isMarker(s)) continue;
+            if (kind(s) != NONTERMINAL || !nullable[id(s)]) return false;
+        }
+        return true;
+    }
+}
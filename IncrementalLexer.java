@@ -0,0 +1,132 @@
+import java.util.Arrays;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+// Keeps a TokenBuffer in step with a Document. After an edit only the damaged
+// region is re-lexed: scanning restarts at the end of the token two before the
+// edit (the scanner never looks more than two characters past a token) and
+// stops as soon as a new token lines up with a shifted old one; the new tokens
+// are then spliced into the buffer.
+public class IncrementalLexer implements DocumentListener {
+    // Told which tokens changed: [from, to) of the old buffer became 'count' new tokens
+    public interface Listener {
+        void tokensReplaced(int from, int to, int count);
+    }
+
+    private final LexerDFA scanner = new LexerDFA();
+    private final DocumentText text = new DocumentText();
+    private final TokenBuffer tokens;
+    private final Listener listener;
+    private Document document;
+    // The unterminated '"' in the text, if any; inserting a quote after it re-pairs strings
+    private int danglingQuote = -1;
+
+    private byte[] newKinds = new byte[64];
+    private int[] newStarts = new int[64];
+    private int[] newEnds = new int[64];
+
+    public IncrementalLexer(TokenBuffer tokens, Listener listener) {
+        this.tokens = tokens;
+        this.listener = listener;
+    }
+
+    public void attach(Document doc) {
+        detach();
+        document = doc;
+        doc.addDocumentListener(this);
+        rescan();
+    }
+
+    public void detach() {
+        if (document != null) {
+            document.removeDocumentListener(this);
+            document = null;
+        }
+    }
+
+    public void rescan() {
+        int oldSize = tokens.size();
+        scanner.scan(text.load(document), tokens);
+        danglingQuote = scanner.skippedQuote();
+        listener.tokensReplaced(0, oldSize, tokens.size());
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edit(e.getOffset(), 0, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edit(e.getOffset(), e.getLength(), 0);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private void edit(int offset, int removed, int inserted) {
+        CharSequence source = text.load(document);
+        int delta = inserted - removed;
+
+        int from = Math.max(0, tokens.firstEndingAfter(offset - 1) - 1);
+        int restart = from > 0 ? tokens.end(from - 1) : 0;
+        if (danglingQuote >= 0 && danglingQuote < restart && containsQuote(source, offset, offset + inserted)) {
+            from = tokens.firstStartingAt(danglingQuote);
+            restart = danglingQuote;
+        }
+
+        // From here on old tokens from 'from' onwards report offsets in the edited text
+        tokens.beginEdit(from, source, offset, removed, inserted);
+
+        // Tokens starting past the edit whose previous character is unchanged can resynchronise
+        int syncFrom = offset + inserted + 1;
+        int old = from;
+        int to = tokens.size();
+        int count = 0;
+        scanner.reset(source, restart);
+        while (scanner.next()) {
+            int start = scanner.start();
+            int end = scanner.end();
+            byte kind = scanner.kind();
+            if (start >= syncFrom) {
+                while (old < tokens.size() && tokens.start(old) < start) old++;
+                if (old < tokens.size() && tokens.start(old) == start
+                        && tokens.end(old) == end && tokens.kind(old) == kind) {
+                    to = old;
+                    break;
+                }
+            }
+            if (count == newKinds.length) {
+                newKinds = Arrays.copyOf(newKinds, count * 2);
+                newStarts = Arrays.copyOf(newStarts, count * 2);
+                newEnds = Arrays.copyOf(newEnds, count * 2);
+            }
+            newKinds[count] = kind;
+            newStarts[count] = start;
+            newEnds[count] = end;
+            count++;
+        }
+
+        // danglingQuote is still in pre-edit coordinates
+        int syncStart = to < tokens.size() ? tokens.start(to) : Integer.MAX_VALUE;
+        if (scanner.skippedQuote() >= 0) {
+            danglingQuote = scanner.skippedQuote();
+        } else if (danglingQuote >= restart && (long) danglingQuote + delta >= syncStart) {
+            danglingQuote += delta;
+        } else if (danglingQuote >= restart) {
+            danglingQuote = -1;
+        }
+
+        tokens.replace(from, to, newKinds, newStarts, newEnds, count);
+        listener.tokensReplaced(from, to, count);
+    }
+
+    private static boolean containsQuote(CharSequence source, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '"') return true;
+        }
+        return false;
+    }
+}
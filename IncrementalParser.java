@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps the parse of a TokenBuffer in step with token edits, the way
+// IncrementalLexer keeps the tokens in step with the text. The program is kept
+// as a run of top-level segments, each with its width in tokens, its statement
+// (if any) and the parser errors found in it. A segment depends only on its
+// own tokens and the one after it, so after an edit parsing restarts at the
+// first damaged segment and stops as soon as a new segment ends where an
+// undamaged old one begins. The segments from there on are reused as they are;
+// their position now follows from the widths in front of them.
+public class IncrementalParser {
+    private static final class Segment {
+        final int width;
+        final int parsedAt; // index of the first token when it was parsed
+        final Ast.Stmt statement;
+        final List<Diagnostic> errors;
+
+        Segment(int width, int parsedAt, Ast.Stmt statement, List<Diagnostic> errors) {
+            this.width = width;
+            this.parsedAt = parsedAt;
+            this.statement = statement;
+            this.errors = errors;
+        }
+    }
+
+    private final TokenBuffer tokens;
+    private final List<Segment> segments = new ArrayList<>();
+
+    // Tokens [damageStart, damageEnd) of the last parse have changed, and the
+    // tokens after them have moved by 'delta'
+    private boolean damaged = true;
+    private int damageStart;
+    private int damageEnd = Integer.MAX_VALUE;
+    private int delta;
+
+    public IncrementalParser(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    // Forgets the previous parse, e.g. after the whole buffer was rescanned
+    public void invalidate() {
+        segments.clear();
+        damaged = true;
+        damageStart = 0;
+        damageEnd = Integer.MAX_VALUE;
+        delta = 0;
+    }
+
+    // Tokens [from, to) of the current buffer were replaced by 'count' new ones
+    public void tokensReplaced(int from, int to, int count) {
+        int moved = count - (to - from);
+        if (!damaged) {
+            damaged = true;
+            damageStart = from;
+            damageEnd = to;
+            delta = moved;
+            return;
+        }
+        if (damageEnd == Integer.MAX_VALUE) return;
+        // Grow the damage to cover both edits, working in current indices
+        int end = damageEnd + delta;
+        end = end >= to ? end + moved : from + count;
+        damageStart = Math.min(damageStart, from);
+        delta += moved;
+        damageEnd = end - delta;
+    }
+
+    // Parser errors are replayed into 'diagnostics' in source order; throws only
+    // when its error cap is reached
+    public Ast.Program parse(Diagnostics diagnostics) throws SyntaxError {
+        if (damaged) reparse();
+        List<Ast.Stmt> statements = new ArrayList<>(segments.size());
+        int[] shifts = new int[segments.size()];
+        int start = 0;
+        for (Segment segment : segments) {
+            int shift = start - segment.parsedAt;
+            for (Diagnostic error : segment.errors) {
+                diagnostics.error(error.getCode(), error.getToken() + shift, error.getMessage());
+            }
+            if (segment.statement != null) {
+                shifts[statements.size()] = shift;
+                statements.add(segment.statement);
+            }
+            start += segment.width;
+        }
+        return new Ast.Program(statements, Arrays.copyOf(shifts, statements.size()), 0, start);
+    }
+
+    private void reparse() throws SyntaxError {
+        // Segments that end before the damage keep their place; the one
+        // reaching it is damaged through its last token or its lookahead
+        int first = 0;
+        int start = 0;
+        while (first < segments.size() && start + segments.get(first).width < damageStart) {
+            start += segments.get(first++).width;
+        }
+
+        Diagnostics recorded = new Diagnostics(tokens, Integer.MAX_VALUE);
+        Parser parser = new Parser(tokens, recorded);
+        List<Segment> fresh = new ArrayList<>();
+        List<Ast.Stmt> out = new ArrayList<>(1);
+        int old = first;
+        int oldStart = start; // start of segment 'old' in the previous parse
+        int pos = start;
+        int resume = segments.size();
+        while (pos < tokens.size()) {
+            while (old < segments.size() && (oldStart < damageEnd || oldStart + delta < pos)) {
+                oldStart += segments.get(old++).width;
+            }
+            if (old < segments.size() && oldStart + delta == pos) {
+                resume = old;
+                break;
+            }
+            int mark = recorded.getList().size();
+            int end = parser.parseTopLevel(pos, out);
+            List<Diagnostic> errors = recorded.getList();
+            fresh.add(new Segment(end - pos, pos, out.isEmpty() ? null : out.get(0),
+                errors.size() == mark ? List.of() : List.copyOf(errors.subList(mark, errors.size()))));
+            out.clear();
+            pos = end;
+        }
+
+        segments.subList(first, resume).clear();
+        segments.addAll(first, fresh);
+        damaged = false;
+        damageStart = 0;
+        damageEnd = 0;
+        delta = 0;
+    }
+}
@@ -0,0 +1,386 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Quadruple intermediate code. Instruction k is an opcode with a destination
+// and up to two sources, all int ids, kept in parallel primitive arrays like the
+// tokens in TokenBuffer. Operands are variables, temporaries and numeric
+// constants (plus string literals) numbered in one pool; jump targets are label ids counted from 1,
+// matching the L1, L2, ... they print as. print() renders the three-address
+// text shown in the UI. Every value is held as a double. Int values are whole
+// numbers that the int operators keep in range, wrapping and truncating as
+// Java does; a float is a double rounded to float by TO_FLOAT.
+public class Ir {
+    // dest = src1, dest = -src1, dest = !src1, then int negation and the
+    // conversions 'dest = (int) src1' and 'dest = (float) src1'
+    public static final int COPY = 0, NEG = 1, NOT = 2, INEG = 3, TO_INT = 4, TO_FLOAT = 5;
+    // dest = src1 op src2: double arithmetic, int arithmetic, comparisons
+    public static final int ADD = 6, SUB = 7, MUL = 8, DIV = 9, IADD = 10, ISUB = 11, IMUL = 12, IDIV = 13,
+        LT = 14, GT = 15, LE = 16, GE = 17, EQ = 18, NE = 19;
+    // dest is a label id: 'L:', 'goto L', 'if src1 goto L', 'ifFalse src1 goto L'
+    public static final int LABEL = 20, GOTO = 21, IF = 22, IF_FALSE = 23;
+    // Compare and branch: 'if src1 < src2 goto L' ... and 'ifFalse src1 < src2 goto L' ...
+    public static final int IF_LT = 24, IF_GT = 25, IF_LE = 26, IF_GE = 27, IF_EQ = 28, IF_NE = 29;
+    public static final int IF_FALSE_LT = 30, IF_FALSE_GT = 31, IF_FALSE_LE = 32, IF_FALSE_GE = 33,
+        IF_FALSE_EQ = 34, IF_FALSE_NE = 35;
+    // Table jump: src1 is the selector and src2 a table id. A selector equal to
+    // low + i goes to the table's i-th label, anything else to the label in dest.
+    public static final int JUMP_TABLE = 36;
+
+    public static final int NONE = -1;
+
+    // Operand kinds
+    public static final int VARIABLE = 0, TEMP = 1, CONSTANT = 2, STRING = 3;
+
+    // Operator text of COPY through NE
+    private static final String[] SYMBOLS = {"=", "-", "!", "-", "(int) ", "(float) ",
+        "+", "-", "*", "/", "+", "-", "*", "/", "<", ">", "<=", ">=", "==", "!="};
+
+    private int[] ops = new int[64];
+    private int[] dests = new int[64];
+    private int[] src1s = new int[64];
+    private int[] src2s = new int[64];
+    private int size;
+
+    private byte[] kinds = new byte[64];
+    // Variable name, or the source text of a constant or literal; null for
+    // temporaries and computed constants
+    private String[] names = new String[64];
+    private double[] values = new double[64]; // constant value, or temporary number
+    private int operandCount;
+    private int tempCount;
+    private int labelCount;
+    private int[] tableLows = new int[4];
+    private int[][] tables = new int[4][];
+    private int tableCount;
+    private final Map<String, Integer> variables = new HashMap<>();
+    private final Map<String, Integer> constants = new HashMap<>();
+    private final Map<Double, Integer> computed = new HashMap<>();
+    // Constants by source text for constant(CharSequence, int, int): open
+    // addressing over operand + 1, 0 for an empty slot
+    private int[] textSlots = new int[64];
+    private int textCount;
+
+    // Whether 'op' writes its dest operand (COPY through NE)
+    public static boolean defines(int op) {
+        return op <= NE;
+    }
+
+    // Whether 'op' reads src1: everything but labels and plain gotos
+    public static boolean readsSrc1(int op) {
+        return op != LABEL && op != GOTO;
+    }
+
+    // Whether 'op' reads src2: binary operators and compare-and-branch
+    public static boolean readsSrc2(int op) {
+        return op >= ADD && op <= NE || op >= IF_LT && op <= IF_FALSE_NE;
+    }
+
+    // Whether 'op' ends a basic block
+    public static boolean isJump(int op) {
+        return op >= GOTO;
+    }
+
+    public static boolean isRelational(int op) {
+        return op >= LT && op <= NE;
+    }
+
+    // Result of NEG through NE on constant operands, as the generated code
+    // computes it at run time; relational operators give 1 or 0. An int
+    // division by zero throws ArithmeticException.
+    public static double evaluate(int op, double x, double y) {
+        switch (op) {
+            case NEG: return -x;
+            case NOT: return x == 0 ? 1 : 0;
+            case INEG: return -(int) x;
+            case TO_INT: return (int) x;
+            case TO_FLOAT: return (float) x;
+            case ADD: return x + y;
+            case SUB: return x - y;
+            case MUL: return x * y;
+            case DIV: return x / y;
+            case IADD: return (int) x + (int) y;
+            case ISUB: return (int) x - (int) y;
+            case IMUL: return (int) x * (int) y;
+            case IDIV: return (int) x / (int) y;
+            case LT: return x < y ? 1 : 0;
+            case GT: return x > y ? 1 : 0;
+            case LE: return x <= y ? 1 : 0;
+            case GE: return x >= y ? 1 : 0;
+            case EQ: return x == y ? 1 : 0;
+            default: return x != y ? 1 : 0;
+        }
+    }
+
+    // Whether instruction k can stop the program: an int division by anything
+    // but a nonzero constant. Such an instruction stays even when its result
+    // goes unused, and is not moved out of a loop, where it would run even
+    // when the loop does not.
+    public boolean canTrap(int k) {
+        return ops[k] == IDIV && !(isConstant(src2s[k]) && values[src2s[k]] != 0);
+    }
+
+    // Compare-and-branch opcode for relational 'op', jumping when it holds or when it fails
+    public static int branch(int op, boolean whenTrue) {
+        return (whenTrue ? IF_LT : IF_FALSE_LT) + op - LT;
+    }
+
+    public int emit(int op, int dest, int src1, int src2) {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            dests = Arrays.copyOf(dests, capacity);
+            src1s = Arrays.copyOf(src1s, capacity);
+            src2s = Arrays.copyOf(src2s, capacity);
+        }
+        ops[size] = op;
+        dests[size] = dest;
+        src1s[size] = src1;
+        src2s[size] = src2;
+        return size++;
+    }
+
+    // Overwrites instruction k, for passes rewriting the code in place
+    public void set(int k, int op, int dest, int src1, int src2) {
+        ops[k] = op;
+        dests[k] = dest;
+        src1s[k] = src1;
+        src2s[k] = src2;
+    }
+
+    // Replaces the whole instruction sequence, for passes that move code around
+    public void setCode(int[] ops, int[] dests, int[] src1s, int[] src2s, int size) {
+        this.ops = ops;
+        this.dests = dests;
+        this.src1s = src1s;
+        this.src2s = src2s;
+        this.size = size;
+    }
+
+    // Drops the instructions marked in 'removed', keeping the rest in order
+    public void remove(boolean[] removed) {
+        int kept = 0;
+        for (int k = 0; k < size; k++) {
+            if (removed[k]) continue;
+            ops[kept] = ops[k];
+            dests[kept] = dests[k];
+            src1s[kept] = src1s[k];
+            src2s[kept] = src2s[k];
+            kept++;
+        }
+        size = kept;
+    }
+
+    public int size() { return size; }
+    public int op(int k) { return ops[k]; }
+    public int dest(int k) { return dests[k]; }
+    public int src1(int k) { return src1s[k]; }
+    public int src2(int k) { return src2s[k]; }
+
+    public int newLabel() {
+        return ++labelCount;
+    }
+
+    public int labelCount() {
+        return labelCount;
+    }
+
+    // Jump table whose i-th entry is the label for selector value low + i
+    public int newTable(int low, int[] labels) {
+        if (tableCount == tables.length) {
+            tableLows = Arrays.copyOf(tableLows, tableCount * 2);
+            tables = Arrays.copyOf(tables, tableCount * 2);
+        }
+        tableLows[tableCount] = low;
+        tables[tableCount] = labels;
+        return tableCount++;
+    }
+
+    public void setTableLabel(int table, int i, int label) {
+        tables[table][i] = label;
+    }
+
+    public int tableLow(int table) { return tableLows[table]; }
+    public int[] tableLabels(int table) { return tables[table]; }
+
+    public int newTemp() {
+        return addOperand(TEMP, null, ++tempCount);
+    }
+
+    // A temporary printed as 'name' rather than numbered, such as an SSA
+    // version or a register
+    public int newTemp(String name) {
+        return addOperand(TEMP, name, 0);
+    }
+
+    public int variable(String name) {
+        Integer id = variables.get(name);
+        if (id == null) {
+            id = addOperand(VARIABLE, name, 0);
+            variables.put(name, id);
+        }
+        return id;
+    }
+
+    // A constant spelled as in the source, such as "7" or "2.50"
+    public int constant(String text) {
+        Integer id = constants.get(text);
+        if (id == null) {
+            id = addOperand(CONSTANT, text, Double.parseDouble(text));
+            constants.put(text, id);
+        }
+        return id;
+    }
+
+    // The constant spelled by source[start, end); makes a String only the
+    // first time a spelling is seen
+    public int constant(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int k = start; k < end; k++) hash = 31 * hash + source.charAt(k);
+        int mask = textSlots.length - 1;
+        int slot = (hash * 0x9E3779B9 >>> 16) & mask;
+        for (; textSlots[slot] != 0; slot = (slot + 1) & mask) {
+            if (spells(names[textSlots[slot] - 1], source, start, end)) return textSlots[slot] - 1;
+        }
+        int id = constant(source.subSequence(start, end).toString());
+        textSlots[slot] = id + 1;
+        if (++textCount * 2 > textSlots.length) growTextSlots();
+        return id;
+    }
+
+    private static boolean spells(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int k = 0; k < name.length(); k++) {
+            if (name.charAt(k) != source.charAt(start + k)) return false;
+        }
+        return true;
+    }
+
+    private void growTextSlots() {
+        int[] old = textSlots;
+        textSlots = new int[old.length * 2];
+        int mask = textSlots.length - 1;
+        for (int entry : old) {
+            if (entry == 0) continue;
+            String name = names[entry - 1];
+            int slot = (name.hashCode() * 0x9E3779B9 >>> 16) & mask;
+            while (textSlots[slot] != 0) slot = (slot + 1) & mask;
+            textSlots[slot] = entry;
+        }
+    }
+
+    // A computed constant, printed the way Java prints a double
+    public int constant(double value) {
+        Integer id = computed.get(value);
+        if (id == null) {
+            id = addOperand(CONSTANT, null, value);
+            computed.put(value, id);
+        }
+        return id;
+    }
+
+    // A string literal, quotes included
+    public int string(String text) {
+        Integer id = constants.get(text);
+        if (id == null) {
+            id = addOperand(STRING, text, Double.NaN);
+            constants.put(text, id);
+        }
+        return id;
+    }
+
+    private int addOperand(int kind, String name, double value) {
+        if (operandCount == kinds.length) {
+            int capacity = operandCount * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[operandCount] = (byte) kind;
+        names[operandCount] = name;
+        values[operandCount] = value;
+        return operandCount++;
+    }
+
+    public int operandCount() { return operandCount; }
+    public int kind(int operand) { return kinds[operand]; }
+    public boolean isConstant(int operand) { return kinds[operand] == CONSTANT; }
+    public boolean isTemp(int operand) { return kinds[operand] == TEMP; }
+
+    // Value of a constant operand
+    public double value(int operand) {
+        return values[operand];
+    }
+
+    public String name(int operand) {
+        return appendOperand(new StringBuilder(), operand).toString();
+    }
+
+    // Appends instruction k as one line of three-address code, without the newline
+    public void print(int k, StringBuilder out) {
+        int op = ops[k];
+        switch (op) {
+            case COPY:
+                appendOperand(out, dests[k]).append(" = ");
+                appendOperand(out, src1s[k]);
+                break;
+            case NEG:
+            case NOT:
+            case INEG:
+            case TO_INT:
+            case TO_FLOAT:
+                appendOperand(out, dests[k]).append(" = ").append(SYMBOLS[op]);
+                appendOperand(out, src1s[k]);
+                break;
+            case LABEL:
+                out.append('L').append(dests[k]).append(':');
+                break;
+            case GOTO:
+                out.append("goto L").append(dests[k]);
+                break;
+            case IF:
+            case IF_FALSE:
+                out.append(op == IF ? "if " : "ifFalse ");
+                appendOperand(out, src1s[k]).append(" goto L").append(dests[k]);
+                break;
+            case JUMP_TABLE:
+                int[] labels = tables[src2s[k]];
+                out.append("goto [");
+                for (int i = 0; i < labels.length; i++) {
+                    if (i > 0) out.append(", ");
+                    out.append('L').append(labels[i]);
+                }
+                out.append("] at ");
+                appendOperand(out, src1s[k]).append(" - ").append(tableLows[src2s[k]]);
+                out.append(" else L").append(dests[k]);
+                break;
+            default:
+                if (op <= NE) {
+                    appendOperand(out, dests[k]).append(" = ");
+                    appendOperand(out, src1s[k]).append(' ').append(SYMBOLS[op]).append(' ');
+                    appendOperand(out, src2s[k]);
+                } else {
+                    boolean whenTrue = op <= IF_NE;
+                    out.append(whenTrue ? "if " : "ifFalse ");
+                    appendOperand(out, src1s[k]).append(' ').append(SYMBOLS[op - (whenTrue ? IF_LT : IF_FALSE_LT) + LT]).append(' ');
+                    appendOperand(out, src2s[k]).append(" goto L").append(dests[k]);
+                }
+                break;
+        }
+    }
+
+    private StringBuilder appendOperand(StringBuilder out, int operand) {
+        if (kinds[operand] == TEMP && names[operand] == null) return out.append('t').append((int) values[operand]);
+        return names[operand] != null ? out.append(names[operand]) : out.append(values[operand]);
+    }
+
+    // The whole program, one instruction per line
+    public String print() {
+        StringBuilder out = new StringBuilder(size * 16);
+        for (int k = 0; k < size; k++) {
+            print(k, out);
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,6 @@
+// A transformation of the IR in place, run by Optimizer
+public interface IrPass {
+    String name();
+
+    void run(Ir ir);
+}
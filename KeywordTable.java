@@ -0,0 +1,87 @@
+// Perfect hash over the keyword set. The multiplier is searched once at class
+// load so that every keyword lands in its own slot; a lookup is one hash and
+// at most one character comparison loop.
+public final class KeywordTable {
+    private static final String[] KEYWORDS = {"int", "float", "double", "char", "boolean", "if", "else", "while", "for",
+        "switch", "case", "default", "break"};
+
+    private static final int MASK;
+    private static final int MULTIPLIER;
+    private static final String[] SLOTS;
+    private static final int[] SLOT_INDEX;
+    private static final int MIN_LENGTH;
+    private static final int MAX_LENGTH;
+
+    static {
+        int min = Integer.MAX_VALUE, max = 0;
+        for (String keyword : KEYWORDS) {
+            min = Math.min(min, keyword.length());
+            max = Math.max(max, keyword.length());
+        }
+        MIN_LENGTH = min;
+        MAX_LENGTH = max;
+
+        int size = Integer.highestOneBit(KEYWORDS.length * 2 - 1) << 1;
+        String[] slots = null;
+        int[] slotIndex = null;
+        int multiplier = 1;
+        search:
+        while (true) {
+            for (; multiplier < 4096; multiplier++) {
+                slots = new String[size];
+                slotIndex = new int[size];
+                boolean collision = false;
+                for (int k = 0; k < KEYWORDS.length; k++) {
+                    String keyword = KEYWORDS[k];
+                    int slot = hash(keyword, 0, keyword.length(), multiplier) & (size - 1);
+                    if (slots[slot] != null) {
+                        collision = true;
+                        break;
+                    }
+                    slots[slot] = keyword;
+                    slotIndex[slot] = k;
+                }
+                if (!collision) break search;
+            }
+            size <<= 1;
+            multiplier = 1;
+        }
+        MASK = size - 1;
+        MULTIPLIER = multiplier;
+        SLOTS = slots;
+        SLOT_INDEX = slotIndex;
+    }
+
+    private KeywordTable() {
+    }
+
+    private static int hash(CharSequence text, int start, int length, int multiplier) {
+        int h = length * 31 + text.charAt(start);
+        h = h * multiplier + text.charAt(start + length - 1);
+        h = h * multiplier + text.charAt(start + (length >> 1));
+        return h ^ (h >>> 7);
+    }
+
+    // Returns the canonical keyword string for text[start, end), or null.
+    public static String lookup(CharSequence text, int start, int end) {
+        int index = indexOf(text, start, end);
+        return index >= 0 ? KEYWORDS[index] : null;
+    }
+
+    // Returns the keyword number of text[start, end), from 0 to size() - 1, or -1.
+    public static int indexOf(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length < MIN_LENGTH || length > MAX_LENGTH) return -1;
+        int slot = hash(text, start, length, MULTIPLIER) & MASK;
+        String candidate = SLOTS[slot];
+        if (candidate == null || candidate.length() != length) return -1;
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != text.charAt(start + i)) return -1;
+        }
+        return SLOT_INDEX[slot];
+    }
+
+    public static int size() {
+        return KEYWORDS.length;
+    }
+}
@@ -1,133 +1,90 @@
-import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import javax.swing.text.Document;
 
 public class Lexer {
-    private List<Token> tokens = new ArrayList<>();
-    private List<SymbolEntry> symbolTable = new ArrayList<>();
-    private List<String> threeAddressCode = new ArrayList<>();
-    private int tempVarCount = 1;
-
-    public void tokenize(String code) {
-        tokens.clear();
-        symbolTable.clear();
-        threeAddressCode.clear();
-
-        // Normalize input: replace multiple spaces, handle newlines
-        code = code.replaceAll("\\s+", " ").trim();
-        if (code.isEmpty()) return;
-
-        // Define token patterns
-        String keywordPattern = "\\b(int|float|double|char|boolean|if|while|for)\\b";
-        String identifierPattern = "\\b[a-zA-Z_][a-zA-Z0-9_]*\\b";
-        String numberPattern = "\\b[0-9]+(\\.[0-9]+)?\\b";
-        String operatorPattern = "[+\\-*/=><!]=?|[><]";
-        String symbolPattern = "[;(){}]";
-        String stringLiteralPattern = "\"[^\"]*\"";
-
-        String combinedPattern = String.join("|", 
-            keywordPattern, identifierPattern, numberPattern, 
-            operatorPattern, symbolPattern, stringLiteralPattern);
-        Pattern pattern = Pattern.compile(combinedPattern);
-        Matcher matcher = pattern.matcher(code);
-
-        String currentType = null;
-        List<String> expressionTokens = new ArrayList<>();
-        boolean inExpression = false;
-
-        while (matcher.find()) {
-            String token = matcher.group();
+    private final NameTable names = new NameTable();
+    private final TokenBuffer tokens = new TokenBuffer(names);
+    private final SymbolTable symbolTable = new SymbolTable();
+    private Ast.Program program;
+    private Diagnostics diagnostics;
+    private int maxErrors = Diagnostics.DEFAULT_MAX_ERRORS;
+    private final LexerDFA scanner = new LexerDFA();
+    private boolean analyzed;
+    private final IncrementalParser parser = new IncrementalParser(tokens);
+    private final IncrementalLexer incremental = new IncrementalLexer(tokens, (from, to, count) -> {
+        parser.tokensReplaced(from, to, count);
+        analyzed = false;
+    });
+
+    // Whitespace is skipped in place, so a DocumentText can be scanned without copying it
+    public void tokenize(CharSequence code) {
+        incremental.detach();
+        scanner.scan(code, tokens);
+        parser.invalidate();
+        analyzed = false;
+    }
 
-            // Handle keywords
-            if (token.matches(keywordPattern)) {
-                tokens.add(new Token("KEYWORD", token));
-                if (!token.equals("if") && !token.equals("while") && !token.equals("for")) {
-                    currentType = token; // Set type for variable declarations
-                }
-            }
-            // Handle identifiers
-            else if (token.matches(identifierPattern)) {
-                tokens.add(new Token("IDENTIFIER", token));
-                expressionTokens.add(token);
+    // Lexes the document once and then keeps the tokens current as it is edited
+    public void attach(Document doc) {
+        incremental.attach(doc);
+    }
 
-                // Check for variable declaration
-                if (currentType != null) {
-                    symbolTable.add(new SymbolEntry(token, currentType));
-                    currentType = null;
-                }
-            }
-            // Handle numbers
-            else if (token.matches(numberPattern)) {
-                tokens.add(new Token("NUMBER", token));
-                expressionTokens.add(token);
-            }
-            // Handle operators
-            else if (token.matches(operatorPattern)) {
-                tokens.add(new Token("OPERATOR", token));
-                if (token.equals("=")) {
-                    inExpression = true;
-                } else if (inExpression) {
-                    expressionTokens.add(token);
-                }
-            }
-            // Handle symbols
-            else if (token.matches(symbolPattern)) {
-                tokens.add(new Token("SYMBOL", token));
-                if (token.equals(";") && inExpression) {
-                    generateTAC(expressionTokens);
-                    expressionTokens.clear();
-                    inExpression = false;
-                }
-            }
-            // Handle string literals
-            else if (token.matches(stringLiteralPattern)) {
-                tokens.add(new Token("STRING_LITERAL", token));
-            }
-            // Unknown tokens
-            else {
-                tokens.add(new Token("UNKNOWN", token));
-            }
+    // Syntax tree, symbol table and diagnostics are derived from the token
+    // buffer on first use, so each is built once per version of the tokens;
+    // after an edit only the statements around it are parsed again
+    private void analyze() {
+        if (analyzed) return;
+        analyzed = true;
+        symbolTable.build(tokens);
+        diagnostics = new Diagnostics(tokens, maxErrors);
+        program = new Ast.Program(List.of(), new int[0], 0, 0);
+        try {
+            program = parser.parse(diagnostics);
+            new SyntaxChecker().checkSyntax(program, tokens, symbolTable, diagnostics);
+        } catch (SyntaxError e) {
+            // Error cap reached; the diagnostics end with a "too-many-errors" entry
         }
+    }
 
-        // Handle any remaining expression
-        if (!expressionTokens.isEmpty() && inExpression) {
-            generateTAC(expressionTokens);
-        }
+    // Forget interned names, e.g. when a different file is loaded
+    public void clearNames() {
+        incremental.detach();
+        names.clear();
+        tokens.reset("");
+        parser.invalidate();
+        analyzed = false;
     }
 
-    private void generateTAC(List<String> expressionTokens) {
-        if (expressionTokens.size() < 3) return; // Need at least: var = value
+    public NameTable getNames() {
+        return names;
+    }
 
-        String left = expressionTokens.get(0); // Left-hand side of assignment
-        if (!expressionTokens.get(1).equals("=")) return; // Must be assignment
+    public TokenBuffer getTokenBuffer() {
+        return tokens;
+    }
 
-        // Simple assignment: var = value
-        if (expressionTokens.size() == 3) {
-            threeAddressCode.add(left + " = " + expressionTokens.get(2));
-            return;
-        }
+    public List<Token> getTokens() {
+        return tokens.asTokenList();
+    }
 
-        // Handle arithmetic expression: var = op1 op op2
-        if (expressionTokens.size() >= 5 && expressionTokens.get(3).matches("[+\\-*/]")) {
-            String op1 = expressionTokens.get(2);
-            String operator = expressionTokens.get(3);
-            String op2 = expressionTokens.get(4);
-            String temp = "t" + tempVarCount++;
-            threeAddressCode.add(temp + " = " + op1 + " " + operator + " " + op2);
-            threeAddressCode.add(left + " = " + temp);
-        }
+    // Only meaningful for code generation when getDiagnostics() has no errors
+    public Ast.Program getProgram() {
+        analyze();
+        return program;
     }
 
-    public List<Token> getTokens() {
-        return tokens;
+    public Diagnostics getDiagnostics() {
+        analyze();
+        return diagnostics;
     }
 
-    public List<SymbolEntry> getSymbolTable() {
-        return symbolTable;
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+        analyzed = false;
     }
 
-    public List<String> getThreeAddressCode() {
-        return threeAddressCode;
+    public SymbolTable getSymbolTable() {
+        analyze();
+        return symbolTable;
     }
 }
\ No newline at end of file
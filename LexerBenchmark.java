@@ -0,0 +1,84 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Times full scans of generated identifier- and number-heavy code with the
+// scalar scanner and with CharClassifier.preferred(), then with ParallelLexer
+// on pools of 1, 2, 4, ... threads up to the number of cores. Run with
+//   java --add-modules jdk.incubator.vector LexerBenchmark [megachars]
+// against a build that includes vector/ to measure the vector path.
+public class LexerBenchmark {
+    public static void main(String[] args) {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) << 20;
+        String source = generate(size);
+        NameTable names = new NameTable();
+        TokenBuffer tokens = new TokenBuffer(names);
+
+        CharClassifier scalar = new CharClassifier();
+        CharClassifier preferred = CharClassifier.preferred();
+        System.out.println("classifier: " + preferred.getClass().getName());
+
+        // Best of several rounds, after the JIT has compiled both paths
+        long scalarTime = Long.MAX_VALUE, preferredTime = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            scalarTime = Math.min(scalarTime, time(new LexerDFA(scalar), source, tokens));
+            preferredTime = Math.min(preferredTime, time(new LexerDFA(preferred), source, tokens));
+        }
+        System.out.printf("%d chars, %d tokens%n", source.length(), tokens.size());
+        System.out.printf("scalar:    %d ms%n", scalarTime / 1_000_000);
+        System.out.printf("preferred: %d ms (%.2fx)%n", preferredTime / 1_000_000, (double) scalarTime / preferredTime);
+
+        // Speedups are against the sequential scan with the same classifier
+        TokenBuffer sequential = new TokenBuffer(names);
+        new LexerDFA().scan(source, sequential);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelLexer lexer = new ParallelLexer(pool);
+            long parallelTime = Long.MAX_VALUE;
+            for (int round = 0; round < 20; round++) {
+                long start = System.nanoTime();
+                lexer.tokenize(source, tokens);
+                parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            if (!sameTokens(sequential, tokens)) {
+                System.out.printf("parallel %2d: tokens differ from the sequential scan%n", threads);
+                return;
+            }
+            System.out.printf("parallel %2d: %d ms (%.2fx)%n", threads, parallelTime / 1_000_000, (double) preferredTime / parallelTime);
+            if (threads == cores) break;
+        }
+    }
+
+    private static boolean sameTokens(TokenBuffer a, TokenBuffer b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.kind(i) != b.kind(i) || a.start(i) != b.start(i) || a.end(i) != b.end(i) || a.id(i) != b.id(i)) return false;
+        }
+        return true;
+    }
+
+    private static long time(LexerDFA scanner, String source, TokenBuffer tokens) {
+        long start = System.nanoTime();
+        scanner.scan(source, tokens);
+        return System.nanoTime() - start;
+    }
+
+    // Statements with long generated names and constants, indented like generated code
+    private static String generate(int size) {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder(size + 256);
+        while (sb.length() < size) {
+            sb.append("        ");
+            sb.append(name(random)).append(" = ").append(name(random)).append(" * ");
+            sb.append(random.nextLong() & Long.MAX_VALUE).append('.').append(random.nextInt(1_000_000));
+            sb.append(" + ").append(name(random)).append(";\n");
+        }
+        return sb.toString();
+    }
+
+    // Drawn from a fixed pool so interning stays a lookup, as in real generated code
+    private static String name(Random random) {
+        return "generated_value_" + Integer.toHexString(random.nextInt(4096) * 0x9E3779B1) + "_field";
+    }
+}
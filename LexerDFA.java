@@ -0,0 +1,369 @@
+import java.util.*;
+
+// Token spec (identifiers, numbers, operators, symbols, string literals) compiled
+// once into a minimized DFA. Rows of NEXT are states, columns are character
+// classes; ACCEPT holds the TokenKind recognised in each state. Keywords are
+// recognised after an identifier match through KeywordTable.
+public final class LexerDFA {
+    private static final int ALPHABET = 129; // ASCII plus one column for everything else
+    private static final int DEAD = 0;
+    private static final int START = 1;
+
+    private static final byte[] CHAR_CLASS = new byte[ALPHABET];
+    private static final int CLASS_COUNT;
+    private static final int[] NEXT;
+    private static final byte[] ACCEPT;
+
+    static {
+        List<int[]> rows = new ArrayList<>();
+        List<Byte> accept = new ArrayList<>();
+        newState(rows, accept, TokenKind.UNKNOWN); // dead
+        int start = newState(rows, accept, TokenKind.UNKNOWN);
+
+        int ident = newState(rows, accept, TokenKind.IDENTIFIER);
+        for (int c = 0; c < 128; c++) {
+            if (isIdentStart((char) c)) {
+                rows.get(start)[c] = ident;
+                rows.get(ident)[c] = ident;
+            } else if (isDigit((char) c)) {
+                rows.get(ident)[c] = ident;
+            }
+        }
+
+        int integer = newState(rows, accept, TokenKind.NUMBER);
+        int dot = newState(rows, accept, TokenKind.UNKNOWN);
+        int fraction = newState(rows, accept, TokenKind.NUMBER);
+        for (char c = '0'; c <= '9'; c++) {
+            rows.get(start)[c] = integer;
+            rows.get(integer)[c] = integer;
+            rows.get(dot)[c] = fraction;
+            rows.get(fraction)[c] = fraction;
+        }
+        rows.get(integer)['.'] = dot;
+
+        // [+\-*/=><!]=? : one trie path per operator, merged again by minimize()
+        for (char c : "+-*/=><!".toCharArray()) {
+            int single = newState(rows, accept, TokenKind.OPERATOR);
+            rows.get(start)[c] = single;
+            rows.get(single)['='] = newState(rows, accept, TokenKind.OPERATOR);
+        }
+        // && and ||; a lone '&' or '|' is not a token
+        for (char c : "&|".toCharArray()) {
+            int single = newState(rows, accept, TokenKind.UNKNOWN);
+            rows.get(start)[c] = single;
+            rows.get(single)[c] = newState(rows, accept, TokenKind.OPERATOR);
+        }
+        for (char c : ";(){}:".toCharArray()) {
+            rows.get(start)[c] = newState(rows, accept, TokenKind.SYMBOL);
+        }
+
+        int string = newState(rows, accept, TokenKind.UNKNOWN);
+        int closed = newState(rows, accept, TokenKind.STRING_LITERAL);
+        rows.get(start)['"'] = string;
+        Arrays.fill(rows.get(string), string);
+        rows.get(string)['"'] = closed;
+
+        int[] block = minimize(rows, accept);
+        int states = 0;
+        for (int b : block) states = Math.max(states, b + 1);
+
+        // Columns that behave identically in every state share a character class
+        Map<String, Integer> classes = new HashMap<>();
+        List<Integer> representative = new ArrayList<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            StringBuilder column = new StringBuilder();
+            for (int[] row : rows) column.append(block[row[c]]).append(',');
+            Integer cls = classes.get(column.toString());
+            if (cls == null) {
+                cls = classes.size();
+                classes.put(column.toString(), cls);
+                representative.add(c);
+            }
+            CHAR_CLASS[c] = (byte) (int) cls;
+        }
+        CLASS_COUNT = classes.size();
+        NEXT = new int[states * CLASS_COUNT];
+        ACCEPT = new byte[states];
+        for (int s = 0; s < rows.size(); s++) {
+            int b = block[s];
+            ACCEPT[b] = accept.get(s);
+            for (int cls = 0; cls < CLASS_COUNT; cls++) {
+                NEXT[b * CLASS_COUNT + cls] = block[rows.get(s)[representative.get(cls)]];
+            }
+        }
+    }
+
+    private static int newState(List<int[]> rows, List<Byte> accept, byte kind) {
+        rows.add(new int[ALPHABET]); // every missing transition goes to DEAD
+        accept.add(kind);
+        return rows.size() - 1;
+    }
+
+    // Moore partition refinement. Returns the block of every state, numbered so
+    // that the dead state's block is DEAD and the start state's block is START.
+    private static int[] minimize(List<int[]> rows, List<Byte> accept) {
+        int n = rows.size();
+        int[] block = new int[n];
+        for (int s = 0; s < n; s++) block[s] = accept.get(s);
+        int count = -1;
+        while (true) {
+            Map<String, Integer> signatures = new LinkedHashMap<>();
+            int[] next = new int[n];
+            // Seed dead and start first so they keep their fixed numbers
+            int[] order = new int[n];
+            order[0] = DEAD;
+            order[1] = START;
+            for (int s = 2; s < n; s++) order[s] = s;
+            for (int s : order) {
+                StringBuilder sig = new StringBuilder().append(block[s]).append(':');
+                for (int target : rows.get(s)) sig.append(block[target]).append(',');
+                Integer id = signatures.get(sig.toString());
+                if (id == null) {
+                    id = signatures.size();
+                    signatures.put(sig.toString(), id);
+                }
+                next[s] = id;
+            }
+            block = next;
+            if (signatures.size() == count) return block;
+            count = signatures.size();
+        }
+    }
+
+    static boolean isIdentStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isIdentPart(char c) {
+        return isIdentStart(c) || isDigit(c);
+    }
+
+    // Word characters as java.util.regex sees them for \b, including
+    // non-spacing marks that follow a letter or digit
+    static boolean isWordAt(CharSequence s, int i) {
+        char c = s.charAt(i);
+        if (c < 128) return isIdentStart(c) || isDigit(c);
+        return isWordCodePoint(s, Character.codePointAt(s, i), i);
+    }
+
+    static boolean isWordBefore(CharSequence s, int i) {
+        char c = s.charAt(i - 1);
+        if (c < 128) return isIdentStart(c) || isDigit(c);
+        int cp = Character.codePointBefore(s, i);
+        return isWordCodePoint(s, cp, i - Character.charCount(cp));
+    }
+
+    private static boolean isWordCodePoint(CharSequence s, int cp, int at) {
+        if (cp == '_' || Character.isLetterOrDigit(cp)) return true;
+        if (Character.getType(cp) != Character.NON_SPACING_MARK) return false;
+        for (int x = at; x >= 0; x--) {
+            int base = Character.codePointAt(s, x);
+            if (Character.isLetterOrDigit(base)) return true;
+            if (Character.getType(base) != Character.NON_SPACING_MARK) return false;
+        }
+        return false;
+    }
+
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private CharSequence text;
+    private int length;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+    private byte tokenKind;
+    private int skippedQuote;
+    private TokenBuffer out;
+
+    // Full scans copy the text into 'chars' (holding text[base, length)) when the
+    // classifier is vectorized; otherwise runs are found with charAt
+    private final CharClassifier classifier;
+    private char[] chars;
+    private int base;
+
+    public LexerDFA() {
+        this(CharClassifier.preferred());
+    }
+
+    public LexerDFA(CharClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    // Scans the whole text into the buffer, recording line starts as it goes.
+    public void scan(CharSequence text, TokenBuffer out) {
+        scan(text, 0, text.length(), out);
+    }
+
+    // Scans text[from, to); characters outside the range are only used for word boundaries.
+    public void scan(CharSequence text, int from, int to, TokenBuffer out) {
+        out.reset(text);
+        reset(text, from);
+        this.length = to;
+        this.out = out;
+        if (classifier.isVectorized()) {
+            chars = copy(text, from, to);
+            base = from;
+        }
+        while (next()) {
+            out.add(tokenKind, tokenStart, tokenEnd);
+        }
+        this.out = null;
+        this.chars = null;
+    }
+
+    private static char[] copy(CharSequence text, int from, int to) {
+        char[] a = new char[to - from];
+        if (text instanceof String) {
+            ((String) text).getChars(from, to, a, 0);
+        } else {
+            for (int i = from; i < to; i++) a[i - from] = text.charAt(i);
+        }
+        return a;
+    }
+
+    // Positions the scanner for next(); 'position' must be a token end or 0.
+    public void reset(CharSequence text, int position) {
+        this.text = text;
+        this.length = text.length();
+        this.position = position;
+        this.skippedQuote = -1;
+    }
+
+    // Advances to the next token; unmatched characters are skipped.
+    public boolean next() {
+        CharSequence s = text;
+        int n = length;
+        int pos = position;
+        while (pos < n) {
+            char c = s.charAt(pos);
+            if (isSpace(c)) {
+                int end = spaceEnd(s, pos + 1, n);
+                if (out != null) {
+                    for (int i = pos; i < end; i++) {
+                        if (s.charAt(i) == '\n') out.addLineStart(i + 1);
+                    }
+                }
+                pos = end;
+                continue;
+            }
+            if (c < 128 && isIdentPart(c)) {
+                // Identifiers and numbers only start on a word boundary
+                if (pos > 0 && isWordBefore(s, pos)) {
+                    pos++;
+                    continue;
+                }
+                // Skip the DFA for whole runs; a non-ASCII word char after the run needs its boundary rules
+                int end;
+                byte kind;
+                if (isIdentStart(c)) {
+                    end = identEnd(s, pos + 1, n);
+                    kind = KeywordTable.lookup(s, pos, end) != null ? TokenKind.KEYWORD : TokenKind.IDENTIFIER;
+                } else {
+                    end = digitEnd(s, pos + 1, n);
+                    if (end + 1 < n && s.charAt(end) == '.' && isDigit(s.charAt(end + 1))) {
+                        end = digitEnd(s, end + 2, n);
+                    }
+                    kind = TokenKind.NUMBER;
+                }
+                if (end == n || !isWordAt(s, end)) {
+                    tokenStart = pos;
+                    tokenEnd = end;
+                    tokenKind = kind;
+                    position = end;
+                    return true;
+                }
+            }
+            int state = START;
+            int matchEnd = -1;
+            byte matchKind = TokenKind.UNKNOWN;
+            int q = pos;
+            while (q < n) {
+                char ch = s.charAt(q);
+                state = NEXT[state * CLASS_COUNT + CHAR_CLASS[ch < 128 ? ch : 128]];
+                if (state == DEAD) break;
+                q++;
+                byte kind = ACCEPT[state];
+                if (kind != TokenKind.UNKNOWN) {
+                    boolean needsBoundary = kind == TokenKind.IDENTIFIER || kind == TokenKind.NUMBER;
+                    if (!needsBoundary || q == n || !isWordAt(s, q)) {
+                        matchEnd = q;
+                        matchKind = kind;
+                    }
+                }
+            }
+            if (matchEnd < 0) {
+                // An unterminated '"' means no other quote follows, so there is at most one
+                if (c == '"' && skippedQuote < 0) skippedQuote = pos;
+                pos++;
+                continue;
+            }
+            if (matchKind == TokenKind.IDENTIFIER && KeywordTable.lookup(s, pos, matchEnd) != null) {
+                matchKind = TokenKind.KEYWORD;
+            }
+            tokenStart = pos;
+            tokenEnd = matchEnd;
+            tokenKind = matchKind;
+            position = matchEnd;
+            if (matchKind == TokenKind.STRING_LITERAL && out != null) {
+                // String literals are the only tokens that may span lines
+                for (int i = pos + 1; i < matchEnd; i++) {
+                    if (s.charAt(i) == '\n') out.addLineStart(i + 1);
+                }
+            }
+            return true;
+        }
+        position = n;
+        return false;
+    }
+
+    private int spaceEnd(CharSequence s, int from, int n) {
+        if (chars != null) return classifier.spaceEnd(chars, from - base, n - base) + base;
+        while (from < n && isSpace(s.charAt(from))) from++;
+        return from;
+    }
+
+    private int identEnd(CharSequence s, int from, int n) {
+        if (chars != null) return classifier.identEnd(chars, from - base, n - base) + base;
+        while (from < n && isIdentPart(s.charAt(from))) from++;
+        return from;
+    }
+
+    private int digitEnd(CharSequence s, int from, int n) {
+        if (chars != null) return classifier.digitEnd(chars, from - base, n - base) + base;
+        while (from < n && isDigit(s.charAt(from))) from++;
+        return from;
+    }
+
+    public int start() { return tokenStart; }
+    public int end() { return tokenEnd; }
+    public byte kind() { return tokenKind; }
+
+    // Offset of the unterminated '"' skipped since reset, or -1
+    public int skippedQuote() { return skippedQuote; }
+
+    // Text of a token; whitespace runs inside string literals collapse to one space.
+    static String text(CharSequence text, byte kind, int start, int end) {
+        if (kind == TokenKind.KEYWORD) {
+            return KeywordTable.lookup(text, start, end);
+        }
+        if (kind == TokenKind.STRING_LITERAL) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (isSpace(c)) {
+                    if (sb.charAt(sb.length() - 1) == ' ') continue;
+                    c = ' ';
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+        return text.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,274 @@
+import java.util.Arrays;
+
+// Register allocation by linear scan (Poletto and Sarkar). The code is taken
+// out of SSA form first, which coalesces most copies away, and then every
+// temporary gets a live interval: the instructions from its first mention to
+// its last, stretched over the blocks it is live out of and the tops of their
+// successors so loops are covered. Variables keep their homes in memory.
+// Intervals are visited by start; one still active when all registers are
+// taken loses its register to whichever interval ends last, and that one is
+// spilled. If anything spills, the scan runs again with two registers held
+// back as scratch: spilled temporaries live in slots s0, s1, ..., loaded into
+// a scratch register before each read and stored from one after each write.
+public class LinearScan implements IrPass {
+    private static final int NO_REGISTER = -1;
+
+    private int registers;
+    // Of the last run
+    private int used;
+    private int spilled;
+    private int loads;
+    private int stores;
+    private int mostLive;
+
+    public LinearScan(int registers) {
+        setRegisters(registers);
+    }
+
+    @Override
+    public String name() {
+        return "register allocation";
+    }
+
+    public int registers() {
+        return registers;
+    }
+
+    // Two of them may be needed as scratch, and one is left to allocate
+    public void setRegisters(int registers) {
+        if (registers < 3) throw new IllegalArgumentException("need at least 3 registers, got " + registers);
+        this.registers = registers;
+    }
+
+    @Override
+    public void run(Ir ir) {
+        used = spilled = loads = stores = mostLive = 0;
+        if (ir.size() == 0) return;
+        new Ssa(ir).destruct();
+        if (ir.size() == 0) return;
+
+        int operands = ir.operandCount();
+        int[] starts = new int[operands];
+        int[] ends = new int[operands];
+        int count = intervals(ir, starts, ends);
+        // Temporaries by start: the start in the high half, the operand in the low
+        long[] order = new long[count];
+        count = 0;
+        for (int v = 0; v < operands; v++) {
+            if (ends[v] >= 0) order[count++] = (long) starts[v] << 32 | v;
+        }
+        Arrays.sort(order);
+        mostLive = mostLive(order, ends);
+
+        int[] assigned = new int[operands];
+        int available = registers;
+        if (!allocate(order, starts, ends, assigned, available)) {
+            available = registers - 2;
+            allocate(order, starts, ends, assigned, available);
+        }
+        rewrite(ir, ends, assigned, available);
+    }
+
+    // Fills in the interval of each temporary, ends[v] staying -1 for other
+    // operands, and returns how many there are
+    private static int intervals(Ir ir, int[] starts, int[] ends) {
+        Arrays.fill(ends, -1);
+        int count = 0;
+        for (int k = 0; k < ir.size(); k++) {
+            int op = ir.op(k);
+            if (Ir.readsSrc1(op)) count += mention(ir, ir.src1(k), k, starts, ends);
+            if (Ir.readsSrc2(op)) count += mention(ir, ir.src2(k), k, starts, ends);
+            if (Ir.defines(op)) count += mention(ir, ir.dest(k), k, starts, ends);
+        }
+        Cfg cfg = new Cfg(ir);
+        Liveness liveness = new Liveness(cfg);
+        for (int v = 0; v < starts.length; v++) {
+            if (ends[v] < 0) continue;
+            for (int i = 0; i < liveness.liveOutCount(v); i++) {
+                int b = liveness.liveOutBlock(v, i);
+                ends[v] = Math.max(ends[v], cfg.end(b) - 1);
+                for (int j = 0; j < cfg.successorCount(b); j++) {
+                    int s = cfg.start(cfg.successor(b, j));
+                    starts[v] = Math.min(starts[v], s);
+                    ends[v] = Math.max(ends[v], s);
+                }
+            }
+        }
+        return count;
+    }
+
+    // 1 the first time temporary v is mentioned, else 0
+    private static int mention(Ir ir, int v, int k, int[] starts, int[] ends) {
+        if (ir.kind(v) != Ir.TEMP) return 0;
+        boolean first = ends[v] < 0;
+        if (first) starts[v] = k;
+        ends[v] = k;
+        return first ? 1 : 0;
+    }
+
+    // The most intervals overlapping at any one instruction
+    private static int mostLive(long[] order, int[] ends) {
+        int[] sortedEnds = new int[order.length];
+        for (int i = 0; i < order.length; i++) sortedEnds[i] = ends[(int) order[i]];
+        Arrays.sort(sortedEnds);
+        int most = 0;
+        int ended = 0;
+        for (int i = 0; i < order.length; i++) {
+            int start = (int) (order[i] >>> 32);
+            while (sortedEnds[ended] < start) ended++;
+            most = Math.max(most, i + 1 - ended);
+        }
+        return most;
+    }
+
+    // Assigns each interval a register or NO_REGISTER; false if any spilled
+    private boolean allocate(long[] order, int[] starts, int[] ends, int[] assigned, int available) {
+        int[] active = new int[available]; // sorted by end
+        int activeCount = 0;
+        boolean[] free = new boolean[available];
+        Arrays.fill(free, true);
+        int spills = 0;
+        for (long entry : order) {
+            int v = (int) entry;
+            // Intervals ending before this one starts give their registers back
+            int expired = 0;
+            while (expired < activeCount && ends[active[expired]] < starts[v]) {
+                free[assigned[active[expired]]] = true;
+                expired++;
+            }
+            System.arraycopy(active, expired, active, 0, activeCount - expired);
+            activeCount -= expired;
+
+            if (activeCount == available) {
+                int last = active[activeCount - 1];
+                spills++;
+                if (ends[last] <= ends[v]) {
+                    assigned[v] = NO_REGISTER;
+                    continue;
+                }
+                assigned[v] = assigned[last];
+                assigned[last] = NO_REGISTER;
+                activeCount--;
+            } else {
+                int r = 0;
+                while (!free[r]) r++;
+                free[r] = false;
+                assigned[v] = r;
+            }
+            int i = activeCount++;
+            while (i > 0 && ends[active[i - 1]] > ends[v]) {
+                active[i] = active[i - 1];
+                i--;
+            }
+            active[i] = v;
+        }
+        spilled = spills;
+        return spills == 0;
+    }
+
+    // Replaces temporaries by their registers, with loads and stores around
+    // the instructions mentioning spilled ones
+    private void rewrite(Ir ir, int[] ends, int[] assigned, int available) {
+        int operands = assigned.length;
+        int[] names = new int[registers];
+        Arrays.fill(names, Ir.NONE);
+        int[] slots = new int[operands];
+        int slotCount = 0;
+        int[] homes = new int[operands]; // per temporary, its register, or NONE if spilled
+        for (int v = 0; v < operands; v++) {
+            if (ends[v] < 0) {
+                homes[v] = v;
+            } else if (assigned[v] == NO_REGISTER) {
+                homes[v] = Ir.NONE;
+                slots[v] = ir.newTemp("s" + slotCount++);
+            } else {
+                homes[v] = register(ir, names, assigned[v]);
+            }
+        }
+
+        int size = ir.size();
+        int capacity = size + 3 * slotCount + 16;
+        int[] ops = new int[capacity];
+        int[] dests = new int[capacity];
+        int[] src1s = new int[capacity];
+        int[] src2s = new int[capacity];
+        int n = 0;
+        for (int k = 0; k < size; k++) {
+            if (n + 4 > ops.length) {
+                capacity = ops.length * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                dests = Arrays.copyOf(dests, capacity);
+                src1s = Arrays.copyOf(src1s, capacity);
+                src2s = Arrays.copyOf(src2s, capacity);
+            }
+            int op = ir.op(k);
+            int dest = ir.dest(k);
+            int src1 = ir.src1(k);
+            int src2 = ir.src2(k);
+            int store = Ir.NONE;
+            if (Ir.readsSrc1(op)) {
+                if (homes[src1] == Ir.NONE) {
+                    n = load(ir, names, available, slots[src1], ops, dests, src1s, src2s, n);
+                    src1 = names[available];
+                } else {
+                    src1 = homes[src1];
+                }
+            }
+            if (Ir.readsSrc2(op)) {
+                if (src2 == ir.src1(k)) {
+                    src2 = src1;
+                } else if (homes[src2] == Ir.NONE) {
+                    n = load(ir, names, available + 1, slots[src2], ops, dests, src1s, src2s, n);
+                    src2 = names[available + 1];
+                } else {
+                    src2 = homes[src2];
+                }
+            }
+            if (Ir.defines(op) && homes[dest] == Ir.NONE) {
+                store = slots[dest];
+                dest = register(ir, names, available);
+            } else if (Ir.defines(op)) {
+                dest = homes[dest];
+            }
+            if (!(op == Ir.COPY && dest == src1)) {
+                ops[n] = op;
+                dests[n] = dest;
+                src1s[n] = src1;
+                src2s[n++] = src2;
+            }
+            if (store != Ir.NONE) {
+                ops[n] = Ir.COPY;
+                dests[n] = store;
+                src1s[n] = dest;
+                src2s[n++] = Ir.NONE;
+                stores++;
+            }
+        }
+        ir.setCode(ops, dests, src1s, src2s, n);
+        for (int name : names) {
+            if (name != Ir.NONE) used++;
+        }
+    }
+
+    // Appends 'scratch register = slot' at n and returns the next position
+    private int load(Ir ir, int[] names, int scratch, int slot, int[] ops, int[] dests, int[] src1s, int[] src2s, int n) {
+        ops[n] = Ir.COPY;
+        dests[n] = register(ir, names, scratch);
+        src1s[n] = slot;
+        src2s[n] = Ir.NONE;
+        loads++;
+        return n + 1;
+    }
+
+    // The operand standing for register r, made on first use
+    private static int register(Ir ir, int[] names, int r) {
+        if (names[r] == Ir.NONE) names[r] = ir.newTemp("r" + r);
+        return names[r];
+    }
+
+    // What the last run did, for the optimizer report
+    public String summary() {
+        return "registers: " + used + " of " + registers + " used, " + spilled + " temporaries spilled ("
+            + loads + " loads, " + stores + " stores), at most " + mostLive + " live at once\n";
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+// Backward liveness: which operands may be read again before being assigned.
+// Variables are the program's result, so all of them are live where the
+// program ends; temporaries are not. Each operand is solved on its own by
+// walking backward from the blocks that read it before assigning it, through
+// predecessors, until blocks that assign it. Its span, the blocks from the
+// first to the last mentioning it, is stretched over loops around either end
+// so no path leaves the span and comes back: past it a variable is simply
+// live and a temporary dead, and a variable's walk also starts from blocks
+// that leave the span or end the program. Blocks before the span are left
+// out: nothing assigns the operand there, so isLiveOut() is not asked about
+// them, unless spans are made to start at the first block for callers that
+// need liveness everywhere. The cost is the size of the live ranges within
+// the spans rather than blocks times operands.
+public class Liveness {
+    private final Cfg cfg;
+    private final Ir ir;
+    private final int[] firstBlock; // per operand, -1 if never mentioned
+    private final int[] lastBlock;
+    // Per operand, blocks reading it before assigning it, and blocks assigning it
+    private int[] reads;
+    private int[] writes;
+    // Per operand, the blocks it is live out of up to the end of its span, sorted
+    private final int[] liveStarts;
+    private int[] liveBlocks;
+
+    public Liveness(Cfg cfg) {
+        this(cfg, false);
+    }
+
+    // With 'fromStart', every span starts at the first block and isLiveOut()
+    // is exact there too
+    public Liveness(Cfg cfg, boolean fromStart) {
+        this.cfg = cfg;
+        this.ir = cfg.ir();
+        int blocks = cfg.size();
+        int operands = ir.operandCount();
+        firstBlock = new int[operands];
+        lastBlock = new int[operands];
+        Arrays.fill(firstBlock, -1);
+
+        // Counted in the first pass and recorded in the second
+        int[] readStarts = new int[operands + 1];
+        int[] writeStarts = new int[operands + 1];
+        int[] readStamp = new int[operands];
+        int[] writeStamp = new int[operands];
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(readStamp, 0);
+            Arrays.fill(writeStamp, 0);
+            for (int b = 0; b < blocks; b++) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    if (Ir.readsSrc1(op)) mention(ir.src1(k), b, pass, readStarts, readStamp, writeStamp);
+                    if (Ir.readsSrc2(op)) mention(ir.src2(k), b, pass, readStarts, readStamp, writeStamp);
+                    if (Ir.defines(op)) mention(ir.dest(k), b, pass, writeStarts, writeStamp, null);
+                }
+            }
+            if (pass == 0) {
+                for (int v = 0; v < operands; v++) {
+                    readStarts[v + 1] += readStarts[v];
+                    writeStarts[v + 1] += writeStarts[v];
+                }
+                reads = new int[readStarts[operands]];
+                writes = new int[writeStarts[operands]];
+            }
+        }
+        // Recording moved each start up to the next operand's; shift them back
+        System.arraycopy(readStarts, 0, readStarts, 1, operands);
+        System.arraycopy(writeStarts, 0, writeStarts, 1, operands);
+        readStarts[0] = 0;
+        writeStarts[0] = 0;
+        stretchSpans(blocks);
+        if (fromStart) {
+            for (int v = 0; v < operands; v++) {
+                if (firstBlock[v] > 0) firstBlock[v] = 0;
+            }
+        }
+
+        liveStarts = new int[operands + 1];
+        liveBlocks = new int[Math.max(16, blocks)];
+        int count = 0;
+        // Marks for the operand being solved, which is stamped v + 1
+        int[] liveIn = new int[blocks];
+        int[] liveOut = new int[blocks];
+        int[] assigns = new int[blocks];
+        int[] stack = new int[blocks];
+        for (int v = 0; v < operands; v++) {
+            liveStarts[v] = count;
+            if (firstBlock[v] < 0) continue;
+            int stamp = v + 1;
+            for (int i = writeStarts[v]; i < writeStarts[v + 1]; i++) assigns[writes[i]] = stamp;
+            int top = 0;
+            for (int i = readStarts[v]; i < readStarts[v + 1]; i++) {
+                liveIn[reads[i]] = stamp;
+                stack[top++] = reads[i];
+            }
+            if (ir.kind(v) == Ir.VARIABLE) {
+                for (int b = firstBlock[v]; b <= lastBlock[v]; b++) {
+                    if (!leavesSpan(b, v)) continue;
+                    liveOut[b] = stamp;
+                    count = addLive(b, count);
+                    if (assigns[b] != stamp && liveIn[b] != stamp) {
+                        liveIn[b] = stamp;
+                        stack[top++] = b;
+                    }
+                }
+            }
+            while (top > 0) {
+                int b = stack[--top];
+                for (int i = 0; i < cfg.predecessorCount(b); i++) {
+                    int p = cfg.predecessor(b, i);
+                    if (p < firstBlock[v]) continue;
+                    if (liveOut[p] != stamp) {
+                        liveOut[p] = stamp;
+                        count = addLive(p, count);
+                    }
+                    if (assigns[p] != stamp && liveIn[p] != stamp) {
+                        liveIn[p] = stamp;
+                        stack[top++] = p;
+                    }
+                }
+            }
+            Arrays.sort(liveBlocks, liveStarts[v], count);
+        }
+        liveStarts[operands] = count;
+    }
+
+    // Counts (pass 0) or records (pass 1) block b for an operand, once per
+    // block. Reads pass writeStamp, and only count before the block assigns it.
+    private void mention(int operand, int b, int pass, int[] starts, int[] stamp, int[] writeStamp) {
+        int kind = ir.kind(operand);
+        if (kind == Ir.CONSTANT || kind == Ir.STRING) return;
+        if (firstBlock[operand] < 0) firstBlock[operand] = b;
+        lastBlock[operand] = b;
+        if (stamp[operand] == b + 1 || writeStamp != null && writeStamp[operand] == b + 1) return;
+        stamp[operand] = b + 1;
+        if (pass == 0) {
+            starts[operand + 1]++;
+        } else {
+            int[] list = writeStamp != null ? reads : writes;
+            list[starts[operand]++] = b;
+        }
+    }
+
+    private void stretchSpans(int blocks) {
+        // reach[b]: the furthest block jumping back to b or before it;
+        // low[b]: the earliest block jumped back to from b or after it
+        int[] reach = new int[blocks];
+        int[] low = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            reach[b] = b;
+            low[b] = b;
+        }
+        for (int b = 0; b < blocks; b++) {
+            for (int i = 0; i < cfg.predecessorCount(b); i++) {
+                int p = cfg.predecessor(b, i);
+                if (p < b) continue;
+                reach[b] = Math.max(reach[b], p);
+                low[p] = Math.min(low[p], b);
+            }
+        }
+        for (int b = 1; b < blocks; b++) reach[b] = Math.max(reach[b], reach[b - 1]);
+        for (int b = blocks - 2; b >= 0; b--) low[b] = Math.min(low[b], low[b + 1]);
+        for (int v = 0; v < firstBlock.length; v++) {
+            if (firstBlock[v] < 0) continue;
+            while (reach[lastBlock[v]] > lastBlock[v]) lastBlock[v] = reach[lastBlock[v]];
+            while (low[firstBlock[v]] < firstBlock[v]) firstBlock[v] = low[firstBlock[v]];
+        }
+    }
+
+    // Whether control can go from block b past the end of v's span
+    private boolean leavesSpan(int b, int v) {
+        if (cfg.exits(b)) return true;
+        for (int i = 0; i < cfg.successorCount(b); i++) {
+            if (cfg.successor(b, i) > lastBlock[v]) return true;
+        }
+        return false;
+    }
+
+    private int addLive(int b, int count) {
+        if (count == liveBlocks.length) liveBlocks = Arrays.copyOf(liveBlocks, count * 2);
+        liveBlocks[count] = b;
+        return count + 1;
+    }
+
+    // The blocks within its span 'operand' is live out of, in increasing order
+    public int liveOutCount(int operand) { return liveStarts[operand + 1] - liveStarts[operand]; }
+    public int liveOutBlock(int operand, int i) { return liveBlocks[liveStarts[operand] + i]; }
+
+    // Whether 'operand' may be read after block b, before being assigned;
+    // false for blocks before the operand's span
+    public boolean isLiveOut(int b, int operand) {
+        if (firstBlock[operand] < 0 || b < firstBlock[operand]) return false;
+        if (b > lastBlock[operand]) return ir.kind(operand) == Ir.VARIABLE;
+        return Arrays.binarySearch(liveBlocks, liveStarts[operand], liveStarts[operand + 1], b) >= 0;
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.Arrays;
+
+// Loop-invariant code motion and strength reduction over the natural loops.
+// Each loop that does something gets a preheader: a new label placed just
+// before its header, which jumps from outside the loop are turned to.
+//
+// A temporary whose operands do not change inside the loop is computed once
+// in the preheader. It must be assigned once in the whole program, with
+// every read dominated by that assignment. User variables are not moved: the
+// body of a top-tested loop does not dominate its exit, so moving an
+// assignment out would run it even when the loop runs zero times. For the
+// same reason an int division that can fail stays where it is.
+//
+// A variable stepped once per iteration by 'i = i + c' is a basic induction
+// variable, and 'i * m' in the loop becomes a copy of a new temporary set to
+// i * m in the preheader and advanced by c * m right after each step. This is
+// only done when c and m are integers and every assignment to i in the
+// program keeps it an integer, so the sums are exact. An int i, stepped and
+// multiplied in int arithmetic, gets an int temporary: its sums wrap just as
+// i * m does.
+public class LoopOptimization implements IrPass {
+    // Code leaves one level of nesting per round
+    private static final int MAX_ROUNDS = 8;
+
+    @Override
+    public String name() {
+        return "loop optimization";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        for (int round = 0; round < MAX_ROUNDS && ir.size() > 0; round++) {
+            if (!new Round(ir).run()) break;
+        }
+    }
+
+    private static final class Round {
+        private final Ir ir;
+        private final Cfg cfg;
+        private final Dominators dominators;
+        private final Loops loops;
+        private final int[] writes; // per operand, number of assignments in the program
+        private final int[] writtenAt; // per operand, its last assignment
+        private final boolean[] movable; // per temporary, assigned once with every read dominated by it
+        private final boolean[] integral; // per variable, only ever assigned integers
+        private final int[] hoistedTo; // per instruction, the loop it leaves, or -1
+        private final int knownLabels; // labels the Cfg was built with; preheaders come after
+        // Per operand, assignments inside the loop being optimized, valid when stamped with it
+        private final int[] loopWrites;
+        private final int[] loopStamp;
+
+        // Inserted instructions: before instruction k under key 2k, after it under 2k + 1
+        private long[] editKeys = new long[16]; // key << 32 | sequence number
+        private int[] editOps = new int[16];
+        private int[] editDests = new int[16];
+        private int[] editSrc1s = new int[16];
+        private int[] editSrc2s = new int[16];
+        private int editCount;
+
+        Round(Ir ir) {
+            this.ir = ir;
+            cfg = new Cfg(ir);
+            dominators = new Dominators(cfg);
+            loops = new Loops(cfg, dominators);
+            int operands = ir.operandCount();
+            writes = new int[operands];
+            writtenAt = new int[operands];
+            movable = new boolean[operands];
+            integral = new boolean[operands];
+            hoistedTo = new int[ir.size()];
+            knownLabels = ir.labelCount();
+            Arrays.fill(hoistedTo, -1);
+            loopWrites = new int[operands];
+            loopStamp = new int[operands];
+            if (loops.size() > 0) scan();
+        }
+
+        private void scan() {
+            Arrays.fill(integral, true);
+            for (int k = 0; k < ir.size(); k++) {
+                int op = ir.op(k);
+                if (!Ir.defines(op)) continue;
+                int dest = ir.dest(k);
+                writes[dest]++;
+                writtenAt[dest] = k;
+                boolean keepsInteger = op == Ir.COPY && isInteger(ir.src1(k))
+                    || (op == Ir.ADD || op == Ir.SUB) && step(k, dest) != 0
+                    || op == Ir.ADD && ir.src2(k) == dest && isInteger(ir.src1(k))
+                    || op >= Ir.INEG && op <= Ir.TO_INT || op >= Ir.IADD && op <= Ir.IDIV;
+                if (!keepsInteger) integral[dest] = false;
+            }
+            for (int v = 0; v < writes.length; v++) {
+                movable[v] = ir.isTemp(v) && writes[v] == 1;
+            }
+            for (int b = 0; b < cfg.size(); b++) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    if (Ir.readsSrc1(op)) checkRead(ir.src1(k), b, k);
+                    if (Ir.readsSrc2(op)) checkRead(ir.src2(k), b, k);
+                }
+            }
+        }
+
+        private void checkRead(int v, int b, int k) {
+            if (!movable[v]) return;
+            int at = writtenAt[v];
+            int defBlock = cfg.blockAt(at);
+            boolean dominated = dominators.isReachable(b) && dominators.isReachable(defBlock)
+                && (defBlock == b ? at < k : dominators.dominates(defBlock, b));
+            if (!dominated) movable[v] = false;
+        }
+
+        private boolean isInteger(int v) {
+            if (!ir.isConstant(v)) return false;
+            double value = ir.value(v);
+            return value == (long) value;
+        }
+
+        // Step of 'v = v + c' or 'v = v - c' at instruction k for an integer c,
+        // in doubles or in ints, or 0
+        private double step(int k, int v) {
+            int op = ir.op(k);
+            boolean add = op == Ir.ADD || op == Ir.IADD;
+            if (!add && op != Ir.SUB && op != Ir.ISUB) return 0;
+            if (add && ir.src2(k) == v && isInteger(ir.src1(k))) return ir.value(ir.src1(k));
+            if (ir.src1(k) != v || !isInteger(ir.src2(k))) return 0;
+            return add ? ir.value(ir.src2(k)) : -ir.value(ir.src2(k));
+        }
+
+        private boolean isIntStep(int k) {
+            return ir.op(k) == Ir.IADD || ir.op(k) == Ir.ISUB;
+        }
+
+        boolean run() {
+            boolean changed = false;
+            for (int loop = 0; loop < loops.size(); loop++) {
+                changed |= optimize(loop);
+            }
+            if (changed) rebuild();
+            return changed;
+        }
+
+        private boolean optimize(int loop) {
+            int header = loops.header(loop);
+            // A loop falling into its own header from the block before has no room for a preheader
+            if (header > 0 && loops.contains(loop, header - 1)) return false;
+            int[] body = loops.body(loop);
+            int stamp = loop + 1;
+            for (int b : body) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    if (!Ir.defines(ir.op(k))) continue;
+                    int dest = ir.dest(k);
+                    if (loopStamp[dest] != stamp) {
+                        loopStamp[dest] = stamp;
+                        loopWrites[dest] = 0;
+                    }
+                    loopWrites[dest]++;
+                }
+            }
+
+            int before = 2 * cfg.start(header);
+            int preheader = Ir.NONE;
+            for (int b : body) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    if (!Ir.defines(op) || hoistedTo[k] >= 0 || !movable[ir.dest(k)] || ir.canTrap(k)) continue;
+                    if (!isInvariant(ir.src1(k), loop) || Ir.readsSrc2(op) && !isInvariant(ir.src2(k), loop)) continue;
+                    if (preheader == Ir.NONE) preheader = addPreheader(loop, before);
+                    hoistedTo[k] = loop;
+                    addEdit(before, op, ir.dest(k), ir.src1(k), ir.src2(k));
+                }
+            }
+
+            // Basic induction variables and the temporaries tracking their multiples
+            int[] steps = new int[4]; // instruction of each step
+            int stepCount = 0;
+            for (int b : body) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    if (!Ir.defines(ir.op(k))) continue;
+                    int v = ir.dest(k);
+                    if (ir.kind(v) != Ir.VARIABLE || !integral[v] || loopWrites[v] != 1 || step(k, v) == 0) continue;
+                    if (stepCount == steps.length) steps = Arrays.copyOf(steps, stepCount * 2);
+                    steps[stepCount++] = k;
+                }
+            }
+            if (stepCount == 0) return preheader != Ir.NONE;
+            int[] multiples = new int[8]; // triples: step instruction, factor operand, tracking temporary
+            int multipleCount = 0;
+            for (int b : body) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    if (op != Ir.MUL && op != Ir.IMUL || hoistedTo[k] >= 0) continue;
+                    for (int i = 0; i < stepCount; i++) {
+                        if (isIntStep(steps[i]) != (op == Ir.IMUL)) continue;
+                        int v = ir.dest(steps[i]);
+                        int factor = ir.src1(k) == v ? ir.src2(k) : ir.src2(k) == v ? ir.src1(k) : Ir.NONE;
+                        if (factor == Ir.NONE || !isInteger(factor)) continue;
+                        int temp = Ir.NONE;
+                        for (int j = 0; j < multipleCount; j += 3) {
+                            if (multiples[j] == steps[i] && ir.value(multiples[j + 1]) == ir.value(factor)) {
+                                temp = multiples[j + 2];
+                            }
+                        }
+                        if (temp == Ir.NONE) {
+                            temp = ir.newTemp();
+                            if (preheader == Ir.NONE) preheader = addPreheader(loop, before);
+                            addEdit(before, op, temp, v, factor);
+                            double increment = step(steps[i], v) * ir.value(factor);
+                            if (op == Ir.IMUL) increment = (int) ((long) step(steps[i], v) * (long) ir.value(factor));
+                            addEdit(2 * steps[i] + 1, op == Ir.IMUL ? Ir.IADD : Ir.ADD, temp, temp, ir.constant(increment));
+                            if (multipleCount + 3 > multiples.length) multiples = Arrays.copyOf(multiples, multiples.length * 2);
+                            multiples[multipleCount++] = steps[i];
+                            multiples[multipleCount++] = factor;
+                            multiples[multipleCount++] = temp;
+                        }
+                        ir.set(k, Ir.COPY, ir.dest(k), temp, Ir.NONE);
+                        break;
+                    }
+                }
+            }
+            return preheader != Ir.NONE;
+        }
+
+        // Whether operand v keeps its value throughout the loop; temporaries
+        // made this round track induction variables and do not
+        private boolean isInvariant(int v, int loop) {
+            int kind = ir.kind(v);
+            if (kind == Ir.CONSTANT || kind == Ir.STRING) return true;
+            if (v >= loopStamp.length) return false;
+            if (loopStamp[v] != loop + 1 || loopWrites[v] == 0) return true;
+            return movable[v] && hoistedTo[writtenAt[v]] == loop;
+        }
+
+        // Adds the preheader label in front of the header and turns jumps from
+        // outside the loop to it
+        private int addPreheader(int loop, int before) {
+            int label = ir.newLabel();
+            addEdit(before, Ir.LABEL, label, Ir.NONE, Ir.NONE);
+            int header = loops.header(loop);
+            for (int b = 0; b < cfg.size(); b++) {
+                if (loops.contains(loop, b)) continue;
+                int last = cfg.end(b) - 1;
+                int op = ir.op(last);
+                if (op < Ir.GOTO) continue;
+                if (targets(ir.dest(last), header)) ir.set(last, op, label, ir.src1(last), ir.src2(last));
+                if (op == Ir.JUMP_TABLE) {
+                    int table = ir.src2(last);
+                    int[] labels = ir.tableLabels(table);
+                    for (int i = 0; i < labels.length; i++) {
+                        if (targets(labels[i], header)) ir.setTableLabel(table, i, label);
+                    }
+                }
+            }
+            return label;
+        }
+
+        private boolean targets(int label, int header) {
+            return label <= knownLabels && cfg.blockOfLabel(label) == header;
+        }
+
+        private void addEdit(int key, int op, int dest, int src1, int src2) {
+            if (editCount == editKeys.length) {
+                int capacity = editCount * 2;
+                editKeys = Arrays.copyOf(editKeys, capacity);
+                editOps = Arrays.copyOf(editOps, capacity);
+                editDests = Arrays.copyOf(editDests, capacity);
+                editSrc1s = Arrays.copyOf(editSrc1s, capacity);
+                editSrc2s = Arrays.copyOf(editSrc2s, capacity);
+            }
+            editKeys[editCount] = (long) key << 32 | editCount;
+            editOps[editCount] = op;
+            editDests[editCount] = dest;
+            editSrc1s[editCount] = src1;
+            editSrc2s[editCount] = src2;
+            editCount++;
+        }
+
+        // Lays out the code again with hoisted instructions left out and the edits in place
+        private void rebuild() {
+            long[] order = Arrays.copyOf(editKeys, editCount);
+            Arrays.sort(order);
+            int capacity = ir.size() + editCount + 1;
+            int[] ops = new int[capacity];
+            int[] dests = new int[capacity];
+            int[] src1s = new int[capacity];
+            int[] src2s = new int[capacity];
+            int size = 0;
+            int next = 0;
+            for (int k = 0; k <= ir.size(); k++) {
+                for (int after = 0; after < 2; after++) {
+                    long key = 2L * k + after;
+                    while (next < editCount && order[next] >>> 32 == key) {
+                        int e = (int) order[next++];
+                        ops[size] = editOps[e];
+                        dests[size] = editDests[e];
+                        src1s[size] = editSrc1s[e];
+                        src2s[size] = editSrc2s[e];
+                        size++;
+                    }
+                    if (after == 0 && k < ir.size() && hoistedTo[k] < 0) {
+                        ops[size] = ir.op(k);
+                        dests[size] = ir.dest(k);
+                        src1s[size] = ir.src1(k);
+                        src2s[size] = ir.src2(k);
+                        size++;
+                    }
+                }
+            }
+            ir.setCode(ops, dests, src1s, src2s, size);
+        }
+    }
+}
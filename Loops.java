@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+// Natural loops of a Cfg. An edge from s back to a block h that dominates s
+// closes a loop headed by h; its body is h plus every block that reaches s
+// without passing through h. Loops sharing a header are merged. Loops are
+// numbered smallest body first, so an inner loop comes before any loop
+// around it.
+public class Loops {
+    private final int[] headers;
+    private final int[][] bodies; // per loop, its blocks in increasing order
+
+    public Loops(Cfg cfg, Dominators dominators) {
+        int blocks = cfg.size();
+        int[] mark = new int[blocks];
+        int[] stack = new int[blocks];
+        int[] body = new int[blocks];
+        int[] foundHeaders = new int[blocks];
+        int[][] foundBodies = new int[blocks][];
+        int count = 0;
+        for (int h = 0; h < blocks; h++) {
+            if (!dominators.isReachable(h)) continue;
+            int size = 0;
+            int top = 0;
+            int stamp = h + 1;
+            for (int i = 0; i < cfg.predecessorCount(h); i++) {
+                int s = cfg.predecessor(h, i);
+                if (!dominators.isReachable(s) || !dominators.dominates(h, s)) continue;
+                if (size == 0) {
+                    mark[h] = stamp;
+                    body[size++] = h;
+                }
+                if (mark[s] != stamp) {
+                    mark[s] = stamp;
+                    body[size++] = s;
+                    stack[top++] = s;
+                }
+            }
+            while (top > 0) {
+                int b = stack[--top];
+                for (int i = 0; i < cfg.predecessorCount(b); i++) {
+                    int p = cfg.predecessor(b, i);
+                    if (mark[p] == stamp || !dominators.isReachable(p)) continue;
+                    mark[p] = stamp;
+                    body[size++] = p;
+                    stack[top++] = p;
+                }
+            }
+            if (size == 0) continue;
+            int[] sorted = Arrays.copyOf(body, size);
+            Arrays.sort(sorted);
+            foundHeaders[count] = h;
+            foundBodies[count++] = sorted;
+        }
+
+        Integer[] bySize = new Integer[count];
+        for (int i = 0; i < count; i++) bySize[i] = i;
+        Arrays.sort(bySize, (a, b) -> foundBodies[a].length - foundBodies[b].length);
+        headers = new int[count];
+        bodies = new int[count][];
+        for (int i = 0; i < count; i++) {
+            headers[i] = foundHeaders[bySize[i]];
+            bodies[i] = foundBodies[bySize[i]];
+        }
+    }
+
+    public int size() {
+        return headers.length;
+    }
+
+    public int header(int loop) {
+        return headers[loop];
+    }
+
+    // The loop's blocks in increasing order, header included
+    public int[] body(int loop) {
+        return bodies[loop];
+    }
+
+    public boolean contains(int loop, int b) {
+        return Arrays.binarySearch(bodies[loop], b) >= 0;
+    }
+}
@@ -1,13 +1,25 @@
 import java.awt.*;
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.HyperlinkEvent;
+import javax.swing.text.Document;
 
 public class MainCompiler extends JFrame {
     private JTextArea codeArea, outputArea;
     private Lexer lexer;
     private ThemeManager themeManager;
-    private SyntaxChecker syntaxChecker;
+    private JLabel statusLabel;
+    private Timer validateTimer;
+    // Instructions a run may execute before it is stopped, so a loop that never ends cannot hang the UI
+    private static final long RUN_LIMIT = 200_000_000L;
+    // Loop iterations the compiled program may run, for the same reason
+    private static final long JVM_BUDGET = 1_000_000_000L;
+    private final LinearScan allocator = new LinearScan(8);
+    private final Optimizer optimizer = Optimizer.standard().add(allocator);
 
     public MainCompiler() {
         try {
@@ -26,7 +38,11 @@ public class MainCompiler extends JFrame {
         outputArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
         lexer = new Lexer();
         themeManager = new ThemeManager();
-        syntaxChecker = new SyntaxChecker();
+        statusLabel = new JLabel(" ");
+        // Re-validates once typing pauses; only the edited statements are parsed again
+        validateTimer = new Timer(300, e -> showStatus());
+        validateTimer.setRepeats(false);
+        watch(codeArea.getDocument());
 
         JScrollPane codeScroll = new JScrollPane(codeArea);
         JScrollPane outputScroll = new JScrollPane(outputArea);
@@ -36,6 +52,9 @@ public class MainCompiler extends JFrame {
         JButton tokensBtn = new JButton("Tokens");
         JButton symbolsBtn = new JButton("Symbols");
         JButton tacBtn = new JButton("3-Address Code");
+        JButton runBtn = new JButton("Run");
+        JButton jvmBtn = new JButton("Run on JVM");
+        JButton saveClassBtn = new JButton("Save .class");
         JButton themeBtn = new JButton("Toggle Theme");
         JButton notesBtn = new JButton("Notes");
         JButton syntaxBtn = new JButton("Check Syntax");
@@ -46,6 +65,9 @@ public class MainCompiler extends JFrame {
         topPanel.add(tokensBtn);
         topPanel.add(symbolsBtn);
         topPanel.add(tacBtn);
+        topPanel.add(runBtn);
+        topPanel.add(jvmBtn);
+        topPanel.add(saveClassBtn);
         topPanel.add(themeBtn);
         topPanel.add(notesBtn);
         topPanel.add(syntaxBtn);
@@ -55,8 +77,28 @@ public class MainCompiler extends JFrame {
         splitPane.setDividerLocation(350);
         splitPane.setResizeWeight(0.7);
         add(splitPane, BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
 
         JMenuBar menuBar = new JMenuBar();
+        JMenu optimizeMenu = new JMenu("Optimize");
+        // Registers are opt-in; the code reads more easily with its own names
+        optimizer.setEnabled(allocator.name(), false);
+        for (IrPass pass : optimizer.passes()) {
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(pass.name(), optimizer.isEnabled(pass.name()));
+            item.addActionListener(e -> optimizer.setEnabled(pass.name(), item.isSelected()));
+            optimizeMenu.add(item);
+        }
+        JMenu registersMenu = new JMenu("Registers");
+        ButtonGroup registerCounts = new ButtonGroup();
+        for (int count : new int[] {4, 8, 16, 32}) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(String.valueOf(count), count == allocator.registers());
+            item.addActionListener(e -> allocator.setRegisters(count));
+            registerCounts.add(item);
+            registersMenu.add(item);
+        }
+        optimizeMenu.addSeparator();
+        optimizeMenu.add(registersMenu);
+        menuBar.add(optimizeMenu);
         JMenu helpMenu = new JMenu("Help");
         JMenuItem resourcesItem = new JMenuItem("Online Resources");
         helpMenu.add(resourcesItem);
@@ -65,9 +107,12 @@ public class MainCompiler extends JFrame {
 
         openBtn.addActionListener(e -> openFile());
         scanBtn.addActionListener(e -> scanCode());
-        tokensBtn.addActionListener(e -> new TokenTableFrame(lexer.getTokens()).setVisible(true));
+        tokensBtn.addActionListener(e -> new TokenTableFrame(lexer.getTokenBuffer()).setVisible(true));
         symbolsBtn.addActionListener(e -> new SymbolTableFrame(lexer.getSymbolTable()).setVisible(true));
         tacBtn.addActionListener(e -> showIntermediateCode());
+        runBtn.addActionListener(e -> runProgram());
+        jvmBtn.addActionListener(e -> runOnJvm());
+        saveClassBtn.addActionListener(e -> saveClassFile());
         themeBtn.addActionListener(e -> themeManager.toggleTheme(codeArea, outputArea));
         notesBtn.addActionListener(e -> new NotesFrame().setVisible(true));
         syntaxBtn.addActionListener(e -> checkSyntax());
@@ -81,19 +126,47 @@ public class MainCompiler extends JFrame {
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             try (BufferedReader br = new BufferedReader(new FileReader(chooser.getSelectedFile()))) {
                 codeArea.read(br, null);
+                lexer.clearNames();
+                watch(codeArea.getDocument());
             } catch (IOException e) {
                 showError("Could not open file.");
             }
         }
     }
 
+    private void watch(Document doc) {
+        lexer.attach(doc);
+        doc.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                validateTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                validateTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        validateTimer.restart();
+    }
+
+    private void showStatus() {
+        Diagnostics diagnostics = lexer.getDiagnostics();
+        int errors = diagnostics.getErrorCount();
+        int warnings = diagnostics.getList().size() - errors;
+        statusLabel.setText(errors + " error(s), " + warnings + " warning(s)");
+    }
+
     private void scanCode() {
-        String code = codeArea.getText().trim();
-        if (code.isEmpty()) {
+        // Tokens are kept current by the incremental lexer as the document is edited
+        if (isBlank(lexer.getTokenBuffer().source())) {
             showOutput("No code to scan.");
             return;
         }
-        lexer.tokenize(code);
         StringBuilder sb = new StringBuilder();
         sb.append("Scan completed.\n")
           .append("Tokens: ").append(lexer.getTokens().size()).append("\n")
@@ -101,22 +174,150 @@ public class MainCompiler extends JFrame {
         showOutput(sb.toString());
     }
 
+    private static boolean isBlank(CharSequence code) {
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+
     private void showIntermediateCode() {
-        TACGenerator tacGen = new TACGenerator();
-        String tac = tacGen.generate(lexer.getTokens());
-        String[] lines = tac.split("\n");
+        Diagnostics diagnostics = lexer.getDiagnostics();
         StringBuilder sb = new StringBuilder("🔹 3-Address Code:\n");
-        for (int i = 0; i < lines.length; i++) {
-            sb.append(String.format("%2d. %s\n", i + 1, lines[i]));
+        if (diagnostics.hasErrors()) {
+            String[] lines = diagnostics.format().split("\n");
+            for (int i = 0; i < lines.length; i++) {
+                appendLineNumber(sb, i + 1).append(lines[i]).append('\n');
+            }
+        } else {
+            Ir ir = new TACGenerator().generate(lexer.getProgram(), lexer.getTokenBuffer(), lexer.getSymbolTable());
+            optimizer.run(ir);
+            if (ir.size() == 0) {
+                appendLineNumber(sb, 1).append("No valid expressions found.\n");
+            }
+            for (int k = 0; k < ir.size(); k++) {
+                appendLineNumber(sb, k + 1);
+                ir.print(k, sb);
+                sb.append('\n');
+            }
+            sb.append("\n🔹 Optimizations:\n").append(optimizer.report());
+            if (optimizer.isEnabled(allocator.name())) sb.append(allocator.summary());
         }
         outputArea.setText(sb.toString());
     }
 
+    private void runProgram() {
+        Diagnostics diagnostics = lexer.getDiagnostics();
+        if (diagnostics.hasErrors()) {
+            showOutput(diagnostics.format());
+            return;
+        }
+        SymbolTable symbols = lexer.getSymbolTable();
+        Ir ir = new TACGenerator().generate(lexer.getProgram(), lexer.getTokenBuffer(), symbols);
+        optimizer.run(ir);
+        VirtualMachine machine = new VirtualMachine(ir);
+        boolean finished;
+        try {
+            finished = machine.run(RUN_LIMIT);
+        } catch (ArithmeticException e) {
+            showOutput("🔹 Run:\nStopped: integer division by zero.\n");
+            return;
+        }
+
+        Map<String, String> types = new HashMap<>();
+        for (SymbolEntry entry : symbols.entries()) {
+            types.put(entry.getIrName(), entry.getType());
+        }
+        StringBuilder sb = new StringBuilder("🔹 Run:\n");
+        for (int v = 0; v < ir.operandCount(); v++) {
+            if (ir.kind(v) != Ir.VARIABLE) continue;
+            String name = ir.name(v);
+            sb.append(name).append(" = ").append(format(machine.value(v), types.get(name))).append('\n');
+        }
+        if (!finished) sb.append("Stopped: the instruction limit was reached.\n");
+        sb.append(String.format("%n%,d instructions executed in %.3f ms%n", machine.executed(), machine.nanos() / 1e6));
+        showOutput(sb.toString());
+    }
+
+    private void runOnJvm() {
+        Diagnostics diagnostics = lexer.getDiagnostics();
+        if (diagnostics.hasErrors()) {
+            showOutput(diagnostics.format());
+            return;
+        }
+        BytecodeGenerator generator = new BytecodeGenerator();
+        StringBuilder sb = new StringBuilder("🔹 Run on JVM:\n");
+        try {
+            CompiledProgram program = new CompiledProgram(
+                generator.generate(lexer.getProgram(), lexer.getTokenBuffer(), lexer.getSymbolTable()));
+            boolean finished = program.run(JVM_BUDGET);
+            for (int v = 0; v < generator.variableCount(); v++) {
+                sb.append(generator.variableName(v)).append(" = ")
+                  .append(format(program.value(v), generator.variableType(v))).append('\n');
+            }
+            if (!finished) sb.append("Stopped: the loop iteration limit was reached.\n");
+            sb.append(String.format("%nRan in %.3f ms%n", program.nanos() / 1e6));
+        } catch (IllegalStateException e) {
+            sb.append(e.getMessage()).append('\n');
+        } catch (ArithmeticException e) {
+            sb.append("Stopped: integer division by zero.\n");
+        }
+        showOutput(sb.toString());
+    }
+
+    private void saveClassFile() {
+        Diagnostics diagnostics = lexer.getDiagnostics();
+        if (diagnostics.hasErrors()) {
+            showOutput(diagnostics.format());
+            return;
+        }
+        byte[] classFile;
+        try {
+            classFile = new BytecodeGenerator().generate(lexer.getProgram(), lexer.getTokenBuffer(), lexer.getSymbolTable());
+        } catch (IllegalStateException e) {
+            showOutput(e.getMessage());
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(BytecodeGenerator.CLASS_NAME + ".class"));
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = chooser.getSelectedFile();
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(classFile);
+                showOutput("Saved " + file + "\nRun it with: java -cp \"" + file.getParent() + "\" "
+                    + BytecodeGenerator.CLASS_NAME + "\n");
+            } catch (IOException e) {
+                showError("Could not save file.");
+            }
+        }
+    }
+
+    // A value as its declared type prints it. Names used without a
+    // declaration are doubles, printed without a fraction when whole.
+    private static String format(double value, String type) {
+        if (type == null) {
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+            return Double.toString(value);
+        }
+        return switch (type) {
+            case "float" -> Float.toString((float) value);
+            case "double" -> Double.toString(value);
+            default -> Integer.toString((int) value);
+        };
+    }
+
+    // Same as String.format("%2d. ", n)
+    private static StringBuilder appendLineNumber(StringBuilder sb, int n) {
+        if (n < 10) sb.append(' ');
+        return sb.append(n).append(". ");
+    }
+
     private void checkSyntax() {
-        if (syntaxChecker.checkSyntax(lexer.getTokens())) {
-            showOutput("Syntax is valid.");
+        Diagnostics diagnostics = lexer.getDiagnostics();
+        if (diagnostics.hasErrors()) {
+            showOutput(diagnostics.format());
         } else {
-            showOutput(syntaxChecker.getErrors());
+            showOutput("Syntax is valid.\n\n" + diagnostics.format());
         }
     }
 
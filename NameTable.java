@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+// Interns identifiers to dense int ids. Ids are stable for the lifetime of the
+// table, so a Lexer can keep one table across scans of the same document and
+// later phases can index arrays by name id instead of hashing strings.
+public class NameTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int count;
+
+    private int[] slots = new int[128]; // id + 1, 0 = empty
+    private int mask = slots.length - 1;
+
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int slot = hash & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) break;
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(names[id], text, start, end)) return id;
+            slot = (slot + 1) & mask;
+        }
+        return add(text.subSequence(start, end).toString(), hash, slot);
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    // Returns the id of an already interned name, or -1
+    public int lookup(String name) {
+        int hash = hash(name, 0, name.length());
+        int slot = hash & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) return -1;
+            int id = entry - 1;
+            if (hashes[id] == hash && names[id].equals(name)) return id;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(names, 0, count, null);
+        Arrays.fill(slots, 0);
+        count = 0;
+    }
+
+    private int add(String name, int hash, int slot) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (count * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + text.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
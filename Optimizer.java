@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Runs IR passes in order and records the instruction count around each one.
+// Any pass can be switched off by name and is then skipped.
+public class Optimizer {
+    private final List<IrPass> passes = new ArrayList<>();
+    private final Set<String> disabled = new HashSet<>();
+    private final StringBuilder report = new StringBuilder();
+
+    // Constant propagation first so value numbering sees folded code; copy
+    // propagation then picks up the copies value numbering leaves behind, which
+    // turns 't = i + 1; i = t' into the induction steps loop optimization looks
+    // for, and dead code elimination clears out what the others made useless.
+    // The peephole pass last tidies the jumps and labels all of them leave.
+    public static Optimizer standard() {
+        return new Optimizer()
+            .add(new ConstantPropagation())
+            .add(new ValueNumbering())
+            .add(new CopyPropagation())
+            .add(new LoopOptimization())
+            .add(new DeadCodeElimination())
+            .add(new Peephole());
+    }
+
+    public Optimizer add(IrPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<IrPass> passes() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    public void setEnabled(String name, boolean enabled) {
+        if (enabled) {
+            disabled.remove(name);
+        } else {
+            disabled.add(name);
+        }
+    }
+
+    public boolean isEnabled(String name) {
+        return !disabled.contains(name);
+    }
+
+    public Ir run(Ir ir) {
+        report.setLength(0);
+        for (IrPass pass : passes) {
+            if (disabled.contains(pass.name())) continue;
+            int before = ir.size();
+            pass.run(ir);
+            report.append(pass.name()).append(": ").append(before).append(" -> ").append(ir.size())
+                .append(" instructions (").append(ir.size() - before).append(")\n");
+        }
+        return ir;
+    }
+
+    // One line per pass of the last run
+    public String report() {
+        return report.toString();
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// Lexes large inputs in chunks on a ForkJoinPool. Chunks end just after a ';'
+// or '}' that is outside string literals: quotes always pair up in order, so a
+// character is outside a string when an even number of quotes precede it. No
+// token can cross such a split, so stitching the chunks back in order gives
+// exactly the tokens of a sequential scan.
+public class ParallelLexer {
+    // Inputs shorter than this are not worth splitting
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private final ForkJoinPool pool;
+
+    public ParallelLexer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void tokenize(CharSequence text, TokenBuffer out) {
+        int n = text.length();
+        int parts = Math.min(pool.getParallelism() * 4, n / MIN_CHUNK);
+        if (parts < 2) {
+            new LexerDFA().scan(text, out);
+            return;
+        }
+
+        // Count quotes in equal slices to learn the string state at each slice start
+        int[] quotes = new int[parts];
+        forEach(parts, k -> {
+            int count = 0;
+            for (int i = slice(k, parts, n), end = slice(k + 1, parts, n); i < end; i++) {
+                if (text.charAt(i) == '"') count++;
+            }
+            quotes[k] = count;
+        });
+
+        // Move each slice start forward to the next split point; a slice without one joins its neighbour
+        int[] parity = new int[parts];
+        for (int k = 1; k < parts; k++) {
+            parity[k] = parity[k - 1] ^ (quotes[k - 1] & 1);
+        }
+        int[] splits = new int[parts + 1];
+        forEach(parts - 1, j -> {
+            int k = j + 1;
+            int inString = parity[k];
+            splits[k] = -1;
+            for (int i = slice(k, parts, n), end = slice(k + 1, parts, n); i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    inString ^= 1;
+                } else if ((c == ';' || c == '}') && inString == 0) {
+                    splits[k] = i + 1;
+                    break;
+                }
+            }
+        });
+        splits[0] = 0;
+        splits[parts] = n;
+        int chunkCount = 0;
+        for (int k = 0; k <= parts; k++) {
+            if (splits[k] >= 0) splits[chunkCount++] = splits[k];
+        }
+        int chunks = chunkCount - 1;
+
+        // Each chunk gets its own NameTable, so the scans share nothing
+        TokenBuffer[] results = new TokenBuffer[chunks];
+        forEach(chunks, k -> {
+            TokenBuffer part = new TokenBuffer(new NameTable());
+            new LexerDFA().scan(text, splits[k], splits[k + 1], part);
+            results[k] = part;
+        });
+
+        // Interning per-chunk names in chunk order keeps ids in first-occurrence order
+        out.reset(text);
+        NameTable names = out.names();
+        for (TokenBuffer part : results) {
+            NameTable local = part.names();
+            int[] idMap = new int[local.size()];
+            for (int id = 0; id < idMap.length; id++) {
+                idMap[id] = names.intern(local.name(id));
+            }
+            out.append(part, idMap);
+        }
+    }
+
+    private static int slice(int k, int parts, int n) {
+        return (int) ((long) n * k / parts);
+    }
+
+    private void forEach(int count, IntConsumer body) {
+        pool.invoke(new Range(0, count, body));
+    }
+
+    private static final class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        Range(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Range(from, mid, body), new Range(mid, to, body));
+        }
+    }
+}
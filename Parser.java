@@ -0,0 +1,426 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Table-driven LL(1) parser over the tables built by Grammar. Grammar symbols
+// wait on an explicit stack and finished values (tree nodes and the indices of
+// kept tokens) on a second one, so nesting depth is bounded by memory rather
+// than the Java call stack. Errors are reported to a Diagnostics and the parse
+// recovers so that one pass finds every error. Headers and missing ';' are
+// repaired in place (phrase level); anything else abandons the statement and
+// skips to a ';', a brace or a statement keyword (panic mode). A SyntaxError
+// escapes only when the diagnostics' error cap is reached.
+public class Parser {
+    private final TokenBuffer tokens;
+    private final Diagnostics diagnostics;
+    private int pos;
+    private int breakTargets; // enclosing loops and switches
+    private int lookaheadPos = -1;
+    private int lookahead;
+
+    // Symbol stack. Each entry also keeps the first token and the value stack
+    // height of the production that pushed it, and the message reported when
+    // the symbol fails; a recovery point keeps breakTargets there instead.
+    private int[] symbols = new int[64];
+    private int[] starts = new int[64];
+    private int[] marks = new int[64];
+    private int[] infos = new int[64];
+    private int depth;
+
+    // Value stack: a node, or the index of a kept token with a null node
+    private Object[] nodes = new Object[64];
+    private int[] indices = new int[64];
+    private int top;
+
+    public Parser(TokenBuffer tokens, Diagnostics diagnostics) {
+        this.tokens = tokens;
+        this.diagnostics = diagnostics;
+    }
+
+    public Ast.Program parse() throws SyntaxError {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        int end = 0;
+        while (end < tokens.size()) {
+            end = parseTopLevel(end, statements);
+        }
+        return new Ast.Program(statements, new int[statements.size()], 0, end);
+    }
+
+    // Parses one top-level statement, empty statement or stray '}' starting at
+    // 'from', adds the statement (if any) to 'out' and returns the index just
+    // past it. Nothing carries over between calls, and only the tokens up to
+    // and including the returned index are looked at.
+    int parseTopLevel(int from, List<Ast.Stmt> out) throws SyntaxError {
+        pos = from;
+        breakTargets = 0;
+        lookaheadPos = -1;
+        if (at('}')) {
+            diagnostics.error("unmatched-brace", pos++, "Mismatched closing brace '}'");
+            return pos;
+        }
+        depth = 0;
+        top = 0;
+        pushSymbol(Grammar.symbol(Grammar.NONTERMINAL, Grammar.START), -1);
+        run();
+        if (top > 0) out.add((Ast.Stmt) nodes[0]);
+        Arrays.fill(nodes, 0, top, null);
+        return pos;
+    }
+
+    private void run() throws SyntaxError {
+        while (depth > 0) {
+            int d = --depth;
+            int symbol = symbols[d];
+            int id = Grammar.id(symbol);
+            switch (Grammar.kind(symbol)) {
+                case Grammar.NONTERMINAL: {
+                    int cell = id * Grammar.TERMINAL_COUNT + lookahead();
+                    int[] expansion = Grammar.EXPANSIONS[cell];
+                    if (expansion == null) {
+                        fail(infos[d], starts[d]);
+                    } else {
+                        expand(expansion, Grammar.EXPANSION_INFO[cell]);
+                    }
+                    break;
+                }
+                case Grammar.TERMINAL:
+                    if (lookahead() == id) {
+                        pos++;
+                    } else {
+                        fail(infos[d], starts[d]);
+                    }
+                    break;
+                case Grammar.CAPTURE:
+                    if (lookahead() == id) {
+                        pushIndex(pos++);
+                    } else {
+                        fail(infos[d], starts[d]);
+                    }
+                    break;
+                case Grammar.INSERTABLE:
+                    // A missing ';' before a token on a later line is reported and treated as present
+                    if (lookahead() == id) {
+                        pos++;
+                    } else if (pos > 0 && pos < tokens.size() && tokens.line(pos) > tokens.line(pos - 1)) {
+                        report(infos[d], starts[d], pos - 1);
+                    } else {
+                        fail(infos[d], starts[d]);
+                    }
+                    break;
+                case Grammar.CLOSE:
+                    // Only the end of input gets here without a match, so the brace is assumed
+                    if (lookahead() == id) {
+                        pos++;
+                    } else {
+                        report(infos[d], starts[d], starts[d]);
+                    }
+                    break;
+                case Grammar.ACTION:
+                    action(id, starts[d], marks[d]);
+                    break;
+                case Grammar.RECOVER:
+                    // The guarded part parsed without errors
+                    break;
+                default:
+                    // An error report in the grammar
+                    fail(infos[d], starts[d]);
+                    break;
+            }
+        }
+    }
+
+    // Replaces the nonterminal just popped by the symbols Grammar gives for the lookahead
+    private void expand(int[] expansion, int[] info) {
+        if (depth + expansion.length > symbols.length) {
+            int capacity = Math.max(symbols.length * 2, depth + expansion.length);
+            symbols = Arrays.copyOf(symbols, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+            infos = Arrays.copyOf(infos, capacity);
+        }
+        for (int k = 0; k < expansion.length; k++) {
+            int symbol = expansion[k];
+            pushSymbol(symbol, Grammar.kind(symbol) == Grammar.RECOVER ? breakTargets : info[k]);
+        }
+    }
+
+    private void pushSymbol(int symbol, int info) {
+        int d = depth++;
+        symbols[d] = symbol;
+        starts[d] = pos;
+        marks[d] = top;
+        infos[d] = info;
+    }
+
+    private void action(int action, int start, int mark) throws SyntaxError {
+        switch (action) {
+            case Grammar.EXTEND: {
+                // Widen a declaration or assignment to include its ';'
+                Ast.Stmt stmt = (Ast.Stmt) nodes[top - 1];
+                if (stmt instanceof Ast.Declaration d) {
+                    nodes[top - 1] = new Ast.Declaration(d.type(), d.name(), d.init(), start, pos);
+                } else if (stmt instanceof Ast.Assignment a) {
+                    nodes[top - 1] = new Ast.Assignment(a.name(), a.value(), start, pos);
+                }
+                break;
+            }
+            case Grammar.ENTER:
+                breakTargets++;
+                break;
+            case Grammar.LEAVE:
+                breakTargets--;
+                break;
+            case Grammar.CHECK_BREAK:
+                if (breakTargets == 0) diagnostics.error("misplaced-break", pos, "'break' outside of a loop or 'switch'");
+                break;
+            case Grammar.BREAK:
+                push(new Ast.Break(start, pos));
+                break;
+            case Grammar.NULL:
+                push(null);
+                break;
+            case Grammar.DECL: {
+                Ast.Expr init = (Ast.Expr) pop();
+                int name = popIndex();
+                int type = popIndex();
+                push(new Ast.Declaration(type, name, init, start, pos));
+                break;
+            }
+            case Grammar.ASSIGN: {
+                Ast.Expr value = (Ast.Expr) pop();
+                int name = popIndex();
+                push(new Ast.Assignment(name, value, start, pos));
+                break;
+            }
+            case Grammar.IF: {
+                Ast.Stmt otherwise = (Ast.Stmt) pop();
+                Ast.Block then = (Ast.Block) pop();
+                Ast.Expr condition = (Ast.Expr) pop();
+                push(new Ast.If(condition, then, otherwise, start, pos));
+                break;
+            }
+            case Grammar.WHILE: {
+                Ast.Block body = (Ast.Block) pop();
+                Ast.Expr condition = (Ast.Expr) pop();
+                push(new Ast.While(condition, body, start, pos));
+                break;
+            }
+            case Grammar.FOR: {
+                Ast.Block body = (Ast.Block) pop();
+                Ast.Assignment update = (Ast.Assignment) pop();
+                Ast.Expr condition = (Ast.Expr) pop();
+                Ast.Stmt init = (Ast.Stmt) pop();
+                push(new Ast.For(init, condition, update, body, start, pos));
+                break;
+            }
+            case Grammar.SWITCH: {
+                Ast.Expr selector = (Ast.Expr) nodes[mark];
+                List<Ast.Case> cases = new ArrayList<>(top - mark - 1);
+                for (int k = mark + 1; k < top; k++) cases.add((Ast.Case) nodes[k]);
+                truncate(mark);
+                push(new Ast.Switch(selector, cases, start, pos));
+                break;
+            }
+            case Grammar.CASE: {
+                // A label that could not be read up to its ':' drops the case
+                int value = indices[mark];
+                List<Ast.Stmt> body = new ArrayList<>(top - mark - 1);
+                for (int k = mark + 1; k < top; k++) body.add((Ast.Stmt) nodes[k]);
+                truncate(mark);
+                if (value != -2) push(new Ast.Case(value, body, start, pos));
+                break;
+            }
+            case Grammar.DEFAULT:
+                pushIndex(-1);
+                break;
+            case Grammar.BLOCK: {
+                List<Ast.Stmt> statements = new ArrayList<>(top - mark);
+                for (int k = mark; k < top; k++) statements.add((Ast.Stmt) nodes[k]);
+                truncate(mark);
+                push(new Ast.Block(statements, start, pos));
+                break;
+            }
+            case Grammar.BINARY: {
+                Ast.Expr right = (Ast.Expr) pop();
+                int operator = popIndex();
+                Ast.Expr left = (Ast.Expr) pop();
+                push(new Ast.Binary(operator, left, right, left.first(), right.end()));
+                break;
+            }
+            case Grammar.UNARY: {
+                Ast.Expr operand = (Ast.Expr) pop();
+                int operator = popIndex();
+                push(new Ast.Unary(operator, operand, operator, operand.end()));
+                break;
+            }
+            case Grammar.OPERAND:
+                push(new Ast.Operand(popIndex()));
+                break;
+            case Grammar.PARENS:
+                push(new Ast.Parens((Ast.Expr) pop(), start, pos));
+                break;
+            default:
+                throw new IllegalStateException("Unknown action " + action);
+        }
+    }
+
+    // Reports the failure of a symbol, then unwinds to the nearest recovery point
+    private void fail(int message, int start) throws SyntaxError {
+        report(message, start, pos);
+        recover();
+    }
+
+    private void report(int message, int start, int at) throws SyntaxError {
+        if (message < 0) {
+            diagnostics.error("unexpected-token", at, "Unexpected '" + tokenText(pos) + "'");
+        } else {
+            diagnostics.error(Grammar.CODES[message], at, format(Grammar.MESSAGES[message], start));
+        }
+    }
+
+    // Fills in $0 and $1, the tokens at 'start' and after it, and $, the current token
+    private String format(String message, int start) {
+        int dollar = message.indexOf('$');
+        if (dollar < 0) return message;
+        StringBuilder sb = new StringBuilder(message.length() + 16);
+        int from = 0;
+        for (; dollar >= 0; dollar = message.indexOf('$', from)) {
+            sb.append(message, from, dollar);
+            from = dollar + 1;
+            if (from < message.length() && Character.isDigit(message.charAt(from))) {
+                sb.append(tokenText(start + message.charAt(from++) - '0'));
+            } else {
+                sb.append(tokenText(pos));
+            }
+        }
+        return sb.append(message, from, message.length()).toString();
+    }
+
+    private String tokenText(int i) {
+        return i < tokens.size() ? tokens.text(i) : "end of input";
+    }
+
+    private void recover() {
+        while (Grammar.kind(symbols[depth - 1]) != Grammar.RECOVER) depth--;
+        int d = --depth;
+        int start = starts[d];
+        truncate(marks[d]);
+        breakTargets = infos[d];
+        switch (Grammar.id(symbols[d])) {
+            case Grammar.STATEMENT:
+                synchronize(start);
+                break;
+            case Grammar.HEADER:
+                skipHeader(false);
+                push(new Ast.Invalid(start, pos));
+                break;
+            case Grammar.FOR_HEADER:
+                skipHeader(true);
+                push(null);
+                push(new Ast.Invalid(start, pos));
+                push(null);
+                break;
+            case Grammar.CASE_LABEL:
+                // Resume at the next label, or at the ':' that ends this one
+                if (pos == start) pos++;
+                while (pos < tokens.size() && !at('}') && !at(':') && !isCaseLabel(pos)) pos++;
+                if (at(':')) {
+                    pos++;
+                    pushIndex(-1);
+                } else {
+                    pushIndex(-2);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown recovery point " + Grammar.id(symbols[d]));
+        }
+    }
+
+    // Skips past the next ';', or up to a brace or a keyword that starts a statement
+    private void synchronize(int first) {
+        if (pos == first) pos++;
+        while (pos < tokens.size()) {
+            if (at(';')) {
+                pos++;
+                return;
+            }
+            if (at('{') || at('}')) return;
+            String keyword = keyword(pos);
+            if (keyword != null && !keyword.equals("else")) return;
+            pos++;
+        }
+    }
+
+    // After an error inside a header, skips to just past its closing ')'
+    // without leaving the statement: stops before a brace, and before ';'
+    // unless the header is a for header, which contains them
+    private void skipHeader(boolean forHeader) {
+        int depth = 0;
+        while (pos < tokens.size()) {
+            if (at('(')) {
+                depth++;
+            } else if (at(')')) {
+                if (depth-- == 0) {
+                    pos++;
+                    return;
+                }
+            } else if (at('{') || at('}') || (!forHeader && at(';'))) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean isCaseLabel(int i) {
+        String keyword = keyword(i);
+        return "case".equals(keyword) || "default".equals(keyword);
+    }
+
+    private int lookahead() {
+        if (lookaheadPos != pos) {
+            lookahead = Grammar.terminal(tokens, pos);
+            lookaheadPos = pos;
+        }
+        return lookahead;
+    }
+
+    private void push(Object node) {
+        if (top == nodes.length) growValues();
+        nodes[top] = node;
+        indices[top++] = -1;
+    }
+
+    private void pushIndex(int index) {
+        if (top == nodes.length) growValues();
+        nodes[top] = null;
+        indices[top++] = index;
+    }
+
+    private Object pop() {
+        Object node = nodes[--top];
+        nodes[top] = null;
+        return node;
+    }
+
+    private int popIndex() {
+        return indices[--top];
+    }
+
+    private void truncate(int mark) {
+        Arrays.fill(nodes, mark, top, null);
+        top = mark;
+    }
+
+    private void growValues() {
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        indices = Arrays.copyOf(indices, indices.length * 2);
+    }
+
+    private String keyword(int i) {
+        return i < tokens.size() ? tokens.keyword(i) : null;
+    }
+
+    private boolean at(char c) {
+        return pos < tokens.size() && tokens.is(pos, c);
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+// Peephole optimization: a table of rules, each matching instruction k and
+// the few after it, applied in sweeps over the code until a sweep changes
+// nothing. A sweep marks instructions removed and the code is compacted
+// between sweeps; a rule that only needs a later sweep to match again just
+// leaves it to that sweep. Label positions and the number of jumps to each
+// label are counted once per sweep and kept up to date by the rules.
+public class Peephole implements IrPass {
+    // Rewrites or removes what matches at instruction k and says whether it did
+    private interface Rule {
+        boolean apply(int k);
+    }
+
+    // Goto chains are followed this far per jump, so a cycle of gotos ends
+    private static final int MAX_HOPS = 16;
+
+    private final Rule[] rules = {
+        this::removeUnreachable,
+        this::removeUnusedLabel,
+        this::threadJump,
+        this::removeJumpToNext,
+        this::invertBranch,
+        this::simplify,
+    };
+
+    private Ir ir;
+    private boolean[] removed;
+    private int[] labelAt; // per label, its instruction, or -1
+    private int[] jumpsTo; // per label, the jumps and table entries naming it
+
+    @Override
+    public String name() {
+        return "peephole";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        this.ir = ir;
+        boolean changed = true;
+        while (changed && ir.size() > 0) {
+            changed = sweep();
+            ir.remove(removed);
+        }
+        this.ir = null;
+    }
+
+    private boolean sweep() {
+        int n = ir.size();
+        removed = new boolean[n];
+        labelAt = new int[ir.labelCount() + 1];
+        jumpsTo = new int[ir.labelCount() + 1];
+        Arrays.fill(labelAt, -1);
+        for (int k = 0; k < n; k++) {
+            int op = ir.op(k);
+            if (op == Ir.LABEL) {
+                labelAt[ir.dest(k)] = k;
+            } else if (Ir.isJump(op)) {
+                count(k, 1);
+            }
+        }
+        boolean changed = false;
+        for (int k = 0; k < n; k++) {
+            for (Rule rule : rules) {
+                if (removed[k]) break;
+                changed |= rule.apply(k);
+            }
+        }
+        return changed;
+    }
+
+    // Adds 'delta' to the count of every label jump k names
+    private void count(int k, int delta) {
+        jumpsTo[ir.dest(k)] += delta;
+        if (ir.op(k) != Ir.JUMP_TABLE) return;
+        for (int label : ir.tableLabels(ir.src2(k))) jumpsTo[label] += delta;
+    }
+
+    private void remove(int k) {
+        if (Ir.isJump(ir.op(k))) count(k, -1);
+        removed[k] = true;
+    }
+
+    // The next instruction after k not removed, or the code size
+    private int next(int k) {
+        int j = k + 1;
+        while (j < ir.size() && removed[j]) j++;
+        return j;
+    }
+
+    // Whether control falling through past k arrives at 'label' without executing anything
+    private boolean fallsInto(int k, int label) {
+        for (int j = next(k); j < ir.size() && ir.op(j) == Ir.LABEL; j = next(j)) {
+            if (ir.dest(j) == label) return true;
+        }
+        return false;
+    }
+
+    // The label a jump to 'label' ends up at after the gotos right behind
+    // it; 'label' itself when they go round in a cycle
+    private int destination(int label) {
+        int at = label;
+        for (int hops = 0; hops < MAX_HOPS; hops++) {
+            int j = labelAt[at];
+            if (j < 0) return at;
+            while (j < ir.size() && (removed[j] || ir.op(j) == Ir.LABEL)) j++;
+            if (j == ir.size() || ir.op(j) != Ir.GOTO) return at;
+            at = ir.dest(j);
+            if (at == label) return label;
+        }
+        return label;
+    }
+
+    // Code after an unconditional jump up to the next label is never run
+    private boolean removeUnreachable(int k) {
+        int op = ir.op(k);
+        if (op != Ir.GOTO && op != Ir.JUMP_TABLE) return false;
+        boolean changed = false;
+        for (int j = next(k); j < ir.size() && ir.op(j) != Ir.LABEL; j = next(j)) {
+            remove(j);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean removeUnusedLabel(int k) {
+        if (ir.op(k) != Ir.LABEL || jumpsTo[ir.dest(k)] > 0) return false;
+        remove(k);
+        return true;
+    }
+
+    // A jump to a goto goes straight to where that goto leads
+    private boolean threadJump(int k) {
+        int op = ir.op(k);
+        if (!Ir.isJump(op)) return false;
+        boolean changed = false;
+        int label = destination(ir.dest(k));
+        if (label != ir.dest(k)) {
+            jumpsTo[ir.dest(k)]--;
+            jumpsTo[label]++;
+            ir.set(k, op, label, ir.src1(k), ir.src2(k));
+            changed = true;
+        }
+        if (op == Ir.JUMP_TABLE) {
+            int table = ir.src2(k);
+            int[] labels = ir.tableLabels(table);
+            for (int i = 0; i < labels.length; i++) {
+                label = destination(labels[i]);
+                if (label == labels[i]) continue;
+                jumpsTo[labels[i]]--;
+                jumpsTo[label]++;
+                ir.setTableLabel(table, i, label);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // A jump, taken or not, to the code right after it does nothing; the
+    // conditions it tests have no effects of their own
+    private boolean removeJumpToNext(int k) {
+        int op = ir.op(k);
+        if (!Ir.isJump(op) || op == Ir.JUMP_TABLE || !fallsInto(k, ir.dest(k))) return false;
+        remove(k);
+        return true;
+    }
+
+    // 'if c goto L1; goto L2; L1:' becomes 'ifFalse c goto L2; L1:'
+    private boolean invertBranch(int k) {
+        int op = ir.op(k);
+        if (op < Ir.IF || op > Ir.IF_FALSE_NE) return false;
+        int j = next(k);
+        if (j == ir.size() || ir.op(j) != Ir.GOTO || !fallsInto(j, ir.dest(k))) return false;
+        jumpsTo[ir.dest(k)]--;
+        ir.set(k, inverse(op), ir.dest(j), ir.src1(k), ir.src2(k));
+        removed[j] = true;
+        return true;
+    }
+
+    private static int inverse(int op) {
+        if (op == Ir.IF) return Ir.IF_FALSE;
+        if (op == Ir.IF_FALSE) return Ir.IF;
+        return op <= Ir.IF_NE ? op + Ir.IF_FALSE_LT - Ir.IF_LT : op - Ir.IF_FALSE_LT + Ir.IF_LT;
+    }
+
+    // x - 0, x * 1 and x / 1 are copies of x, in ints as well, and 'x = x'
+    // goes. So is x + 0 in ints, but not in doubles: there it turns -0 into
+    // 0, which a later division can tell apart.
+    private boolean simplify(int k) {
+        int op = ir.op(k);
+        int src1 = ir.src1(k);
+        int src2 = ir.src2(k);
+        if (op == Ir.COPY) {
+            if (src1 != ir.dest(k)) return false;
+            remove(k);
+            return true;
+        }
+        int kept;
+        boolean times = op == Ir.MUL || op == Ir.IMUL;
+        boolean over = op == Ir.DIV || op == Ir.IDIV;
+        if ((op == Ir.SUB || op == Ir.ISUB || op == Ir.IADD) && is(src2, 0) || (times || over) && is(src2, 1)) {
+            kept = src1;
+        } else if (times && is(src1, 1) || op == Ir.IADD && is(src1, 0)) {
+            kept = src2;
+        } else {
+            return false;
+        }
+        if (ir.kind(kept) == Ir.STRING) return false;
+        ir.set(k, Ir.COPY, ir.dest(k), kept, Ir.NONE);
+        return true;
+    }
+
+    private boolean is(int operand, double value) {
+        return ir.isConstant(operand) && ir.value(operand) == value;
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.Arrays;
+
+// Precedence climbing over the tokens of an expression from the tree, shared
+// by TACGenerator and BytecodeGenerator, which get each operator through a
+// Target once its operands are done; the stacks keep nesting off the call
+// stack. Values are typed as in Java: arithmetic widens both operands to the
+// wider of the two, and comparisons and the logical operators give an int. A
+// first climb only works out the kinds, so that a left operand can be widened
+// while it is still the latest value.
+public class PrecedenceClimber {
+    // Kinds of value, as the offset from an int JVM opcode to the float or
+    // double one; wider kinds are larger
+    public static final int INT = 0, FLOAT = 2, DOUBLE = 3;
+
+    // What a generator makes of an expression. Values are whatever the target
+    // names them by, such as IR operands; token indices are as in the tree.
+    public interface Target {
+        // Kind of an identifier token
+        int variableKind(int i);
+
+        int operand(int i);
+
+        // A value of kind 'from' as the wider kind 'to'
+        int widen(int value, int from, int to);
+
+        // Prefix '-' or '!'
+        int unary(int operator, int value, int kind);
+
+        // Arithmetic or a comparison on two values already widened to 'kind'
+        int binary(int operator, int left, int right, int kind);
+
+        // Starts a run of '&&' or of '||' and returns what the calls for its operands get as 'chain'
+        int startLogical(boolean and);
+
+        // An operand of the run that is not its last
+        void logicalOperand(boolean and, int value, int kind, int chain);
+
+        // The last operand; returns the value of the whole run
+        int endLogical(boolean and, int value, int kind, int chain);
+    }
+
+    // Binding power of each binary operator by its first character: '|' and
+    // '&' are '||' and '&&', '=' and '!' are '==' and '!='. Prefix '-' and '!'
+    // bind tighter than all of them; an open parenthesis holds everything.
+    private static final int[] BINDING = new int[128];
+    private static final int PREFIX = 6;
+    private static final int OPEN = 0;
+    private static final int OR = 1, AND = 2, RELATIONAL = 3;
+
+    static {
+        BINDING['|'] = OR;
+        BINDING['&'] = AND;
+        BINDING['<'] = BINDING['>'] = BINDING['='] = BINDING['!'] = RELATIONAL;
+        BINDING['+'] = BINDING['-'] = 4;
+        BINDING['*'] = BINDING['/'] = 5;
+    }
+
+    private final Target target;
+    private final TokenBuffer tokens;
+    private int base;
+    private int first; // first token of the expression being climbed
+    private int kind; // of the last expression generated
+
+    // Expression stacks, kept between expressions: values computed with their
+    // kinds, and operators waiting for their right side with their binding
+    // power. For '&&' and '||' they also hold the target's chain.
+    private int[] values = new int[16];
+    private int[] kinds = new int[16];
+    private int valueCount;
+    private int[] pendingTokens = new int[16];
+    private int[] pendingPowers = new int[16];
+    private int[] pendingChains = new int[16];
+    private int pendingCount;
+    // Per token of the expression, for a binary operator the kind its operands are widened to
+    private int[] operandKinds = new int[16];
+
+    public PrecedenceClimber(Target target, TokenBuffer tokens) {
+        this.target = target;
+        this.tokens = tokens;
+    }
+
+    // Kind of a declared variable
+    public static int kindOf(SymbolEntry entry) {
+        int typeId = entry.getTypeId();
+        return typeId == 1 ? FLOAT : typeId == 2 ? DOUBLE : INT;
+    }
+
+    // A number token without a fraction that fits in an int
+    public static boolean isInt(TokenBuffer tokens, int token) {
+        int start = tokens.start(token);
+        int end = tokens.end(token);
+        if (end - start > 10) return false;
+        CharSequence source = tokens.source();
+        long value = 0;
+        for (int p = start; p < end; p++) {
+            char c = source.charAt(p);
+            if (c == '.') return false;
+            value = value * 10 + (c - '0');
+        }
+        return value <= Integer.MAX_VALUE;
+    }
+
+    // Kind of an operand token from the tree, where tree token i is tokens[base + i].
+    // A string literal stands for NaN, a double.
+    public int operandKind(int i, int base) {
+        int token = base + i;
+        byte kind = tokens.kind(token);
+        if (kind == TokenKind.IDENTIFIER) return target.variableKind(i);
+        if (kind == TokenKind.NUMBER && isInt(tokens, token)) return INT;
+        return DOUBLE;
+    }
+
+    // Kind of the last expression generated
+    public int kind() {
+        return kind;
+    }
+
+    // Generates 'expr' through the target and returns its value
+    public int generate(Ast.Expr expr, int base) {
+        kindOf(expr, base);
+        valueCount = 0;
+        pendingCount = 0;
+        boolean operandNext = true;
+        for (int i = first; i < expr.end(); i++) {
+            int token = base + i;
+            if (operandNext) {
+                if (tokens.is(token, '(')) {
+                    push(i, OPEN);
+                } else if (tokens.is(token, '-') || tokens.is(token, '!')) {
+                    push(i, PREFIX);
+                } else {
+                    pushValue(target.operand(i), operandKind(i, base));
+                    operandNext = false;
+                }
+            } else if (tokens.is(token, ')')) {
+                reduce(OR); // back to the '('
+                pendingCount--;
+            } else {
+                int power = BINDING[tokens.source().charAt(tokens.start(token))];
+                operandNext = true;
+                if (power > AND) {
+                    reduce(power);
+                    int top = valueCount - 1;
+                    int wider = operandKinds[i - first];
+                    if (kinds[top] != wider) {
+                        values[top] = target.widen(values[top], kinds[top], wider);
+                        kinds[top] = wider;
+                    }
+                    push(i, power);
+                    continue;
+                }
+                reduce(power + 1);
+                // Another '&&' after an '&&' continues the same run, and likewise '||'
+                boolean chained = pendingCount > 0 && pendingPowers[pendingCount - 1] == power;
+                if (!chained) {
+                    push(i, power);
+                    pendingChains[pendingCount - 1] = target.startLogical(power == AND);
+                }
+                valueCount--;
+                target.logicalOperand(power == AND, values[valueCount], kinds[valueCount], pendingChains[pendingCount - 1]);
+            }
+        }
+        reduce(OR);
+        kind = kinds[0];
+        return values[0];
+    }
+
+    // Emits the waiting operators that bind at least as tightly as 'power',
+    // all left-associative
+    private void reduce(int power) {
+        while (pendingCount > 0 && pendingPowers[pendingCount - 1] >= power) {
+            int top = --pendingCount;
+            int operator = pendingTokens[top];
+            int right = values[--valueCount];
+            int rightKind = kinds[valueCount];
+            if (pendingPowers[top] == PREFIX) {
+                int kind = tokens.is(base + operator, '-') ? rightKind : INT;
+                pushValue(target.unary(operator, right, rightKind), kind);
+            } else if (pendingPowers[top] <= AND) {
+                boolean and = pendingPowers[top] == AND;
+                pushValue(target.endLogical(and, right, rightKind, pendingChains[top]), INT);
+            } else {
+                int kind = operandKinds[operator - first];
+                if (rightKind != kind) right = target.widen(right, rightKind, kind);
+                int left = values[--valueCount];
+                pushValue(target.binary(operator, left, right, kind), pendingPowers[top] == RELATIONAL ? INT : kind);
+            }
+        }
+    }
+
+    // The first climb: records for every binary operator the kind its
+    // operands are widened to, and returns the kind of the whole expression
+    public int kindOf(Ast.Expr expr, int base) {
+        this.base = base;
+        first = expr.first();
+        if (operandKinds.length < expr.end() - first) operandKinds = new int[expr.end() - first];
+        valueCount = 0;
+        pendingCount = 0;
+        boolean operandNext = true;
+        for (int i = first; i < expr.end(); i++) {
+            int token = base + i;
+            if (operandNext) {
+                if (tokens.is(token, '(')) {
+                    push(i, OPEN);
+                } else if (tokens.is(token, '-') || tokens.is(token, '!')) {
+                    push(i, PREFIX);
+                } else {
+                    pushValue(0, operandKind(i, base));
+                    operandNext = false;
+                }
+            } else if (tokens.is(token, ')')) {
+                reduceKinds(OR);
+                pendingCount--;
+            } else {
+                int power = BINDING[tokens.source().charAt(tokens.start(token))];
+                operandNext = true;
+                reduceKinds(power > AND ? power : power + 1);
+                push(i, power);
+            }
+        }
+        reduceKinds(OR);
+        return kinds[0];
+    }
+
+    private void reduceKinds(int power) {
+        while (pendingCount > 0 && pendingPowers[pendingCount - 1] >= power) {
+            int top = --pendingCount;
+            int operator = pendingTokens[top];
+            int right = kinds[--valueCount];
+            if (pendingPowers[top] == PREFIX) {
+                pushValue(0, tokens.is(base + operator, '-') ? right : INT);
+            } else if (pendingPowers[top] <= AND) {
+                valueCount--;
+                pushValue(0, INT);
+            } else {
+                int kind = Math.max(kinds[--valueCount], right);
+                operandKinds[operator - first] = kind;
+                pushValue(0, pendingPowers[top] == RELATIONAL ? INT : kind);
+            }
+        }
+    }
+
+    private void push(int operator, int power) {
+        if (pendingCount == pendingTokens.length) {
+            int capacity = pendingCount * 2;
+            pendingTokens = Arrays.copyOf(pendingTokens, capacity);
+            pendingPowers = Arrays.copyOf(pendingPowers, capacity);
+            pendingChains = Arrays.copyOf(pendingChains, capacity);
+        }
+        pendingTokens[pendingCount] = operator;
+        pendingPowers[pendingCount++] = power;
+    }
+
+    private void pushValue(int value, int kind) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+            kinds = Arrays.copyOf(kinds, valueCount * 2);
+        }
+        values[valueCount] = value;
+        kinds[valueCount++] = kind;
+    }
+}
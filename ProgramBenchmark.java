@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Compiles programs and times them on VirtualMachine, as generated and after
+// the standard optimizer, and as JVM bytecode from BytecodeGenerator, to
+// measure what compiler changes buy end to end.
+// Run with
+//   java ProgramBenchmark [file ...]
+// Without files a built-in program of nested loops is used.
+public class ProgramBenchmark {
+    private static final long LIMIT = 1_000_000_000L;
+
+    private static final String SAMPLE = String.join("\n",
+        "int n = 300;",
+        "int sum = 0;",
+        "int hits = 0;",
+        "for (int i = 0; i < n; i = i + 1) {",
+        "    for (int j = 0; j < n; j = j + 1) {",
+        "        int k = i * 4 + j;",
+        "        if (j > i && k < 600 || i == 7) {",
+        "            hits = hits + 1;",
+        "        }",
+        "        switch (j - i) {",
+        "            case 0: sum = sum + k; break;",
+        "            case 1: sum = sum - 1; break;",
+        "            case 2: sum = sum + 2; break;",
+        "            default: sum = sum + 1;",
+        "        }",
+        "    }",
+        "}");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            report("built-in", SAMPLE);
+        }
+        for (String file : args) {
+            report(file, Files.readString(Path.of(file)));
+        }
+    }
+
+    private static void report(String name, String source) {
+        Lexer lexer = new Lexer();
+        lexer.tokenize(source);
+        if (lexer.getDiagnostics().hasErrors()) {
+            System.out.println(name + ":\n" + lexer.getDiagnostics().format());
+            return;
+        }
+        System.out.println(name + ":");
+        time("plain", lexer, null);
+        time("optimized", lexer, Optimizer.standard());
+        timeJvm(lexer);
+    }
+
+    // Best of several runs, after the JIT has compiled the dispatch loop
+    private static void time(String label, Lexer lexer, Optimizer optimizer) {
+        Ir ir = new TACGenerator().generate(lexer.getProgram(), lexer.getTokenBuffer(), lexer.getSymbolTable());
+        if (optimizer != null) optimizer.run(ir);
+        VirtualMachine machine = new VirtualMachine(ir);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            if (!machine.run(LIMIT)) {
+                System.out.printf("  %-9s stopped after %,d instructions%n", label, machine.executed());
+                return;
+            }
+            best = Math.min(best, machine.nanos());
+        }
+        System.out.printf("  %-9s %5d instructions, %,d executed in %.3f ms%n",
+            label, ir.size(), machine.executed(), best / 1e6);
+    }
+
+    // Best of several runs; the later ones run code HotSpot has compiled
+    private static void timeJvm(Lexer lexer) {
+        byte[] classFile = new BytecodeGenerator().generate(lexer.getProgram(), lexer.getTokenBuffer(), lexer.getSymbolTable());
+        CompiledProgram program = new CompiledProgram(classFile);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            if (!program.run(LIMIT)) {
+                System.out.printf("  %-9s stopped after %,d loop iterations%n", "jvm", LIMIT);
+                return;
+            }
+            best = Math.min(best, program.nanos());
+        }
+        System.out.printf("  %-9s %5d bytes of class file, in %.3f ms%n", "jvm", classFile.length, best / 1e6);
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.Arrays;
+
+// Forward must-analysis of facts "operand v holds the value of operand w",
+// shared by ConstantPropagation (w a constant) and CopyPropagation (w a
+// variable). Facts hold on entry to a block when they hold at the end of
+// every predecessor control can come from; a predecessor not reached yet
+// counts as agreeing with everything. Each block keeps its out facts as two
+// sparse arrays, and an operand is dropped from the facts past the last
+// block that mentions it, stretched over any loop around that block, since
+// nothing can read it there.
+public abstract class Propagation extends Dataflow {
+    protected final Ir ir;
+    private final int[][] outKeys; // per block, null until control reaches it
+    private final int[][] outValues;
+    private final int[] lastBlock; // per operand, -1 if never mentioned
+
+    // Facts at the current point: value[v] is w, or Ir.NONE when nothing is known
+    private final int[] value;
+    private final int[] references; // number of facts whose value is a given operand
+    private final boolean[] listed;
+    private final int[] stamps;
+    private int stamp;
+    private int[] keys = new int[16]; // operands with facts, plus some whose facts were removed
+    private int keyCount;
+
+    protected Propagation(Cfg cfg) {
+        super(cfg, true);
+        this.ir = cfg.ir();
+        int blocks = cfg.size();
+        outKeys = new int[blocks][];
+        outValues = new int[blocks][];
+        int operands = ir.operandCount();
+        value = new int[operands];
+        Arrays.fill(value, Ir.NONE);
+        references = new int[operands];
+        listed = new boolean[operands];
+        stamps = new int[operands];
+        lastBlock = new int[operands];
+        Arrays.fill(lastBlock, -1);
+
+        for (int b = 0; b < blocks; b++) {
+            for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                int op = ir.op(k);
+                if (Ir.defines(op)) lastBlock[ir.dest(k)] = b;
+                if (Ir.readsSrc1(op)) lastBlock[ir.src1(k)] = b;
+                if (Ir.readsSrc2(op)) lastBlock[ir.src2(k)] = b;
+            }
+        }
+        // reach[b]: the furthest block that jumps back to b or before it
+        int[] reach = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            reach[b] = b;
+            for (int i = 0; i < cfg.predecessorCount(b); i++) {
+                reach[b] = Math.max(reach[b], cfg.predecessor(b, i));
+            }
+            if (b > 0) reach[b] = Math.max(reach[b], reach[b - 1]);
+        }
+        for (int v = 0; v < operands; v++) {
+            int last = lastBlock[v];
+            if (last < 0) continue;
+            while (reach[last] > last) last = reach[last];
+            lastBlock[v] = last;
+        }
+    }
+
+    // Loads the facts holding on entry to block b. False when control has
+    // not been found to reach b; the entry block starts knowing nothing.
+    protected boolean enter(int b) {
+        clear();
+        if (b == 0) return true;
+        boolean reached = false;
+        for (int i = 0; i < cfg.predecessorCount(b); i++) {
+            int p = cfg.predecessor(b, i);
+            if (outKeys[p] == null || !flows(p, b)) continue;
+            int[] pKeys = outKeys[p];
+            int[] pValues = outValues[p];
+            if (!reached) {
+                reached = true;
+                for (int j = 0; j < pKeys.length; j++) {
+                    if (lastBlock[pKeys[j]] >= b) put(pKeys[j], pValues[j]);
+                }
+                continue;
+            }
+            stamp++;
+            for (int j = 0; j < pKeys.length; j++) {
+                int v = pKeys[j];
+                if (value[v] != Ir.NONE && same(value[v], pValues[j])) stamps[v] = stamp;
+            }
+            for (int j = 0; j < keyCount; j++) {
+                if (stamps[keys[j]] != stamp) remove(keys[j]);
+            }
+        }
+        return reached;
+    }
+
+    // Stores the current facts as the out facts of block b; true if they changed
+    protected boolean leave(int b) {
+        int count = 0;
+        for (int j = 0; j < keyCount; j++) {
+            if (value[keys[j]] != Ir.NONE) count++;
+        }
+        int[] old = outKeys[b];
+        boolean changed = old == null || old.length != count;
+        if (!changed) {
+            for (int j = 0; j < old.length; j++) {
+                int w = value[old[j]];
+                if (w == Ir.NONE || !same(w, outValues[b][j])) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (!changed) return false;
+        int[] newKeys = new int[count];
+        int[] newValues = new int[count];
+        count = 0;
+        for (int j = 0; j < keyCount; j++) {
+            int v = keys[j];
+            if (value[v] == Ir.NONE) continue;
+            newKeys[count] = v;
+            newValues[count++] = value[v];
+        }
+        outKeys[b] = newKeys;
+        outValues[b] = newValues;
+        return true;
+    }
+
+    // What operand v is known to hold, or Ir.NONE
+    protected int fact(int v) {
+        return v < value.length ? value[v] : Ir.NONE;
+    }
+
+    // v is assigned: facts about v and facts pointing at v no longer hold,
+    // and v now holds w unless w is Ir.NONE
+    protected void define(int v, int w) {
+        if (references[v] > 0) {
+            for (int j = 0; j < keyCount; j++) {
+                if (value[keys[j]] == v) remove(keys[j]);
+            }
+        }
+        remove(v);
+        if (w != Ir.NONE && w != v) put(v, w);
+    }
+
+    // Constants are equal when their values are, whichever way they were spelled
+    protected boolean same(int a, int b) {
+        if (a == b) return true;
+        return ir.isConstant(a) && ir.isConstant(b)
+            && Double.doubleToLongBits(ir.value(a)) == Double.doubleToLongBits(ir.value(b));
+    }
+
+    private void put(int v, int w) {
+        if (!listed[v]) {
+            if (keyCount == keys.length) keys = Arrays.copyOf(keys, keyCount * 2);
+            keys[keyCount++] = v;
+            listed[v] = true;
+        }
+        value[v] = w;
+        if (w < references.length) references[w]++;
+    }
+
+    private void remove(int v) {
+        int w = value[v];
+        if (w == Ir.NONE) return;
+        if (w < references.length) references[w]--;
+        value[v] = Ir.NONE;
+    }
+
+    private void clear() {
+        for (int j = 0; j < keyCount; j++) {
+            int v = keys[j];
+            remove(v);
+            listed[v] = false;
+        }
+        keyCount = 0;
+    }
+
+    // Marks definitions of temporaries that nothing reads any more as removed.
+    // Going backward frees a whole chain of temporaries feeding each other.
+    protected static void removeUnusedTemps(Ir ir, boolean[] removed) {
+        int[] reads = new int[ir.operandCount()];
+        for (int k = 0; k < ir.size(); k++) {
+            if (!removed[k]) countReads(ir, k, reads, 1);
+        }
+        for (int k = ir.size() - 1; k >= 0; k--) {
+            if (removed[k] || !Ir.defines(ir.op(k))) continue;
+            int dest = ir.dest(k);
+            if (ir.isTemp(dest) && reads[dest] == 0 && !ir.canTrap(k)) {
+                removed[k] = true;
+                countReads(ir, k, reads, -1);
+            }
+        }
+    }
+
+    protected static void countReads(Ir ir, int k, int[] reads, int delta) {
+        int op = ir.op(k);
+        if (Ir.readsSrc1(op)) reads[ir.src1(k)] += delta;
+        if (Ir.readsSrc2(op)) reads[ir.src2(k)] += delta;
+    }
+}
@@ -0,0 +1,499 @@
+import java.util.Arrays;
+
+// Static single assignment form of an Ir, built in place. Every assignment
+// gets a new version of its operand, a temporary named after it (x_1, x_2,
+// ...), and where versions of an operand meet, a phi at the top of the block
+// picks the one for the edge taken. Phis go in the dominance frontiers of the
+// blocks assigning the operand, and only for operands some block reads
+// before assigning (semi-pruned); variables always qualify, since the
+// program's result reads them where it ends. Renaming walks the dominator
+// tree with the current version of each operand. Phis are kept here, beside
+// the code, and print() shows them at the top of their blocks.
+//
+// destruct() makes the code ordinary again. Each phi gets a temporary of its
+// own, copied into at the end of every predecessor and out of at the top of
+// the block, and the variables get their last versions copied back where the
+// program ends. Operands joined by a copy are then coalesced into one name
+// when neither is live where the other is assigned, which removes most of
+// those copies and any others the code had.
+public class Ssa {
+    private final Ir ir;
+    private final Cfg cfg;
+    private final int originals; // operands before renaming; versions come after
+
+    // Phis, listed per block from firstPhi through nextPhi
+    private int[] phiDests = new int[16];
+    private int[] phiOrigins = new int[16];
+    // Per predecessor of the block, in Cfg order; the start block's phis take
+    // one more, last, for control entering the program
+    private int[][] phiArgs = new int[16][];
+    private int[] nextPhi = new int[16];
+    private int phiCount;
+    private final int[] firstPhi;
+    private final int[] exitVersions; // per variable, its version where the program ends
+
+    // Unreachable code is removed first; it has no place in the dominator tree
+    public Ssa(Ir ir) {
+        this.ir = ir;
+        DeadCodeElimination.removeUnreachable(ir);
+        cfg = new Cfg(ir);
+        originals = ir.operandCount();
+        firstPhi = new int[cfg.size()];
+        Arrays.fill(firstPhi, -1);
+        exitVersions = new int[originals];
+        for (int v = 0; v < originals; v++) exitVersions[v] = v;
+        if (ir.size() == 0) return;
+        Dominators dominators = new Dominators(cfg);
+        placePhis(dominators);
+        rename(dominators);
+    }
+
+    private boolean renamable(int operand) {
+        int kind = ir.kind(operand);
+        return kind == Ir.VARIABLE || kind == Ir.TEMP;
+    }
+
+    private void placePhis(Dominators dominators) {
+        int blocks = cfg.size();
+        // Per operand, whether a block reads it before assigning it, and the
+        // blocks assigning it: counted in the first pass, recorded in the second
+        boolean[] global = new boolean[originals];
+        int[] defStarts = new int[originals + 1];
+        int[] defBlocks = new int[0];
+        int[] assigned = new int[originals]; // block + 1 that last assigned the operand
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(assigned, 0);
+            for (int b = 0; b < blocks; b++) {
+                for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                    int op = ir.op(k);
+                    if (Ir.readsSrc1(op) && assigned[ir.src1(k)] != b + 1) global[ir.src1(k)] = true;
+                    if (Ir.readsSrc2(op) && assigned[ir.src2(k)] != b + 1) global[ir.src2(k)] = true;
+                    if (!Ir.defines(op) || assigned[ir.dest(k)] == b + 1) continue;
+                    int dest = ir.dest(k);
+                    assigned[dest] = b + 1;
+                    if (pass == 0) {
+                        defStarts[dest + 1]++;
+                    } else {
+                        defBlocks[defStarts[dest]++] = b;
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int v = 0; v < originals; v++) defStarts[v + 1] += defStarts[v];
+                defBlocks = new int[defStarts[originals]];
+            }
+        }
+        System.arraycopy(defStarts, 0, defStarts, 1, originals);
+        defStarts[0] = 0;
+
+        int[] hasPhi = new int[blocks]; // operand + 1 with a phi in the block
+        int[] queued = new int[blocks];
+        int[] work = new int[blocks];
+        for (int v = 0; v < originals; v++) {
+            if (!global[v] && ir.kind(v) != Ir.VARIABLE || defStarts[v] == defStarts[v + 1]) continue;
+            int stamp = v + 1;
+            int top = 0;
+            for (int i = defStarts[v]; i < defStarts[v + 1]; i++) {
+                queued[defBlocks[i]] = stamp;
+                work[top++] = defBlocks[i];
+            }
+            while (top > 0) {
+                int b = work[--top];
+                for (int i = 0; i < dominators.frontierCount(b); i++) {
+                    int join = dominators.frontier(b, i);
+                    if (hasPhi[join] == stamp) continue;
+                    hasPhi[join] = stamp;
+                    addPhi(join, v);
+                    if (queued[join] != stamp) {
+                        queued[join] = stamp;
+                        work[top++] = join;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addPhi(int b, int origin) {
+        if (phiCount == phiDests.length) {
+            int capacity = phiCount * 2;
+            phiDests = Arrays.copyOf(phiDests, capacity);
+            phiOrigins = Arrays.copyOf(phiOrigins, capacity);
+            phiArgs = Arrays.copyOf(phiArgs, capacity);
+            nextPhi = Arrays.copyOf(nextPhi, capacity);
+        }
+        phiOrigins[phiCount] = origin;
+        phiArgs[phiCount] = new int[cfg.predecessorCount(b) + (b == 0 ? 1 : 0)];
+        if (b == 0) phiArgs[phiCount][cfg.predecessorCount(b)] = origin;
+        nextPhi[phiCount] = firstPhi[b];
+        firstPhi[b] = phiCount++;
+    }
+
+    private void rename(Dominators dominators) {
+        int blocks = cfg.size();
+        int[] current = new int[originals]; // per operand, its version in effect
+        for (int v = 0; v < originals; v++) current[v] = v;
+        int[] versionCounts = new int[originals];
+        // Undo log of replaced versions, unwound as the walk leaves each block
+        int[] logOperands = new int[16];
+        int[] logVersions = new int[16];
+        int logCount = 0;
+        int[] marks = new int[blocks];
+        int[] stack = new int[2 * blocks]; // a block to enter, or ~b to leave b
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int b = stack[--top];
+            if (b < 0) {
+                for (int mark = marks[~b]; logCount > mark; ) {
+                    logCount--;
+                    current[logOperands[logCount]] = logVersions[logCount];
+                }
+                continue;
+            }
+            marks[b] = logCount;
+            stack[top++] = ~b;
+            // Each definition below logs the version it replaces
+            for (int p = firstPhi[b]; p >= 0; p = nextPhi[p]) {
+                int origin = phiOrigins[p];
+                if (logCount == logOperands.length) {
+                    logOperands = Arrays.copyOf(logOperands, logCount * 2);
+                    logVersions = Arrays.copyOf(logVersions, logCount * 2);
+                }
+                logOperands[logCount] = origin;
+                logVersions[logCount++] = current[origin];
+                phiDests[p] = newVersion(origin, ++versionCounts[origin]);
+                current[origin] = phiDests[p];
+            }
+            for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                int op = ir.op(k);
+                int src1 = Ir.readsSrc1(op) ? current[ir.src1(k)] : ir.src1(k);
+                int src2 = Ir.readsSrc2(op) ? current[ir.src2(k)] : ir.src2(k);
+                int dest = ir.dest(k);
+                if (Ir.defines(op)) {
+                    if (logCount == logOperands.length) {
+                        logOperands = Arrays.copyOf(logOperands, logCount * 2);
+                        logVersions = Arrays.copyOf(logVersions, logCount * 2);
+                    }
+                    logOperands[logCount] = dest;
+                    logVersions[logCount++] = current[dest];
+                    int version = newVersion(dest, ++versionCounts[dest]);
+                    current[dest] = version;
+                    dest = version;
+                }
+                ir.set(k, op, dest, src1, src2);
+            }
+            for (int i = 0; i < cfg.successorCount(b); i++) {
+                int s = cfg.successor(b, i);
+                int edge = cfg.predecessorIndex(b, i);
+                for (int p = firstPhi[s]; p >= 0; p = nextPhi[p]) {
+                    phiArgs[p][edge] = current[phiOrigins[p]];
+                }
+            }
+            if (cfg.exits(b)) {
+                for (int v = 0; v < originals; v++) {
+                    if (ir.kind(v) == Ir.VARIABLE) exitVersions[v] = current[v];
+                }
+            }
+            for (int i = 0; i < dominators.childCount(b); i++) {
+                stack[top++] = dominators.child(b, i);
+            }
+        }
+    }
+
+    private int newVersion(int origin, int number) {
+        return ir.newTemp(ir.name(origin) + "_" + number);
+    }
+
+    public Ir ir() { return ir; }
+
+    // The code with each block's phis after its labels
+    public String print() {
+        StringBuilder out = new StringBuilder(ir.size() * 16);
+        for (int b = 0; b < cfg.size(); b++) {
+            int k = cfg.start(b);
+            for (; k < cfg.end(b) && ir.op(k) == Ir.LABEL; k++) {
+                ir.print(k, out);
+                out.append('\n');
+            }
+            for (int p = firstPhi[b]; p >= 0; p = nextPhi[p]) {
+                out.append(ir.name(phiDests[p])).append(" = phi(");
+                for (int i = 0; i < phiArgs[p].length; i++) {
+                    if (i > 0) out.append(", ");
+                    out.append(ir.name(phiArgs[p][i]));
+                }
+                out.append(")\n");
+            }
+            for (; k < cfg.end(b); k++) {
+                ir.print(k, out);
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    // Replaces the phis with copies and coalesces the copied operands; the
+    // Ir then holds ordinary code again
+    public void destruct() {
+        if (ir.size() == 0) return;
+        int[] phiTemps = new int[phiCount];
+        for (int p = 0; p < phiCount; p++) phiTemps[p] = ir.newTemp();
+        Code code = new Code(ir.size() + 2 * phiCount + 16);
+        // The start block's phis also take what control enters the program with
+        for (int p = firstPhi[0]; p >= 0; p = nextPhi[p]) {
+            code.add(Ir.COPY, phiTemps[p], phiOrigins[p], Ir.NONE);
+        }
+        for (int b = 0; b < cfg.size(); b++) {
+            int k = cfg.start(b);
+            for (; k < cfg.end(b) && ir.op(k) == Ir.LABEL; k++) code.add(ir, k);
+            for (int p = firstPhi[b]; p >= 0; p = nextPhi[p]) {
+                code.add(Ir.COPY, phiDests[p], phiTemps[p], Ir.NONE);
+            }
+            int last = cfg.end(b) - 1;
+            boolean jumpAtEnd = last >= k && Ir.isJump(ir.op(last));
+            for (; k < (jumpAtEnd ? last : cfg.end(b)); k++) code.add(ir, k);
+            // Copies into the successors' phis go before the jump that leaves
+            for (int i = 0; i < cfg.successorCount(b); i++) {
+                int s = cfg.successor(b, i);
+                int edge = cfg.predecessorIndex(b, i);
+                for (int p = firstPhi[s]; p >= 0; p = nextPhi[p]) {
+                    code.add(Ir.COPY, phiTemps[p], phiArgs[p][edge], Ir.NONE);
+                }
+            }
+            if (jumpAtEnd) code.add(ir, last);
+        }
+        // Control leaves the program only by running off the end of the code.
+        // Every variable is copied there, if only to itself, so coalescing
+        // sees it live up to the end.
+        for (int v = 0; v < originals; v++) {
+            if (ir.kind(v) == Ir.VARIABLE) code.add(Ir.COPY, v, exitVersions[v], Ir.NONE);
+        }
+        ir.setCode(code.ops, code.dests, code.src1s, code.src2s, code.size);
+        coalesce();
+    }
+
+    // Instructions being laid out anew
+    private static final class Code {
+        int[] ops;
+        int[] dests;
+        int[] src1s;
+        int[] src2s;
+        int size;
+
+        Code(int capacity) {
+            ops = new int[capacity];
+            dests = new int[capacity];
+            src1s = new int[capacity];
+            src2s = new int[capacity];
+        }
+
+        void add(Ir ir, int k) {
+            add(ir.op(k), ir.dest(k), ir.src1(k), ir.src2(k));
+        }
+
+        void add(int op, int dest, int src1, int src2) {
+            if (size == ops.length) {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                dests = Arrays.copyOf(dests, capacity);
+                src1s = Arrays.copyOf(src1s, capacity);
+                src2s = Arrays.copyOf(src2s, capacity);
+            }
+            ops[size] = op;
+            dests[size] = dest;
+            src1s[size] = src1;
+            src2s[size] = src2;
+            size++;
+        }
+    }
+
+    // Joins the two sides of each copy into one operand unless they
+    // interfere, then renames every operand to its class and drops the
+    // copies left copying an operand to itself
+    private void coalesce() {
+        Coalescing classes = new Coalescing(ir);
+        for (int k = 0; k < ir.size(); k++) {
+            if (ir.op(k) == Ir.COPY && renamable(ir.dest(k)) && renamable(ir.src1(k))) {
+                classes.join(ir.dest(k), ir.src1(k));
+            }
+        }
+        boolean[] removed = new boolean[ir.size()];
+        for (int k = 0; k < ir.size(); k++) {
+            int op = ir.op(k);
+            int dest = Ir.defines(op) ? classes.name(ir.dest(k)) : ir.dest(k);
+            int src1 = Ir.readsSrc1(op) ? classes.name(ir.src1(k)) : ir.src1(k);
+            int src2 = Ir.readsSrc2(op) ? classes.name(ir.src2(k)) : ir.src2(k);
+            ir.set(k, op, dest, src1, src2);
+            removed[k] = op == Ir.COPY && dest == src1;
+        }
+        ir.remove(removed);
+    }
+
+    // Union-find over operands whose classes each get one name, checked
+    // against an interference graph built once up front: an operand assigned
+    // interferes with every other operand live after the assignment, except
+    // the one a copy reads, and operands live where the program starts all
+    // interfere with each other. Two classes interfere when a member of one
+    // has a neighbour in the other, looked up from whichever class has fewer
+    // edges. A class holds at most one variable and is named after it, or
+    // else after its lowest operand.
+    private static final class Coalescing {
+        private final Ir ir;
+        private final int[] parent;
+        private final int[] nextMember; // circular list of each class's members
+        private final int[] lowest; // per class root, the operand naming the class
+        private final int[] degrees; // per class root, the edges of all its members
+        private final int[] edgeStarts; // per operand, its neighbours
+        private final int[] edges;
+
+        Coalescing(Ir ir) {
+            this.ir = ir;
+            int operands = ir.operandCount();
+            parent = new int[operands];
+            nextMember = new int[operands];
+            lowest = new int[operands];
+            degrees = new int[operands];
+            for (int v = 0; v < operands; v++) {
+                parent[v] = v;
+                nextMember[v] = v;
+                lowest[v] = v;
+            }
+            edgeStarts = new int[operands + 1];
+            edges = interferences(new Cfg(ir));
+            for (int v = 0; v < operands; v++) degrees[v] = edgeStarts[v + 1] - edgeStarts[v];
+        }
+
+        private boolean renamable(int operand) {
+            int kind = ir.kind(operand);
+            return kind == Ir.VARIABLE || kind == Ir.TEMP;
+        }
+
+        // Walks each block backward from the operands live out of it, counting
+        // the edges in the first pass and recording both ends of each in the
+        // second. Edges between two variables are left out since those never
+        // join anyway.
+        private int[] interferences(Cfg cfg) {
+            Liveness liveness = new Liveness(cfg, true);
+            int operands = ir.operandCount();
+            int blocks = cfg.size();
+            int[] liveStarts = new int[blocks + 1]; // per block, the operands live out of it
+            for (int v = 0; v < operands; v++) {
+                if (!renamable(v)) continue;
+                for (int i = 0; i < liveness.liveOutCount(v); i++) liveStarts[liveness.liveOutBlock(v, i) + 1]++;
+            }
+            for (int b = 0; b < blocks; b++) liveStarts[b + 1] += liveStarts[b];
+            int[] liveOut = new int[liveStarts[blocks]];
+            int[] fill = Arrays.copyOf(liveStarts, blocks);
+            for (int v = 0; v < operands; v++) {
+                if (!renamable(v)) continue;
+                for (int i = 0; i < liveness.liveOutCount(v); i++) liveOut[fill[liveness.liveOutBlock(v, i)]++] = v;
+            }
+
+            // The live operands as a sparse set: live[0..count) and their places in it
+            int[] live = new int[operands];
+            int[] places = new int[operands];
+            int[] list = new int[0];
+            for (int pass = 0; pass < 2; pass++) {
+                for (int b = 0; b < blocks; b++) {
+                    int count = 0;
+                    for (int i = liveStarts[b]; i < liveStarts[b + 1]; i++) count = include(liveOut[i], live, places, count);
+                    for (int k = cfg.end(b) - 1; k >= cfg.start(b); k--) {
+                        int op = ir.op(k);
+                        if (Ir.defines(op)) {
+                            int dest = ir.dest(k);
+                            int copied = op == Ir.COPY ? ir.src1(k) : Ir.NONE;
+                            for (int i = 0; i < count; i++) {
+                                int x = live[i];
+                                if (x != dest && x != copied) addEdge(dest, x, pass, list);
+                            }
+                            count = exclude(dest, live, places, count);
+                        }
+                        if (Ir.readsSrc1(op) && renamable(ir.src1(k))) count = include(ir.src1(k), live, places, count);
+                        if (Ir.readsSrc2(op) && renamable(ir.src2(k))) count = include(ir.src2(k), live, places, count);
+                    }
+                    if (b == 0) {
+                        for (int i = 0; i < count; i++) {
+                            for (int j = i + 1; j < count; j++) addEdge(live[i], live[j], pass, list);
+                        }
+                    }
+                    while (count > 0) count = exclude(live[count - 1], live, places, count);
+                }
+                if (pass == 0) {
+                    for (int v = 0; v < operands; v++) edgeStarts[v + 1] += edgeStarts[v];
+                    list = new int[edgeStarts[operands]];
+                }
+            }
+            // Recording moved each start up to the next operand's; shift them back
+            System.arraycopy(edgeStarts, 0, edgeStarts, 1, operands);
+            edgeStarts[0] = 0;
+            return list;
+        }
+
+        private void addEdge(int a, int b, int pass, int[] list) {
+            if (ir.kind(a) == Ir.VARIABLE && ir.kind(b) == Ir.VARIABLE) return;
+            if (pass == 0) {
+                edgeStarts[a + 1]++;
+                edgeStarts[b + 1]++;
+            } else {
+                list[edgeStarts[a]++] = b;
+                list[edgeStarts[b]++] = a;
+            }
+        }
+
+        private static int include(int v, int[] live, int[] places, int count) {
+            int place = places[v];
+            if (place < count && live[place] == v) return count;
+            live[count] = v;
+            places[v] = count;
+            return count + 1;
+        }
+
+        private static int exclude(int v, int[] live, int[] places, int count) {
+            int place = places[v];
+            if (place >= count || live[place] != v) return count;
+            int last = live[--count];
+            live[place] = last;
+            places[last] = place;
+            return count;
+        }
+
+        private int find(int v) {
+            while (parent[v] != v) {
+                parent[v] = parent[parent[v]];
+                v = parent[v];
+            }
+            return v;
+        }
+
+        int name(int v) {
+            return lowest[find(v)];
+        }
+
+        void join(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a == b) return;
+            boolean variableA = ir.kind(lowest[a]) == Ir.VARIABLE;
+            boolean variableB = ir.kind(lowest[b]) == Ir.VARIABLE;
+            if (variableA && variableB) return;
+            if (degrees[a] <= degrees[b] ? interferes(a, b) : interferes(b, a)) return;
+            parent[b] = a;
+            degrees[a] += degrees[b];
+            int next = nextMember[a];
+            nextMember[a] = nextMember[b];
+            nextMember[b] = next;
+            if (variableB || !variableA && lowest[b] < lowest[a]) lowest[a] = lowest[b];
+        }
+
+        // Whether a member of class a has a neighbour in class b
+        private boolean interferes(int a, int b) {
+            int m = a;
+            do {
+                for (int i = edgeStarts[m]; i < edgeStarts[m + 1]; i++) {
+                    if (find(edges[i]) == b) return true;
+                }
+                m = nextMember[m];
+            } while (m != a);
+            return false;
+        }
+    }
+}
@@ -1,16 +1,53 @@
 public class SymbolEntry {
     private String name;
     private String type;
+    private int nameId;
+    private int typeId;
+    private int declaration;
+    private String position;
+    private int depth;
+    private SymbolEntry shadows;
+    private String irName;
+    private int useCount;
     
     // Pratyush: Simplified constructor and getters
     public SymbolEntry(String name, String type) {
+        this(name, type, -1, SymbolTable.typeId(type), -1, "", 0, null, name);
+    }
+
+    public SymbolEntry(String name, String type, int nameId, int typeId, int declaration,
+                       String position, int depth, SymbolEntry shadows, String irName) {
         this.name = name;
         this.type = type;
+        this.nameId = nameId;
+        this.typeId = typeId;
+        this.declaration = declaration;
+        this.position = position;
+        this.depth = depth;
+        this.shadows = shadows;
+        this.irName = irName;
     }
     
     public String getName() { return name; }
     public String getType() { return type; }
+    public int getNameId() { return nameId; }
+    public int getTypeId() { return typeId; }
+    // Token index of the declared identifier
+    public int getDeclaration() { return declaration; }
+    public String getPosition() { return position; }
+    // 0 for the outermost scope
+    public int getDepth() { return depth; }
+    // The outer-scope symbol with the same name hidden by this one, or null
+    public SymbolEntry getShadows() { return shadows; }
+    // Name used in generated code; distinct from every other symbol's
+    public String getIrName() { return irName; }
+    public int getUseCount() { return useCount; }
+
+    void addUse() { useCount++; }
     
     // Nikhil: Added setter for type updates
-    public void setType(String type) { this.type = type; }
+    public void setType(String type) {
+        this.type = type;
+        this.typeId = SymbolTable.typeId(type);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+import java.util.*;
+
+// Declarations and name resolution for one version of the token buffer. A
+// single pass keeps a scope chain ('{' pushes, '}' pops, and a 'for' header
+// gets its own scope) and, per interned name id, the innermost visible
+// symbol, so every identifier token is resolved once and later phases just
+// look up resolve(tokenIndex).
+public class SymbolTable {
+    private static final String[] TYPES = {"int", "float", "double", "char", "boolean"};
+
+    private final List<SymbolEntry> symbols = new ArrayList<>();
+    private int[] symbolOf = new int[0]; // per token: symbol index, or -1
+    private BitSet declarations = new BitSet();
+
+    // Type id of a type keyword, or -1
+    public static int typeId(String keyword) {
+        for (int t = 0; t < TYPES.length; t++) {
+            if (TYPES[t].equals(keyword)) return t;
+        }
+        return -1;
+    }
+
+    public static String typeName(int typeId) {
+        return TYPES[typeId];
+    }
+
+    public void build(TokenBuffer tokens) {
+        symbols.clear();
+        declarations.clear();
+        int count = tokens.size();
+        if (symbolOf.length < count) symbolOf = new int[count];
+        Arrays.fill(symbolOf, 0, count, -1);
+
+        int[] binding = new int[tokens.names().size()]; // name id -> innermost visible symbol
+        Arrays.fill(binding, -1);
+        int[] hidden = new int[16];  // per symbol: the binding it replaced
+        int[] live = new int[16];    // visible symbols, innermost scope last
+        int liveCount = 0;
+        int[] scopeMark = new int[16]; // per open scope: liveCount when it opened
+        boolean[] forScope = new boolean[16];
+        int depth = 0;
+
+        for (int i = 0; i < count; i++) {
+            byte kind = tokens.kind(i);
+            if (kind == TokenKind.IDENTIFIER) {
+                int index = binding[tokens.id(i)];
+                if (index >= 0) {
+                    symbolOf[i] = index;
+                    symbols.get(index).addUse();
+                }
+            } else if (tokens.is(i, '{') || "for".equals(tokens.keyword(i))) {
+                if (++depth == scopeMark.length) {
+                    scopeMark = Arrays.copyOf(scopeMark, depth * 2);
+                    forScope = Arrays.copyOf(forScope, depth * 2);
+                }
+                scopeMark[depth] = liveCount;
+                forScope[depth] = kind == TokenKind.KEYWORD;
+            } else if (tokens.is(i, '}') && depth > 0) {
+                // The closing brace of a for body also ends the header's scope
+                do {
+                    while (liveCount > scopeMark[depth]) {
+                        int index = live[--liveCount];
+                        binding[symbols.get(index).getNameId()] = hidden[index];
+                    }
+                    depth--;
+                } while (depth > 0 && forScope[depth]);
+            } else if (kind == TokenKind.KEYWORD) {
+                int type = typeId(tokens.keyword(i));
+                if (type < 0 || i + 1 >= count || tokens.kind(i + 1) != TokenKind.IDENTIFIER) continue;
+                i++;
+                int id = tokens.id(i);
+                int outer = binding[id];
+                declarations.set(i);
+                if (outer >= 0 && symbols.get(outer).getDepth() == depth) {
+                    // Redeclared in the same scope: resolve to the first declaration
+                    symbolOf[i] = outer;
+                    continue;
+                }
+                int index = symbols.size();
+                SymbolEntry shadows = outer >= 0 ? symbols.get(outer) : null;
+                String name = tokens.text(i);
+                symbols.add(new SymbolEntry(name, TYPES[type], id, type, i, tokens.position(i),
+                    depth, shadows, shadows != null ? name + "$" + index : name));
+                if (index == hidden.length) hidden = Arrays.copyOf(hidden, index * 2);
+                if (liveCount == live.length) live = Arrays.copyOf(live, liveCount * 2);
+                hidden[index] = outer;
+                live[liveCount++] = index;
+                binding[id] = index;
+                symbolOf[i] = index;
+            }
+        }
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+
+    public SymbolEntry get(int index) {
+        return symbols.get(index);
+    }
+
+    public List<SymbolEntry> entries() {
+        return Collections.unmodifiableList(symbols);
+    }
+
+    // The symbol an identifier token refers to, or null if it is undeclared there
+    public SymbolEntry resolve(int tokenIndex) {
+        int index = indexOf(tokenIndex);
+        return index >= 0 ? symbols.get(index) : null;
+    }
+
+    // Index of the symbol an identifier token refers to, or -1; dense, for per-symbol bitsets
+    public int indexOf(int tokenIndex) {
+        return tokenIndex < symbolOf.length ? symbolOf[tokenIndex] : -1;
+    }
+
+    // True for the identifier token of a declaration; a redeclaration in the same
+    // scope resolves to a symbol whose getDeclaration() is another token
+    public boolean isDeclaration(int tokenIndex) {
+        return declarations.get(tokenIndex);
+    }
+}
@@ -1,17 +1,21 @@
-import java.util.List;
 import javax.swing.*;
 
 public class SymbolTableFrame extends JFrame {
-    public SymbolTableFrame(List<SymbolEntry> symbols) {
+    public SymbolTableFrame(SymbolTable symbols) {
         setTitle("Symbol Table");
-        setSize(400, 300);
+        setSize(500, 300);
 
-        String[] columns = {"Name", "Type"};
-        Object[][] data = new Object[symbols.size()][2];
+        String[] columns = {"Name", "Type", "Declared", "Scope", "Uses", "Shadows"};
+        Object[][] data = new Object[symbols.size()][columns.length];
 
         for (int i = 0; i < symbols.size(); i++) {
-            data[i][0] = symbols.get(i).getName();
-            data[i][1] = symbols.get(i).getType();
+            SymbolEntry symbol = symbols.get(i);
+            data[i][0] = symbol.getName();
+            data[i][1] = symbol.getType();
+            data[i][2] = symbol.getPosition();
+            data[i][3] = symbol.getDepth();
+            data[i][4] = symbol.getUseCount();
+            data[i][5] = symbol.getShadows() != null ? symbol.getShadows().getPosition() : "";
         }
 
         JTable table = new JTable(data, columns);
@@ -1,252 +1,122 @@
 import java.util.*;
 
+// Checks a parsed program in one forward walk over the tree. Every use of a
+// variable is looked up in the symbol table and marked in a bitset indexed by
+// symbol, so the walk reports every undeclared use, redeclaration and switch
+// without a case, then warns about declarations that are never read. Structural
+// errors are reported earlier by Parser into the same Diagnostics.
 public class SyntaxChecker {
-    private List<Token> tokens;
-    private Set<String> declaredVariables;
-    private StringBuilder errorMessages;
+    private TokenBuffer tokens;
+    private SymbolTable symbols;
+    private Diagnostics diagnostics;
+    private int base; // shift of the current top-level statement, added to token indices from the tree
+    private final BitSet read = new BitSet();
 
-    public SyntaxChecker() {
-        declaredVariables = new HashSet<>();
-        errorMessages = new StringBuilder();
-    }
-
-    public boolean checkSyntax(List<Token> tokens) {
+    // 'program' and 'symbols' must have been built from the same tokens. Throws
+    // only when the diagnostics' error cap is reached.
+    public void checkSyntax(Ast.Program program, TokenBuffer tokens, SymbolTable symbols, Diagnostics diagnostics) throws SyntaxError {
         this.tokens = tokens;
-        declaredVariables.clear();
-        errorMessages.setLength(0);
+        this.symbols = symbols;
+        this.diagnostics = diagnostics;
+        read.clear();
 
-        if (tokens == null || tokens.isEmpty()) {
-            errorMessages.append("No tokens to analyze.\n");
-            return false;
+        if (tokens.isEmpty()) {
+            diagnostics.error("no-tokens", -1, "No tokens to analyze");
+            return;
         }
 
-        // Check overall structure
-        boolean isValid = checkBraces() && checkParentheses() && checkControlStructures() && checkVariableUsage();
-        return isValid;
-    }
-
-    public String getErrors() {
-        return errorMessages.toString().isEmpty() ? "No syntax errors found." : errorMessages.toString();
-    }
-
-    private boolean checkBraces() {
-        int braceCount = 0;
-        for (Token token : tokens) {
-            String value = token.getValue();
-            if (value.equals("{")) braceCount++;
-            else if (value.equals("}")) braceCount--;
-            if (braceCount < 0) {
-                errorMessages.append("Mismatched closing brace '}'.\n");
-                return false;
-            }
+        List<Ast.Stmt> statements = program.statements();
+        for (int k = 0; k < statements.size(); k++) {
+            base = program.shift(k);
+            checkStatement(statements.get(k));
         }
-        if (braceCount != 0) {
-            errorMessages.append("Unmatched opening brace '{'.\n");
-            return false;
+        for (int s = read.nextClearBit(0); s < symbols.size(); s = read.nextClearBit(s + 1)) {
+            SymbolEntry symbol = symbols.get(s);
+            diagnostics.warning("unused", symbol.getDeclaration(), "Variable '" + symbol.getName() + "' is never used");
         }
-        return true;
     }
 
-    private boolean checkParentheses() {
-        int parenCount = 0;
-        for (Token token : tokens) {
-            String value = token.getValue();
-            if (value.equals("(")) parenCount++;
-            else if (value.equals(")")) parenCount--;
-            if (parenCount < 0) {
-                errorMessages.append("Mismatched closing parenthesis ')'.\n");
-                return false;
-            }
-        }
-        if (parenCount != 0) {
-            errorMessages.append("Unmatched opening parenthesis '('.\n");
-            return false;
-        }
-        return true;
-    }
-
-    private boolean checkControlStructures() {
-        boolean valid = true;
-        for (int i = 0; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-            if (token.getType().equals("KEYWORD")) {
-                String value = token.getValue();
-                if (value.equals("if")) {
-                    valid &= checkIfStatement(i);
-                } else if (value.equals("while")) {
-                    valid &= checkWhileStatement(i);
-                } else if (value.equals("for")) {
-                    valid &= checkForStatement(i);
-                } else if (value.equals("switch")) {
-                    valid &= checkSwitchStatement(i);
-                } else if (value.matches("int|float|double|char|boolean")) {
-                    valid &= checkVariableDeclaration(i);
+    // Nested statements wait on an explicit stack, pushed in reverse so they are
+    // still checked in source order, however deeply they nest
+    private void checkStatement(Ast.Stmt root) throws SyntaxError {
+        Deque<Ast.Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Ast.Node node = pending.pop();
+            if (node instanceof Ast.Declaration d) {
+                checkDeclaration(d, false);
+            } else if (node instanceof Ast.Assignment a) {
+                checkAssignment(a, false);
+            } else if (node instanceof Ast.Block b) {
+                pushAll(b.statements(), pending);
+            } else if (node instanceof Ast.If s) {
+                // Identifiers in control structure headers may be undeclared
+                checkExpression(s.condition(), true);
+                if (s.otherwise() != null) pending.push(s.otherwise());
+                pushAll(s.then().statements(), pending);
+            } else if (node instanceof Ast.While s) {
+                checkExpression(s.condition(), true);
+                pushAll(s.body().statements(), pending);
+            } else if (node instanceof Ast.For s) {
+                if (s.init() instanceof Ast.Declaration d) {
+                    checkDeclaration(d, true);
+                } else if (s.init() != null) {
+                    checkAssignment((Ast.Assignment) s.init(), true);
+                }
+                if (s.condition() != null) checkExpression(s.condition(), false);
+                if (s.update() != null) checkAssignment(s.update(), false);
+                pushAll(s.body().statements(), pending);
+            } else if (node instanceof Ast.Switch s) {
+                checkExpression(s.selector(), true);
+                if (s.cases().isEmpty()) {
+                    diagnostics.error("empty-switch", base + s.first(), "'switch' statement must contain at least one 'case' or 'default'");
                 }
+                pushAll(s.cases(), pending);
+            } else if (node instanceof Ast.Case c) {
+                if (c.value() >= 0 && tokens.kind(base + c.value()) == TokenKind.IDENTIFIER) {
+                    checkUse(base + c.value(), false, true);
+                }
+                pushAll(c.body(), pending);
             }
         }
-        return valid;
     }
 
-    private boolean checkIfStatement(int index) {
-        if (index + 1 >= tokens.size() || !tokens.get(index + 1).getValue().equals("(")) {
-            errorMessages.append("Expected '(' after 'if' at token " + index + ".\n");
-            return false;
-        }
-        int parenCount = 1;
-        index += 2;
-        while (index < tokens.size() && parenCount > 0) {
-            String value = tokens.get(index).getValue();
-            if (value.equals("(")) parenCount++;
-            else if (value.equals(")")) parenCount--;
-            index++;
+    private static void pushAll(List<? extends Ast.Node> nodes, Deque<Ast.Node> pending) {
+        for (int k = nodes.size() - 1; k >= 0; k--) {
+            pending.push(nodes.get(k));
         }
-        if (parenCount > 0) {
-            errorMessages.append("Unclosed parenthesis in 'if' condition.\n");
-            return false;
-        }
-        if (index >= tokens.size() || !tokens.get(index).getValue().equals("{")) {
-            errorMessages.append("Expected '{' after 'if' condition.\n");
-            return false;
-        }
-        return true;
     }
 
-    private boolean checkWhileStatement(int index) {
-        if (index + 1 >= tokens.size() || !tokens.get(index + 1).getValue().equals("(")) {
-            errorMessages.append("Expected '(' after 'while' at token " + index + ".\n");
-            return false;
-        }
-        int parenCount = 1;
-        index += 2;
-        while (index < tokens.size() && parenCount > 0) {
-            String value = tokens.get(index).getValue();
-            if (value.equals("(")) parenCount++;
-            else if (value.equals(")")) parenCount--;
-            index++;
-        }
-        if (parenCount > 0) {
-            errorMessages.append("Unclosed parenthesis in 'while' condition.\n");
-            return false;
+    private void checkDeclaration(Ast.Declaration d, boolean inHeader) throws SyntaxError {
+        int name = base + d.name();
+        SymbolEntry symbol = symbols.resolve(name);
+        if (symbol != null && symbol.getDeclaration() != name) {
+            diagnostics.error("redeclared", name, "Variable '" + tokens.text(name) + "' is already declared in this scope (first at " + symbol.getPosition() + ")");
         }
-        if (index >= tokens.size() || !tokens.get(index).getValue().equals("{")) {
-            errorMessages.append("Expected '{' after 'while' condition.\n");
-            return false;
-        }
-        return true;
+        if (d.init() != null) checkExpression(d.init(), inHeader);
     }
 
-    private boolean checkForStatement(int index) {
-        if (index + 1 >= tokens.size() || !tokens.get(index + 1).getValue().equals("(")) {
-            errorMessages.append("Expected '(' after 'for' at token " + index + ".\n");
-            return false;
-        }
-        int parenCount = 1;
-        int semicolons = 0;
-        index += 2;
-        while (index < tokens.size() && parenCount > 0) {
-            String value = tokens.get(index).getValue();
-            if (value.equals("(")) parenCount++;
-            else if (value.equals(")")) parenCount--;
-            else if (value.equals(";")) semicolons++;
-            index++;
-        }
-        if (parenCount > 0) {
-            errorMessages.append("Unclosed parenthesis in 'for' loop.\n");
-            return false;
-        }
-        if (semicolons != 2) {
-            errorMessages.append("Expected exactly two semicolons in 'for' loop declaration.\n");
-            return false;
-        }
-        if (index >= tokens.size() || !tokens.get(index).getValue().equals("{")) {
-            errorMessages.append("Expected '{' after 'for' loop.\n");
-            return false;
-        }
-        return true;
-    }
-
-    private boolean checkSwitchStatement(int index) {
-        if (index + 1 >= tokens.size() || !tokens.get(index + 1).getValue().equals("(")) {
-            errorMessages.append("Expected '(' after 'switch' at token " + index + ".\n");
-            return false;
-        }
-        int parenCount = 1;
-        index += 2;
-        while (index < tokens.size() && parenCount > 0) {
-            String value = tokens.get(index).getValue();
-            if (value.equals("(")) parenCount++;
-            else if (value.equals(")")) parenCount--;
-            index++;
-        }
-        if (parenCount > 0) {
-            errorMessages.append("Unclosed parenthesis in 'switch' expression.\n");
-            return false;
-        }
-        if (index >= tokens.size() || !tokens.get(index).getValue().equals("{")) {
-            errorMessages.append("Expected '{' after 'switch' expression.\n");
-            return false;
-        }
-        // Check for case/default statements
-        boolean hasCase = false;
-        while (index < tokens.size() && !tokens.get(index).getValue().equals("}")) {
-            if (tokens.get(index).getValue().equals("case") || tokens.get(index).getValue().equals("default")) {
-                hasCase = true;
-                if (tokens.get(index).getValue().equals("case")) {
-                    index++;
-                    if (index >= tokens.size() || (!tokens.get(index).getType().equals("NUMBER") && !tokens.get(index).getType().equals("IDENTIFIER"))) {
-                        errorMessages.append("Expected constant or identifier after 'case'.\n");
-                        return false;
-                    }
-                    index++;
-                    if (index >= tokens.size() || !tokens.get(index).getValue().equals(":")) {
-                        errorMessages.append("Expected ':' after 'case' value.\n");
-                        return false;
-                    }
-                }
-            }
-            index++;
-        }
-        if (!hasCase) {
-            errorMessages.append("'switch' statement must contain at least one 'case' or 'default'.\n");
-            return false;
-        }
-        return true;
+    private void checkAssignment(Ast.Assignment a, boolean inHeader) throws SyntaxError {
+        checkUse(base + a.name(), inHeader, false);
+        checkExpression(a.value(), inHeader);
     }
 
-    private boolean checkVariableDeclaration(int index) {
-        if (index + 1 >= tokens.size() || !tokens.get(index + 1).getType().equals("IDENTIFIER")) {
-            errorMessages.append("Expected identifier after type at token " + index + ".\n");
-            return false;
+    // Every identifier token inside an expression is a read; walking the token
+    // span instead of the tree keeps long operator chains off the call stack.
+    // An Ast.Invalid header is already reported and is skipped.
+    private void checkExpression(Ast.Expr expr, boolean inHeader) throws SyntaxError {
+        if (expr instanceof Ast.Invalid) return;
+        for (int i = base + expr.first(); i < base + expr.end(); i++) {
+            if (tokens.kind(i) == TokenKind.IDENTIFIER) checkUse(i, inHeader, true);
         }
-        String varName = tokens.get(index + 1).getValue();
-        declaredVariables.add(varName);
-        return true;
     }
 
-    private boolean checkVariableUsage() {
-        for (int i = 0; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-            if (token.getType().equals("IDENTIFIER")) {
-                String varName = token.getValue();
-                if (!declaredVariables.contains(varName)) {
-                    // Allow identifiers in for loop conditions or switch expressions
-                    boolean isInControlStructure = false;
-                    for (int j = i - 1; j >= 0; j--) {
-                        if (tokens.get(j).getValue().matches("for|switch|if|while")) {
-                            isInControlStructure = true;
-                            break;
-                        }
-                        if (tokens.get(j).getValue().equals(";") || tokens.get(j).getValue().equals("{")) {
-                            break;
-                        }
-                    }
-                    if (!isInControlStructure) {
-                        errorMessages.append("Undeclared variable '" + varName + "' used.\n");
-                        return false;
-                    }
-                }
-            }
+    private void checkUse(int token, boolean inHeader, boolean isRead) throws SyntaxError {
+        int symbol = symbols.indexOf(token);
+        if (symbol >= 0) {
+            if (isRead) read.set(symbol);
+        } else if (!inHeader) {
+            diagnostics.error("undeclared", token, "Undeclared variable '" + tokens.text(token) + "'");
         }
-        return true;
     }
 }
\ No newline at end of file
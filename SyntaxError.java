@@ -1,5 +1,20 @@
+// Thrown only for fatal cases, such as reaching the error cap; ordinary errors
+// are collected as Diagnostic entries so a compile can report all of them.
 public class SyntaxError extends Exception {
+    private final int token;
+
     public SyntaxError() {
         super("Syntax error encountered.");
+        this.token = -1;
+    }
+
+    public SyntaxError(String message, int token) {
+        super(message);
+        this.token = token;
+    }
+
+    // Index of the offending token, or -1
+    public int getToken() {
+        return token;
     }
 }
\ No newline at end of file
@@ -1,342 +1,420 @@
 import java.util.*;
 
-public class TACGenerator {
-    private int labelCount = 1;
-    private int tempCount = 1;
+// Quadruple IR (see Ir) from the syntax tree. Assignments are flattened into
+// temporaries with constant arithmetic folded, and conditions become
+// compare-and-branch instructions on their evaluated operands, with '&&' and
+// '||' short-circuiting through the branches instead of computing booleans.
+// Values are typed as Java types them, the same as in BytecodeGenerator:
+// arithmetic on ints uses the int operators, a float result is rounded to
+// float, and a value stored into a variable is converted to its type.
+public class TACGenerator extends TreeWalker {
+    private Ir ir;
+    private SymbolTable symbols;
+    private PrecedenceClimber climber;
+    private int[] variableOf = new int[0]; // per symbol: its operand + 1, 0 before its first use
+    private Map<String, Integer> kindsByIrName; // made on the first undeclared name
+    // Runs of '&&' or '||' being generated, innermost last: the temporary
+    // for the result and the label the branches skip to
+    private int[] chainTemps = new int[16];
+    private int[] chainLabels = new int[16];
+    private int chainCount;
 
-    private String newLabel() {
-        return "L" + labelCount++;
+    // 'program' and 'symbols' must have been built from the same tokens, and
+    // the program must be free of errors
+    public Ir generate(Ast.Program program, TokenBuffer tokens, SymbolTable symbols) {
+        this.ir = new Ir();
+        this.tokens = tokens;
+        this.symbols = symbols;
+        variableOf = new int[symbols.size()];
+        kindsByIrName = null;
+        chainCount = 0;
+        climber = new PrecedenceClimber(new Expressions(), tokens);
+        generateStatements(program);
+        return ir;
     }
 
-    private String newTemp() {
-        return "t" + tempCount++;
+    // Operand of an operand token from the tree. Resolved variables use their
+    // symbol's IR name, so a shadowing declaration gets its own variable.
+    private int operand(int i) {
+        int token = base + i;
+        byte kind = tokens.kind(token);
+        if (kind == TokenKind.NUMBER) return ir.constant(tokens.source(), tokens.start(token), tokens.end(token));
+        if (kind == TokenKind.STRING_LITERAL) return ir.string(tokens.text(token));
+        int symbol = symbols.indexOf(token);
+        if (symbol < 0) return ir.variable(tokens.text(token));
+        if (variableOf[symbol] == 0) variableOf[symbol] = ir.variable(symbols.get(symbol).getIrName()) + 1;
+        return variableOf[symbol] - 1;
     }
 
-    public String generate(List<Token> tokens) {
-        if (tokens == null || tokens.isEmpty()) {
-            return "No tokens provided.";
+    // Opcode of a binary operator token from the tree
+    private int operator(int i) {
+        int token = base + i;
+        int start = tokens.start(token);
+        char c = tokens.source().charAt(start);
+        if (tokens.end(token) - start == 2) {
+            return switch (c) {
+                case '<' -> Ir.LE;
+                case '>' -> Ir.GE;
+                case '=' -> Ir.EQ;
+                default -> Ir.NE;
+            };
         }
+        return switch (c) {
+            case '+' -> Ir.ADD;
+            case '-' -> Ir.SUB;
+            case '*' -> Ir.MUL;
+            case '/' -> Ir.DIV;
+            case '<' -> Ir.LT;
+            default -> Ir.GT;
+        };
+    }
 
-        StringBuilder code = new StringBuilder();
-        int i = 0;
-
-        while (i < tokens.size()) {
-            Token token = tokens.get(i);
-            String type = token.getType();
-            String value = token.getValue();
-
-            if (type.equals("KEYWORD")) {
-                if (value.equals("for")) {
-                    i = handleForLoop(tokens, i, code);
-                } else if (value.equals("if")) {
-                    i = handleIfStatement(tokens, i, code);
-                } else if (value.equals("while")) {
-                    i = handleWhileLoop(tokens, i, code);
-                } else if (value.equals("switch")) {
-                    i = handleSwitchStatement(tokens, i, code);
-                } else {
-                    i++;
-                }
-            } else if (type.equals("OPERATOR") && value.equals("=")) {
-                i = handleAssignment(tokens, i, code);
-            } else {
-                i++;
+    // Kind of an identifier token from the tree. An undeclared name is a
+    // double unless it is some symbol's IR name, whose variable it shares.
+    private int variableKind(int i) {
+        int symbol = symbols.indexOf(base + i);
+        if (symbol >= 0) return PrecedenceClimber.kindOf(symbols.get(symbol));
+        if (kindsByIrName == null) {
+            kindsByIrName = new HashMap<>();
+            for (int s = 0; s < symbols.size(); s++) {
+                kindsByIrName.put(symbols.get(s).getIrName(), PrecedenceClimber.kindOf(symbols.get(s)));
             }
         }
+        return kindsByIrName.getOrDefault(tokens.text(base + i), PrecedenceClimber.DOUBLE);
+    }
 
-        return code.length() == 0 ? "No valid expressions found." : code.toString();
+    @Override
+    protected void assign(int name, Ast.Expr value) {
+        int result = generateExpression(value);
+        result = convert(result, climber.kind(), variableKind(name));
+        ir.emit(Ir.COPY, operand(name), result, Ir.NONE);
     }
 
-    private int handleAssignment(List<Token> tokens, int i, StringBuilder code) {
-        if (i - 1 < 0 || i + 1 >= tokens.size() || !tokens.get(i - 1).getType().equals("IDENTIFIER")) {
-            code.append("Error: Invalid assignment at token ").append(i).append("\n");
-            return i + 1;
+    // 'operand' of kind 'from' as kind 'to', as a Java cast converts it.
+    // Nothing is lost widening to double.
+    private int convert(int operand, int from, int to) {
+        if (from == to || to == PrecedenceClimber.DOUBLE) return operand;
+        return unary(to == PrecedenceClimber.INT ? Ir.TO_INT : Ir.TO_FLOAT, operand);
+    }
+
+    // 'op' applied to 'operand', folded when it is a constant
+    private int unary(int op, int operand) {
+        if (ir.isConstant(operand)) {
+            double value = Ir.evaluate(op, ir.value(operand), 0);
+            return Double.compare(value, ir.value(operand)) == 0 ? operand : ir.constant(value);
         }
-        String left = tokens.get(i - 1).getValue();
-        List<String> expression = new ArrayList<>();
-        int j = i + 1;
-        while (j < tokens.size() && !tokens.get(j).getValue().equals(";")) {
-            expression.add(tokens.get(j).getValue());
-            j++;
+        int temp = ir.newTemp();
+        ir.emit(op, temp, operand, Ir.NONE);
+        return temp;
+    }
+
+    // Operators that could not be folded get one temporary each. Returns the
+    // result operand.
+    private int generateExpression(Ast.Expr expr) {
+        return climber.generate(expr, base);
+    }
+
+    private final class Expressions implements PrecedenceClimber.Target {
+        @Override
+        public int variableKind(int i) {
+            return TACGenerator.this.variableKind(i);
         }
-        if (expression.isEmpty()) {
-            code.append("Error: Empty expression in assignment at token ").append(i).append("\n");
-            return j;
+
+        @Override
+        public int operand(int i) {
+            return TACGenerator.this.operand(i);
         }
-        List<String> postfix = toPostfix(expression);
-        if (postfix.isEmpty()) {
-            code.append("Error: Invalid expression in assignment at token ").append(i).append("\n");
-            return j;
+
+        @Override
+        public int widen(int value, int from, int to) {
+            return convert(value, from, to);
         }
-        String result = evaluatePostfix(postfix, code);
-        if (result != null) {
-            code.append(left).append(" = ").append(result).append("\n");
+
+        // Negating a constant is folded
+        @Override
+        public int unary(int operator, int operand, int kind) {
+            if (tokens.is(base + operator, '-')) {
+                return TACGenerator.this.unary(kind == PrecedenceClimber.INT ? Ir.INEG : Ir.NEG, operand);
+            }
+            int temp = ir.newTemp();
+            ir.emit(Ir.NOT, temp, operand, Ir.NONE);
+            return temp;
         }
-        return j + 1;
-    }
 
-    private List<String> toPostfix(List<String> expression) {
-        List<String> postfix = new ArrayList<>();
-        Deque<String> stack = new ArrayDeque<>();
-        Map<String, Integer> precedence = new HashMap<>();
-        precedence.put("+", 1);
-        precedence.put("-", 1);
-        precedence.put("*", 2);
-        precedence.put("/", 2);
-
-        for (String token : expression) {
-            if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*|[0-9]+(\\.[0-9]+)?")) {
-                postfix.add(token);
-            } else if (precedence.containsKey(token)) {
-                while (!stack.isEmpty() && precedence.getOrDefault(stack.peek(), 0) >= precedence.get(token)) {
-                    postfix.add(stack.pop());
-                }
-                stack.push(token);
-            } else if (token.equals("(")) {
-                stack.push(token);
-            } else if (token.equals(")")) {
-                while (!stack.isEmpty() && !stack.peek().equals("(")) {
-                    postfix.add(stack.pop());
-                }
-                if (!stack.isEmpty() && stack.peek().equals("(")) {
-                    stack.pop();
-                } else {
-                    return new ArrayList<>(); // Mismatched parentheses
-                }
+        // Arithmetic on two constants is folded, except a division by zero,
+        // which is left for run time. Float arithmetic is done in doubles and
+        // rounded, which gives the float result.
+        @Override
+        public int binary(int operator, int left, int right, int kind) {
+            int op = TACGenerator.this.operator(operator);
+            if (Ir.isRelational(op)) {
+                int temp = ir.newTemp();
+                ir.emit(op, temp, left, right);
+                return temp;
             }
+            if (kind == PrecedenceClimber.INT) op += Ir.IADD - Ir.ADD;
+            int result;
+            boolean overZero = (op == Ir.DIV || op == Ir.IDIV) && ir.isConstant(right) && ir.value(right) == 0;
+            if (ir.isConstant(left) && ir.isConstant(right) && !overZero) {
+                result = ir.constant(Ir.evaluate(op, ir.value(left), ir.value(right)));
+            } else {
+                result = ir.newTemp();
+                ir.emit(op, result, left, right);
+            }
+            return kind == PrecedenceClimber.FLOAT ? convert(result, PrecedenceClimber.DOUBLE, kind) : result;
         }
-        while (!stack.isEmpty()) {
-            String op = stack.pop();
-            if (op.equals("(") || op.equals(")")) {
-                return new ArrayList<>(); // Mismatched parentheses
+
+        // The result starts as the value the run has if it stops early
+        @Override
+        public int startLogical(boolean and) {
+            if (chainCount == chainTemps.length) {
+                chainTemps = Arrays.copyOf(chainTemps, chainCount * 2);
+                chainLabels = Arrays.copyOf(chainLabels, chainCount * 2);
             }
-            postfix.add(op);
+            int temp = ir.newTemp();
+            ir.emit(Ir.COPY, temp, ir.constant(and ? "0" : "1"), Ir.NONE);
+            chainTemps[chainCount] = temp;
+            chainLabels[chainCount] = ir.newLabel();
+            return chainCount++;
+        }
+
+        @Override
+        public void logicalOperand(boolean and, int value, int kind, int chain) {
+            ir.emit(and ? Ir.IF_FALSE : Ir.IF, chainLabels[chain], value, Ir.NONE);
+        }
+
+        @Override
+        public int endLogical(boolean and, int value, int kind, int chain) {
+            int temp = chainTemps[chain];
+            ir.emit(and ? Ir.IF_FALSE : Ir.IF, chainLabels[chain], value, Ir.NONE);
+            ir.emit(Ir.COPY, temp, ir.constant(and ? "1" : "0"), Ir.NONE);
+            ir.emit(Ir.LABEL, chainLabels[chain], Ir.NONE, Ir.NONE);
+            chainCount--;
+            return temp;
         }
-        return postfix;
     }
 
-    private String evaluatePostfix(List<String> postfix, StringBuilder code) {
-        Deque<String> stack = new ArrayDeque<>();
-        for (String token : postfix) {
-            if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*|[0-9]+(\\.[0-9]+)?")) {
-                stack.push(token);
-            } else if ("+-*/".contains(token)) {
-                if (stack.size() < 2) {
-                    code.append("Error: Invalid expression, insufficient operands for ").append(token).append("\n");
-                    return null;
-                }
-                String op2 = stack.pop();
-                String op1 = stack.pop();
-                if (op1.matches("[0-9]+(\\.[0-9]+)?") && op2.matches("[0-9]+(\\.[0-9]+)?")) {
-                    try {
-                        double num1 = Double.parseDouble(op1);
-                        double num2 = Double.parseDouble(op2);
-                        double result = switch (token) {
-                            case "+" -> num1 + num2;
-                            case "-" -> num1 - num2;
-                            case "*" -> num1 * num2;
-                            case "/" -> {
-                                if (num2 == 0) {
-                                    code.append("Error: Division by zero\n");
-                                    yield 0;
-                                }
-                                yield num1 / num2;
-                            }
-                            default -> 0.0;
-                        };
-                        stack.push(String.valueOf(result));
-                    } catch (NumberFormatException e) {
-                        code.append("Error: Invalid number format in expression\n");
-                        return null;
-                    }
+    @Override
+    protected void jumpUnless(Ast.Expr condition, int label) {
+        patch(jumps(condition, false), label);
+    }
+
+    // A condition to branch on: jump when it is 'whenTrue', fall through otherwise
+    private record Condition(Ast.Expr expr, boolean whenTrue) {
+    }
+
+    // Combines the jumps of the two operands of '&&' or '||' once both are
+    // generated. With 'skip' the first operand's jumps go past the second, to
+    // a label placed here; otherwise both lists jump to the same target.
+    private record Join(boolean skip) {
+    }
+
+    // Branches for 'root', jumping when it is 'whenTrue'. A comparison becomes
+    // a single compare-and-branch on its two operands and '!' swaps the sense.
+    // 'a && b' jumps past b as soon as a is false, 'a || b' as soon as a is
+    // true. The jumps are returned as a list to backpatch, threaded through
+    // their label fields from the first emitted and ending in NONE.
+    private int jumps(Ast.Expr root, boolean whenTrue) {
+        Deque<Object> work = new ArrayDeque<>();
+        // Jump lists of conditions done, by first and last jump
+        int[] heads = new int[8];
+        int[] tails = new int[8];
+        int count = 0;
+        work.push(new Condition(root, whenTrue));
+        while (!work.isEmpty()) {
+            Object item = work.pop();
+            if (item instanceof Join j) {
+                count--;
+                if (j.skip()) {
+                    int label = ir.newLabel();
+                    ir.emit(Ir.LABEL, label, Ir.NONE, Ir.NONE);
+                    patch(heads[count - 1], label);
+                    heads[count - 1] = heads[count];
                 } else {
-                    String temp = newTemp();
-                    code.append(temp).append(" = ").append(op1).append(" ").append(token).append(" ").append(op2).append("\n");
-                    stack.push(temp);
+                    int last = tails[count - 1];
+                    ir.set(last, ir.op(last), heads[count], ir.src1(last), ir.src2(last));
                 }
+                tails[count - 1] = tails[count];
+                continue;
+            }
+            Condition c = (Condition) item;
+            Ast.Expr expr = c.expr();
+            while (expr instanceof Ast.Parens p) expr = p.inner();
+            if (expr instanceof Ast.Unary u && tokens.is(base + u.operator(), '!')) {
+                work.push(new Condition(u.operand(), !c.whenTrue()));
+            } else if (expr instanceof Ast.Binary b && isLogical(b)) {
+                boolean skip = tokens.textEquals(base + b.operator(), "&&") == c.whenTrue();
+                work.push(new Join(skip));
+                work.push(new Condition(b.right(), c.whenTrue()));
+                work.push(new Condition(b.left(), skip != c.whenTrue()));
+            } else {
+                if (count == heads.length) {
+                    heads = Arrays.copyOf(heads, count * 2);
+                    tails = Arrays.copyOf(tails, count * 2);
+                }
+                int jump = branch(expr, c.whenTrue());
+                heads[count] = jump;
+                tails[count++] = jump;
             }
         }
-        if (stack.size() != 1) {
-            code.append("Error: Invalid expression structure\n");
-            return null;
-        }
-        return stack.pop();
+        return heads[0];
     }
 
-    private int handleForLoop(List<Token> tokens, int i, StringBuilder code) {
-        i += 2; // Skip 'for' and '('
-        StringBuilder init = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(";")) {
-            init.append(tokens.get(i).getValue()).append(" ");
-            i++;
-        }
-        i++; // Skip ';'
-        StringBuilder cond = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(";")) {
-            cond.append(tokens.get(i).getValue()).append(" ");
-            i++;
-        }
-        i++; // Skip ';'
-        StringBuilder incr = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-            incr.append(tokens.get(i).getValue()).append(" ");
-            i++;
-        }
-        i++; // Skip ')'
-        String labelLoop = newLabel();
-        String labelEnd = newLabel();
-        if (init.length() > 0) {
-            code.append(init.toString().trim()).append("\n");
-        }
-        code.append(labelLoop).append(":\n");
-        if (cond.length() > 0) {
-            code.append("ifFalse ").append(cond.toString().trim()).append(" goto ").append(labelEnd).append("\n");
-        }
-        if (i < tokens.size() && tokens.get(i).getValue().equals("{")) {
-            i++;
-            while (i < tokens.size() && !tokens.get(i).getValue().equals("}")) {
-                i = processStatement(tokens, i, code);
+    // One jump, not yet given its label, taken when 'expr' is 'whenTrue'.
+    // The two sides of a comparison are widened to the wider of their kinds.
+    private int branch(Ast.Expr expr, boolean whenTrue) {
+        if (expr instanceof Ast.Binary b) {
+            int op = operator(b.operator());
+            if (Ir.isRelational(op)) {
+                int left = generateExpression(b.left());
+                int leftKind = climber.kind();
+                int right = generateExpression(b.right());
+                int rightKind = climber.kind();
+                int kind = Math.max(leftKind, rightKind);
+                left = convert(left, leftKind, kind);
+                right = convert(right, rightKind, kind);
+                return ir.emit(Ir.branch(op, whenTrue), Ir.NONE, left, right);
             }
-            i++;
-        }
-        if (incr.length() > 0) {
-            code.append(incr.toString().trim()).append("\n");
         }
-        code.append("goto ").append(labelLoop).append("\n").append(labelEnd).append(":\n");
-        return i;
+        return ir.emit(whenTrue ? Ir.IF : Ir.IF_FALSE, Ir.NONE, generateExpression(expr), Ir.NONE);
     }
 
-    private int handleIfStatement(List<Token> tokens, int i, StringBuilder code) {
-        i += 2; // Skip 'if' and '('
-        StringBuilder cond = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-            cond.append(tokens.get(i).getValue()).append(" ");
-            i++;
+    // Points every jump on the list at 'label'
+    private void patch(int list, int label) {
+        for (int k = list; k != Ir.NONE; ) {
+            int next = ir.dest(k);
+            ir.set(k, ir.op(k), label, ir.src1(k), ir.src2(k));
+            k = next;
         }
-        i++; // Skip ')'
-        String labelEnd = newLabel();
-        String labelElse = newLabel();
-        code.append("ifFalse ").append(cond.toString().trim()).append(" goto ").append(labelElse).append("\n");
-        if (i < tokens.size() && tokens.get(i).getValue().equals("{")) {
-            i++;
-            while (i < tokens.size() && !tokens.get(i).getValue().equals("}")) {
-                i = processStatement(tokens, i, code);
+    }
+
+    @Override
+    protected int newLabel() {
+        return ir.newLabel();
+    }
+
+    @Override
+    protected void placeLabel(int label) {
+        ir.emit(Ir.LABEL, label, Ir.NONE, Ir.NONE);
+    }
+
+    @Override
+    protected void jumpTo(int label) {
+        ir.emit(Ir.GOTO, label, Ir.NONE, Ir.NONE);
+    }
+
+    @Override
+    protected void loopBack(int label) {
+        jumpTo(label);
+    }
+
+    // Fewer distinct case values than this are tested one by one
+    private static final int MIN_SEARCH_CASES = 4;
+    // A jump table must have at least this share of its slots taken by cases
+    private static final int MIN_TABLE_DENSITY_PERCENT = 40;
+
+    // With enough constant case values, dense integers go through a jump
+    // table and anything else through a binary search on the sorted values. A
+    // case on a variable keeps the tests in source order, where the first
+    // match wins. Each test widens the selector or the case value as a
+    // comparison would.
+    @Override
+    protected void dispatch(Ast.Switch s, int[] caseLabels, int defaultLabel) {
+        int selector = generateExpression(s.selector());
+        int selectorKind = climber.kind();
+        int floatSelector = Ir.NONE; // an int selector as a float, made for the first float case
+        List<Ast.Case> cases = s.cases();
+        // Case value operands, the selector each is tested against and the
+        // labels they go to, 'default' left out
+        int[] values = new int[caseLabels.length];
+        int[] selectors = new int[caseLabels.length];
+        int[] targets = new int[caseLabels.length];
+        int count = 0;
+        boolean constant = true;
+        for (int k = 0; k < caseLabels.length; k++) {
+            Ast.Case c = cases.get(k);
+            if (c.value() < 0) continue;
+            int value = operand(c.value());
+            int kind = climber.operandKind(c.value(), base);
+            selectors[count] = selector;
+            if (kind == PrecedenceClimber.FLOAT && selectorKind == PrecedenceClimber.INT) {
+                if (floatSelector == Ir.NONE) floatSelector = convert(selector, selectorKind, kind);
+                selectors[count] = floatSelector;
+            } else if (kind == PrecedenceClimber.INT && selectorKind == PrecedenceClimber.FLOAT) {
+                value = convert(value, kind, selectorKind);
             }
-            i++;
+            values[count] = value;
+            targets[count] = caseLabels[k];
+            constant &= ir.isConstant(values[count++]);
         }
-        code.append("goto ").append(labelEnd).append("\n").append(labelElse).append(":\n");
-        if (i < tokens.size() && tokens.get(i).getType().equals("KEYWORD") && tokens.get(i).getValue().equals("else")) {
-            i++;
-            if (i < tokens.size() && tokens.get(i).getValue().equals("{")) {
-                i++;
-                while (i < tokens.size() && !tokens.get(i).getValue().equals("}")) {
-                    i = processStatement(tokens, i, code);
-                }
-                i++;
-            }
+        if (constant && count >= MIN_SEARCH_CASES) {
+            count = sortCases(values, targets, count);
+        }
+        if (!constant || count < MIN_SEARCH_CASES) {
+            testCases(selectors, values, targets, 0, count, defaultLabel);
+        } else if (!jumpTable(selector, values, targets, count, defaultLabel)) {
+            searchCases(selectors, values, targets, 0, count, defaultLabel);
         }
-        code.append(labelEnd).append(":\n");
-        return i;
     }
 
-    private int handleWhileLoop(List<Token> tokens, int i, StringBuilder code) {
-        i += 2; // Skip 'while' and '('
-        StringBuilder cond = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-            cond.append(tokens.get(i).getValue()).append(" ");
-            i++;
-        }
-        i++; // Skip ')'
-        String labelLoop = newLabel();
-        String labelEnd = newLabel();
-        code.append(labelLoop).append(":\n");
-        code.append("ifFalse ").append(cond.toString().trim()).append(" goto ").append(labelEnd).append("\n");
-        if (i < tokens.size() && tokens.get(i).getValue().equals("{")) {
-            i++;
-            while (i < tokens.size() && !tokens.get(i).getValue().equals("}")) {
-                i = processStatement(tokens, i, code);
-            }
-            i++;
+    // Sorts constant cases by value, keeping only the first case of each value
+    // since a later one can never match. Returns the number left.
+    private int sortCases(int[] values, int[] targets, int count) {
+        Integer[] order = new Integer[count];
+        for (int k = 0; k < count; k++) order[k] = k;
+        Arrays.sort(order, (a, b) -> Double.compare(ir.value(values[a]), ir.value(values[b])));
+        int[] sortedValues = new int[count];
+        int[] sortedTargets = new int[count];
+        int kept = 0;
+        for (int k : order) {
+            if (kept > 0 && ir.value(sortedValues[kept - 1]) == ir.value(values[k])) continue;
+            sortedValues[kept] = values[k];
+            sortedTargets[kept++] = targets[k];
         }
-        code.append("goto ").append(labelLoop).append("\n").append(labelEnd).append(":\n");
-        return i;
+        System.arraycopy(sortedValues, 0, values, 0, kept);
+        System.arraycopy(sortedTargets, 0, targets, 0, kept);
+        return kept;
     }
 
-    private int handleSwitchStatement(List<Token> tokens, int i, StringBuilder code) {
-        i += 2; // Skip 'switch' and '('
-        StringBuilder expr = new StringBuilder();
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-            expr.append(tokens.get(i).getValue()).append(" ");
-            i++;
+    private void testCases(int[] selectors, int[] values, int[] targets, int from, int to, int defaultLabel) {
+        for (int k = from; k < to; k++) {
+            ir.emit(Ir.IF_EQ, targets[k], selectors[k], values[k]);
         }
-        i++; // Skip ')'
-        String switchVar = expr.toString().trim();
-        String labelEnd = newLabel();
-        Map<String, String> caseLabels = new LinkedHashMap<>();
-        String defaultLabel = null;
-        if (i < tokens.size() && tokens.get(i).getValue().equals("{")) {
-            i++;
-            while (i < tokens.size() && !tokens.get(i).getValue().equals("}")) {
-                Token token = tokens.get(i);
-                if (token.getType().equals("KEYWORD") && token.getValue().equals("case")) {
-                    i++;
-                    String caseValue = tokens.get(i).getValue();
-                    i += 2; // Skip case value and ':'
-                    String caseLabel = newLabel();
-                    caseLabels.put(caseValue, caseLabel);
-                    code.append(caseLabel).append(":\n");
-                    while (i < tokens.size() && !tokens.get(i).getValue().matches("case|default|}") && !tokens.get(i).getType().equals("KEYWORD")) {
-                        i = processStatement(tokens, i, code);
-                    }
-                } else if (token.getType().equals("KEYWORD") && token.getValue().equals("default")) {
-                    i += 2; // Skip 'default' and ':'
-                    defaultLabel = newLabel();
-                    code.append(defaultLabel).append(":\n");
-                    while (i < tokens.size() && !tokens.get(i).getValue().matches("case|default|}") && !tokens.get(i).getType().equals("KEYWORD")) {
-                        i = processStatement(tokens, i, code);
-                    }
-                } else {
-                    i++;
-                }
-            }
-            i++;
-        }
-        for (Map.Entry<String, String> entry : caseLabels.entrySet()) {
-            code.insert(0, "if " + switchVar + " == " + entry.getKey() + " goto " + entry.getValue() + "\n");
+        ir.emit(Ir.GOTO, defaultLabel, Ir.NONE, Ir.NONE);
+    }
+
+    // Emits a jump table over sorted integer case values when they are dense
+    // enough, with the gaps going to the default
+    private boolean jumpTable(int selector, int[] values, int[] targets, int count, int defaultLabel) {
+        for (int k = 0; k < count; k++) {
+            double value = ir.value(values[k]);
+            if (value != (int) value) return false;
         }
-        if (defaultLabel != null) {
-            code.insert(0, "goto " + defaultLabel + "\n");
+        int low = (int) ir.value(values[0]);
+        long range = (long) ir.value(values[count - 1]) - low + 1;
+        if (count * 100L < range * MIN_TABLE_DENSITY_PERCENT) return false;
+        int[] labels = new int[(int) range];
+        Arrays.fill(labels, defaultLabel);
+        for (int k = 0; k < count; k++) {
+            labels[(int) ir.value(values[k]) - low] = targets[k];
         }
-        code.append(labelEnd).append(":\n");
-        return i;
+        ir.emit(Ir.JUMP_TABLE, defaultLabel, selector, ir.newTable(low, labels));
+        return true;
     }
 
-    private int processStatement(List<Token> tokens, int i, StringBuilder code) {
-        Token token = tokens.get(i);
-        String type = token.getType();
-        String value = token.getValue();
-
-        if (type.equals("KEYWORD") && value.matches("int|float|double|char|boolean")) {
-            i++;
-            if (i < tokens.size() && tokens.get(i).getType().equals("IDENTIFIER")) {
-                i++;
-                if (i < tokens.size() && tokens.get(i).getValue().equals("=")) {
-                    return handleAssignment(tokens, i, code);
-                }
-            }
-        } else if (type.equals("IDENTIFIER") && i + 1 < tokens.size() && tokens.get(i + 1).getValue().equals("=")) {
-            return handleAssignment(tokens, i + 1, code);
-        } else if (type.equals("KEYWORD")) {
-            if (value.equals("if")) {
-                return handleIfStatement(tokens, i, code);
-            } else if (value.equals("while")) {
-                return handleWhileLoop(tokens, i, code);
-            } else if (value.equals("for")) {
-                return handleForLoop(tokens, i, code);
-            } else if (value.equals("switch")) {
-                return handleSwitchStatement(tokens, i, code);
-            }
+    // Binary search over sorted case values, ending in short runs of tests.
+    // Recursion depth is logarithmic in the number of cases. Constant cases
+    // all test the selector itself.
+    private void searchCases(int[] selectors, int[] values, int[] targets, int from, int to, int defaultLabel) {
+        if (to - from < MIN_SEARCH_CASES) {
+            testCases(selectors, values, targets, from, to, defaultLabel);
+            return;
         }
-        return i + 1;
+        int mid = (from + to) >>> 1;
+        int labelUpper = ir.newLabel();
+        ir.emit(Ir.IF_GE, labelUpper, selectors[mid], values[mid]);
+        searchCases(selectors, values, targets, from, mid, defaultLabel);
+        ir.emit(Ir.LABEL, labelUpper, Ir.NONE, Ir.NONE);
+        searchCases(selectors, values, targets, mid, to, defaultLabel);
     }
 }
@@ -1,12 +1,27 @@
 public class Token {
     private String type;
     private String value;
+    private int offset;
+    private int line;
+    private int column;
 
     public Token(String type, String value) {
+        this(type, value, -1, 0, 0);
+    }
+
+    public Token(String type, String value, int offset, int line, int column) {
         this.type = type;
         this.value = value;
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
     }
 
     public String getType() { return type; }
     public String getValue() { return value; }
+    public int getOffset() { return offset; }
+    public int getLine() { return line; }
+    public int getColumn() { return column; }
+
+    public String getPosition() { return line + ":" + column; }
 }
@@ -0,0 +1,299 @@
+import java.util.*;
+
+// Tokens stored as parallel primitive arrays: kind, start and end offsets into
+// the source, and the interned name id of identifiers. Token text is only turned
+// into a String when text() is called.
+//
+// Like GapContent, the arrays keep a gap at the last edit position. Entries after
+// the gap store offsets relative to the end of the source, so an edit only
+// touches the tokens it replaces plus the distance the gap has to move.
+public class TokenBuffer {
+    private byte[] kinds = new byte[256];
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int[] ids = new int[256];
+    private int size;
+    private int gapStart;
+    private int gapLength = 256;
+
+    private int[] lineStarts = new int[64];
+    private int lineCount;
+    private int lineGapStart;
+    private int lineGapLength = 64;
+
+    private CharSequence source = "";
+    private int length;
+    private final NameTable names;
+
+    public TokenBuffer(NameTable names) {
+        this.names = names;
+    }
+
+    public void reset(CharSequence source) {
+        this.source = source;
+        this.length = source.length();
+        size = 0;
+        gapStart = 0;
+        gapLength = kinds.length;
+        lineCount = 0;
+        lineGapStart = 0;
+        lineGapLength = lineStarts.length;
+        addLineStart(0);
+    }
+
+    // Appends a token at the gap; a full scan fills the buffer this way
+    public void add(byte kind, int start, int end) {
+        if (gapLength == 0) grow(size + 1);
+        int p = gapStart++;
+        gapLength--;
+        kinds[p] = kind;
+        starts[p] = start;
+        ends[p] = end;
+        ids[p] = kind == TokenKind.IDENTIFIER ? names.intern(source, start, end) : -1;
+        size++;
+    }
+
+    // Appends the tokens of a buffer filled by a scan of part of the same source.
+    // idMap translates the part's name ids into this buffer's NameTable.
+    public void append(TokenBuffer part, int[] idMap) {
+        int count = part.size;
+        if (gapLength < count) grow(size + count);
+        int p = gapStart;
+        System.arraycopy(part.kinds, 0, kinds, p, count);
+        System.arraycopy(part.starts, 0, starts, p, count);
+        System.arraycopy(part.ends, 0, ends, p, count);
+        for (int k = 0; k < count; k++) {
+            int id = part.ids[k];
+            ids[p + k] = id >= 0 ? idMap[id] : -1;
+        }
+        gapStart += count;
+        gapLength -= count;
+        size += count;
+        // Skip the part's own line start 0
+        for (int k = 1; k < part.lineCount; k++) {
+            addLineStart(part.lineStarts[k]);
+        }
+    }
+
+    // Called by the scanner with the offset just past every '\n'
+    public void addLineStart(int offset) {
+        if (lineGapLength == 0) growLines(lineCount + 1);
+        lineStarts[lineGapStart++] = offset;
+        lineGapLength--;
+        lineCount++;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public CharSequence source() { return source; }
+    public NameTable names() { return names; }
+
+    private int physical(int i) {
+        return i < gapStart ? i : i + gapLength;
+    }
+
+    public byte kind(int i) {
+        return kinds[physical(i)];
+    }
+
+    public int start(int i) {
+        return i < gapStart ? starts[i] : starts[i + gapLength] + length;
+    }
+
+    public int end(int i) {
+        return i < gapStart ? ends[i] : ends[i + gapLength] + length;
+    }
+
+    // Interned name id of an identifier token, -1 for every other kind
+    public int id(int i) {
+        return ids[physical(i)];
+    }
+
+    public String text(int i) {
+        int p = physical(i);
+        if (ids[p] >= 0) return names.name(ids[p]);
+        return LexerDFA.text(source, kinds[p], start(i), end(i));
+    }
+
+    // True for a single-character token such as '(' or ';'
+    public boolean is(int i, char c) {
+        int start = start(i);
+        return end(i) - start == 1 && source.charAt(start) == c;
+    }
+
+    public boolean textEquals(int i, String text) {
+        int start = start(i);
+        int length = end(i) - start;
+        if (length != text.length()) return false;
+        for (int k = 0; k < length; k++) {
+            if (source.charAt(start + k) != text.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    // Canonical keyword string, or null for other tokens
+    public String keyword(int i) {
+        return kind(i) == TokenKind.KEYWORD ? KeywordTable.lookup(source, start(i), end(i)) : null;
+    }
+
+    // KeywordTable number of a keyword, -1 for other tokens
+    public int keywordIndex(int i) {
+        return kind(i) == TokenKind.KEYWORD ? KeywordTable.indexOf(source, start(i), end(i)) : -1;
+    }
+
+    // Index of the first token ending after 'offset' (size() if none)
+    public int firstEndingAfter(int offset) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (end(mid) <= offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Index of the first token starting at or after 'offset' (size() if none)
+    public int firstStartingAt(int offset) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start(mid) < offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Switches to the edited text. 'removed' chars at 'offset' were replaced by
+    // 'inserted' chars; tokens from index 'from' on now report offsets shifted
+    // by the edit and are expected to be fixed up with replace().
+    public void beginEdit(int from, CharSequence newSource, int offset, int removed, int inserted) {
+        moveGap(from);
+        moveLineGap(firstLineAfter(offset));
+        int dropped = firstLineAfter(offset + removed) - lineGapStart;
+        lineGapLength += dropped;
+        lineCount -= dropped;
+
+        source = newSource;
+        length = newSource.length();
+        for (int i = offset; i < offset + inserted; i++) {
+            if (source.charAt(i) == '\n') addLineStart(i + 1);
+        }
+    }
+
+    // Replaces tokens [from, to) with 'count' new ones; 'from' must be the index given to beginEdit
+    public void replace(int from, int to, byte[] newKinds, int[] newStarts, int[] newEnds, int count) {
+        gapLength += to - from;
+        size -= to - from;
+        for (int k = 0; k < count; k++) {
+            add(newKinds[k], newStarts[k], newEnds[k]);
+        }
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(kinds, index, kinds, index + gapLength, count);
+            System.arraycopy(ids, index, ids, index + gapLength, count);
+            for (int k = gapStart - 1; k >= index; k--) {
+                starts[k + gapLength] = starts[k] - length;
+                ends[k + gapLength] = ends[k] - length;
+            }
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(kinds, gapStart + gapLength, kinds, gapStart, count);
+            System.arraycopy(ids, gapStart + gapLength, ids, gapStart, count);
+            for (int k = gapStart; k < index; k++) {
+                starts[k] = starts[k + gapLength] + length;
+                ends[k] = ends[k + gapLength] + length;
+            }
+        }
+        gapStart = index;
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, kinds.length * 2);
+        int tail = size - gapStart;
+        int oldTail = gapStart + gapLength;
+        int newTail = capacity - tail;
+        kinds = regap(kinds, new byte[capacity], oldTail, newTail, tail);
+        starts = regap(starts, new int[capacity], oldTail, newTail, tail);
+        ends = regap(ends, new int[capacity], oldTail, newTail, tail);
+        ids = regap(ids, new int[capacity], oldTail, newTail, tail);
+        gapLength = capacity - size;
+    }
+
+    private <T> T regap(T from, T to, int oldTail, int newTail, int tail) {
+        System.arraycopy(from, 0, to, 0, gapStart);
+        System.arraycopy(from, oldTail, to, newTail, tail);
+        return to;
+    }
+
+    private int lineStart(int line) {
+        return line < lineGapStart ? lineStarts[line] : lineStarts[line + lineGapLength] + length;
+    }
+
+    // Index of the first line start greater than 'offset'
+    private int firstLineAfter(int offset) {
+        int lo = 0, hi = lineCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lineStart(mid) <= offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void moveLineGap(int index) {
+        if (index < lineGapStart) {
+            for (int k = lineGapStart - 1; k >= index; k--) {
+                lineStarts[k + lineGapLength] = lineStarts[k] - length;
+            }
+        } else if (index > lineGapStart) {
+            for (int k = lineGapStart; k < index; k++) {
+                lineStarts[k] = lineStarts[k + lineGapLength] + length;
+            }
+        }
+        lineGapStart = index;
+    }
+
+    private void growLines(int needed) {
+        int capacity = Math.max(needed, lineStarts.length * 2);
+        int tail = lineCount - lineGapStart;
+        int[] grown = new int[capacity];
+        System.arraycopy(lineStarts, 0, grown, 0, lineGapStart);
+        System.arraycopy(lineStarts, lineGapStart + lineGapLength, grown, capacity - tail, tail);
+        lineStarts = grown;
+        lineGapLength = capacity - lineCount;
+    }
+
+    public int line(int i) {
+        return firstLineAfter(start(i));
+    }
+
+    public int column(int i) {
+        int start = start(i);
+        return start - lineStart(firstLineAfter(start) - 1) + 1;
+    }
+
+    public String position(int i) {
+        int start = start(i);
+        int line = firstLineAfter(start);
+        return line + ":" + (start - lineStart(line - 1) + 1);
+    }
+
+    // List<Token> view for table models and other code that wants Token objects
+    public List<Token> asTokenList() {
+        return new AbstractList<Token>() {
+            @Override
+            public Token get(int i) {
+                Objects.checkIndex(i, size);
+                return new Token(TokenKind.name(kind(i)), text(i), start(i), line(i), column(i));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
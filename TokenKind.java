@@ -0,0 +1,20 @@
+public final class TokenKind {
+    public static final byte UNKNOWN = 0;
+    public static final byte KEYWORD = 1;
+    public static final byte IDENTIFIER = 2;
+    public static final byte NUMBER = 3;
+    public static final byte OPERATOR = 4;
+    public static final byte SYMBOL = 5;
+    public static final byte STRING_LITERAL = 6;
+
+    private static final String[] NAMES = {
+        "UNKNOWN", "KEYWORD", "IDENTIFIER", "NUMBER", "OPERATOR", "SYMBOL", "STRING_LITERAL"
+    };
+
+    private TokenKind() {
+    }
+
+    public static String name(byte kind) {
+        return NAMES[kind];
+    }
+}
@@ -1,20 +1,35 @@
-import java.util.List;
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 
 public class TokenTableFrame extends JFrame {
-    public TokenTableFrame(List<Token> tokens) {
+    public TokenTableFrame(TokenBuffer tokens) {
         setTitle("Tokens");
         setSize(400, 300);
-        
+
         String[] columns = {"Type", "Value"};
-        Object[][] data = new Object[tokens.size()][2];
-        
-        for (int i = 0; i < tokens.size(); i++) {
-            data[i][0] = tokens.get(i).getType();
-            data[i][1] = tokens.get(i).getValue();
+        // The buffer is relexed on every edit, so the window keeps the tokens as
+        // they were when it opened; cell text is only cut from the source as
+        // rows are shown
+        int count = tokens.size();
+        byte[] kinds = new byte[count];
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            kinds[i] = tokens.kind(i);
+            starts[i] = tokens.start(i);
+            ends[i] = tokens.end(i);
         }
-        
-        JTable table = new JTable(data, columns);
+        String source = tokens.source().toString();
+        AbstractTableModel model = new AbstractTableModel() {
+            public int getRowCount() { return count; }
+            public int getColumnCount() { return columns.length; }
+            public String getColumnName(int column) { return columns[column]; }
+            public Object getValueAt(int row, int column) {
+                return column == 0 ? TokenKind.name(kinds[row]) : LexerDFA.text(source, kinds[row], starts[row], ends[row]);
+            }
+        };
+
+        JTable table = new JTable(model);
         add(new JScrollPane(table));
     }
-}
\ No newline at end of file
+}
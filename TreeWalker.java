@@ -0,0 +1,170 @@
+import java.util.*;
+
+// The walk over the statements of the tree that TACGenerator and
+// BytecodeGenerator share. Control flow is laid out here in labels, and the
+// generators supply the code: assignments, conditional jumps, gotos and
+// switch dispatch. Work items are statements still to generate, Deferred
+// code and POP_BREAK_LABEL; keeping them on an explicit stack lets
+// statements nest to any depth.
+public abstract class TreeWalker {
+    protected TokenBuffer tokens;
+    protected int base; // shift of the current top-level statement, added to token indices from the tree
+
+    // Label each enclosing loop or switch jumps to on 'break', innermost last
+    private int[] breakLabels = new int[16];
+    private int breakDepth;
+
+    // Marks where the statements inside a loop or switch end
+    private static final Object POP_BREAK_LABEL = new Object();
+
+    private static final int LABEL = 0, GOTO = 1, LOOP_BACK = 2;
+
+    // Code emitted once the statements pushed before it are done
+    private record Deferred(int op, int label) {
+    }
+
+    protected abstract int newLabel();
+
+    protected abstract void placeLabel(int label);
+
+    protected abstract void jumpTo(int label);
+
+    // The jump from the end of a loop body back to its top
+    protected abstract void loopBack(int label);
+
+    protected abstract void jumpUnless(Ast.Expr condition, int label);
+
+    protected abstract void assign(int name, Ast.Expr value);
+
+    // Evaluates the selector and jumps to the label of the case it matches:
+    // caseLabels[k] for case k, and 'defaultLabel' when no value matches
+    protected abstract void dispatch(Ast.Switch s, int[] caseLabels, int defaultLabel);
+
+    protected void generateStatements(Ast.Program program) {
+        breakDepth = 0;
+        List<Ast.Stmt> statements = program.statements();
+        for (int k = 0; k < statements.size(); k++) {
+            base = program.shift(k);
+            generateStatement(statements.get(k));
+        }
+    }
+
+    protected boolean isLogical(Ast.Binary b) {
+        int token = base + b.operator();
+        return tokens.textEquals(token, "&&") || tokens.textEquals(token, "||");
+    }
+
+    private void generateStatement(Ast.Stmt root) {
+        Deque<Object> work = new ArrayDeque<>();
+        work.push(root);
+        while (!work.isEmpty()) {
+            Object item = work.pop();
+            if (item instanceof Deferred d) {
+                if (d.op() == LABEL) {
+                    placeLabel(d.label());
+                } else if (d.op() == GOTO) {
+                    jumpTo(d.label());
+                } else {
+                    loopBack(d.label());
+                }
+            } else if (item == POP_BREAK_LABEL) {
+                breakDepth--;
+            } else if (item instanceof Ast.Declaration d) {
+                if (d.init() != null) assign(d.name(), d.init());
+            } else if (item instanceof Ast.Assignment a) {
+                assign(a.name(), a.value());
+            } else if (item instanceof Ast.Block b) {
+                pushAll(b.statements(), work);
+            } else if (item instanceof Ast.If s) {
+                generateIf(s, work);
+            } else if (item instanceof Ast.While s) {
+                generateWhile(s, work);
+            } else if (item instanceof Ast.For s) {
+                generateFor(s, work);
+            } else if (item instanceof Ast.Switch s) {
+                generateSwitch(s, work);
+            } else if (item instanceof Ast.Break) {
+                jumpTo(breakLabels[breakDepth - 1]);
+            }
+        }
+    }
+
+    // Pushed in reverse so they come off the stack in source order
+    private static void pushAll(List<Ast.Stmt> statements, Deque<Object> work) {
+        for (int k = statements.size() - 1; k >= 0; k--) {
+            work.push(statements.get(k));
+        }
+    }
+
+    private void pushBreakLabel(int label) {
+        if (breakDepth == breakLabels.length) breakLabels = Arrays.copyOf(breakLabels, breakDepth * 2);
+        breakLabels[breakDepth++] = label;
+    }
+
+    private void generateIf(Ast.If s, Deque<Object> work) {
+        int labelEnd = newLabel();
+        int labelElse = newLabel();
+        jumpUnless(s.condition(), labelElse);
+        work.push(new Deferred(LABEL, labelEnd));
+        if (s.otherwise() != null) {
+            work.push(s.otherwise());
+        }
+        work.push(new Deferred(LABEL, labelElse));
+        work.push(new Deferred(GOTO, labelEnd));
+        pushAll(s.then().statements(), work);
+    }
+
+    private void generateWhile(Ast.While s, Deque<Object> work) {
+        int labelLoop = newLabel();
+        int labelEnd = newLabel();
+        placeLabel(labelLoop);
+        jumpUnless(s.condition(), labelEnd);
+        pushBreakLabel(labelEnd);
+        work.push(new Deferred(LABEL, labelEnd));
+        work.push(new Deferred(LOOP_BACK, labelLoop));
+        work.push(POP_BREAK_LABEL);
+        pushAll(s.body().statements(), work);
+    }
+
+    private void generateFor(Ast.For s, Deque<Object> work) {
+        int labelLoop = newLabel();
+        int labelEnd = newLabel();
+        if (s.init() instanceof Ast.Declaration d) {
+            if (d.init() != null) assign(d.name(), d.init());
+        } else if (s.init() instanceof Ast.Assignment a) {
+            assign(a.name(), a.value());
+        }
+        placeLabel(labelLoop);
+        if (s.condition() != null) {
+            jumpUnless(s.condition(), labelEnd);
+        }
+        pushBreakLabel(labelEnd);
+        work.push(new Deferred(LABEL, labelEnd));
+        work.push(new Deferred(LOOP_BACK, labelLoop));
+        if (s.update() != null) {
+            work.push(s.update());
+        }
+        work.push(POP_BREAK_LABEL);
+        pushAll(s.body().statements(), work);
+    }
+
+    // Dispatch in front of the case bodies; bodies fall through until a 'break'
+    private void generateSwitch(Ast.Switch s, Deque<Object> work) {
+        int labelEnd = newLabel();
+        List<Ast.Case> cases = s.cases();
+        int[] caseLabels = new int[cases.size()];
+        int defaultLabel = labelEnd;
+        for (int k = 0; k < caseLabels.length; k++) {
+            caseLabels[k] = newLabel();
+            if (cases.get(k).value() < 0) defaultLabel = caseLabels[k];
+        }
+        dispatch(s, caseLabels, defaultLabel);
+        pushBreakLabel(labelEnd);
+        work.push(new Deferred(LABEL, labelEnd));
+        work.push(POP_BREAK_LABEL);
+        for (int k = caseLabels.length - 1; k >= 0; k--) {
+            pushAll(cases.get(k).body(), work);
+            work.push(new Deferred(LABEL, caseLabels[k]));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Local value numbering: common subexpression elimination within each basic
+// block. Every operand gets a value number on first sight, an assignment
+// gives its destination a new one, and operators are keyed by opcode and
+// operand numbers, with commutative operands in a fixed order and '>' and
+// '>=' turned around into '<' and '<='. An operator whose key is already
+// held by some operand becomes a copy of it, and reads of temporaries go to
+// the operand holding their value, preferring a variable, so copied
+// temporaries are left unread and removed.
+public class ValueNumbering implements IrPass {
+    private int[] numberOf; // per operand, valid when stamped with the current block
+    private int[] stampOf;
+    private int stamp;
+    private int[] holders = new int[64]; // per value number, the operand meant to hold it
+    private int numberCount;
+
+    // Open-addressing table from an operator key to its value number, emptied per block by stamp
+    private long[] keys = new long[256];
+    private int[] numbers = new int[256];
+    private int[] stamps = new int[256];
+    private int keyCount;
+
+    @Override
+    public String name() {
+        return "value numbering";
+    }
+
+    @Override
+    public void run(Ir ir) {
+        if (ir.size() == 0) return;
+        Cfg cfg = new Cfg(ir);
+        numberOf = new int[ir.operandCount()];
+        stampOf = new int[ir.operandCount()];
+        stamp = 0;
+        Arrays.fill(stamps, 0);
+        numberCount = 0;
+        boolean[] removed = new boolean[ir.size()];
+        for (int b = 0; b < cfg.size(); b++) {
+            stamp++;
+            keyCount = 0;
+            for (int k = cfg.start(b); k < cfg.end(b); k++) {
+                number(ir, k, removed);
+            }
+        }
+        Propagation.removeUnusedTemps(ir, removed);
+        ir.remove(removed);
+    }
+
+    private void number(Ir ir, int k, boolean[] removed) {
+        int op = ir.op(k);
+        int src1 = Ir.readsSrc1(op) ? read(ir, ir.src1(k)) : ir.src1(k);
+        int src2 = Ir.readsSrc2(op) ? read(ir, ir.src2(k)) : ir.src2(k);
+        ir.set(k, op, ir.dest(k), src1, src2);
+        if (!Ir.defines(op)) return;
+
+        int dest = ir.dest(k);
+        if (op == Ir.COPY) {
+            copy(ir, dest, numberOf(src1));
+            return;
+        }
+        int left = numberOf(src1);
+        int right = Ir.readsSrc2(op) ? numberOf(src2) : 0;
+        int keyOp = op;
+        if (op == Ir.GT || op == Ir.GE) {
+            keyOp = op == Ir.GT ? Ir.LT : Ir.LE;
+            int swap = left;
+            left = right;
+            right = swap;
+        } else if (isCommutative(op) && left > right) {
+            int swap = left;
+            left = right;
+            right = swap;
+        }
+        long key = (long) keyOp << 58 | (long) left << 29 | right;
+        int slot = find(key);
+        if (stamps[slot] == stamp) {
+            int value = numbers[slot];
+            int holder = holders[value];
+            if (held(holder, value)) {
+                if (holder == dest) {
+                    removed[k] = true;
+                } else {
+                    ir.set(k, Ir.COPY, dest, holder, Ir.NONE);
+                    copy(ir, dest, value);
+                }
+                return;
+            }
+        }
+        int value = newNumber(dest);
+        assign(dest, value);
+        insert(slot, key, value);
+    }
+
+    private static boolean isCommutative(int op) {
+        return op == Ir.ADD || op == Ir.MUL || op == Ir.IADD || op == Ir.IMUL || op == Ir.EQ || op == Ir.NE;
+    }
+
+    private void copy(Ir ir, int dest, int value) {
+        assign(dest, value);
+        // A variable makes a better holder than a temporary, which can then go unread
+        int holder = holders[value];
+        if (!ir.isTemp(dest) && (ir.isTemp(holder) || !held(holder, value))) holders[value] = dest;
+    }
+
+    // The operand to read instead of 'operand': for a temporary, the holder of its value
+    private int read(Ir ir, int operand) {
+        if (!ir.isTemp(operand)) return operand;
+        int value = numberOf(operand);
+        int holder = holders[value];
+        return held(holder, value) ? holder : operand;
+    }
+
+    private boolean held(int operand, int value) {
+        return stampOf[operand] == stamp && numberOf[operand] == value;
+    }
+
+    private int numberOf(int operand) {
+        if (stampOf[operand] != stamp) assign(operand, newNumber(operand));
+        return numberOf[operand];
+    }
+
+    private void assign(int operand, int value) {
+        stampOf[operand] = stamp;
+        numberOf[operand] = value;
+    }
+
+    private int newNumber(int holder) {
+        if (numberCount == holders.length) holders = Arrays.copyOf(holders, numberCount * 2);
+        holders[numberCount] = holder;
+        return numberCount++;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (stamps[slot] == stamp && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void insert(int slot, long key, int value) {
+        keys[slot] = key;
+        numbers[slot] = value;
+        stamps[slot] = stamp;
+        if (++keyCount * 2 > keys.length) grow();
+    }
+
+    // Doubles the table, keeping only the current block's keys
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldNumbers = numbers;
+        int[] oldStamps = stamps;
+        keys = new long[oldKeys.length * 2];
+        numbers = new int[oldKeys.length * 2];
+        stamps = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] != stamp) continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            numbers[slot] = oldNumbers[i];
+            stamps[slot] = stamp;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+// Runs an Ir. The code is decoded once into a flat int array, four ints per
+// instruction: opcode, destination and the two sources. Labels are dropped
+// and jumps hold the array index they go to, jump table entries included, so
+// the dispatch loop does no lookups and allocates nothing. Operands live in
+// one double array indexed by operand id with the constants preloaded; the
+// int operators work on those values as ints, as Ir.evaluate folds them. A
+// run counts the instructions it executes and stops at a limit, so a
+// program that loops forever cannot hang the caller.
+public class VirtualMachine {
+    private final Ir ir;
+    private final int[] code;
+    private final int[][] tableTargets; // per decoded table, its entries as code indices
+    private final int[] tableLows;
+    private final double[] initial;
+    private final double[] values;
+    private long executed;
+    private long nanos;
+    private boolean finished;
+
+    public VirtualMachine(Ir ir) {
+        this.ir = ir;
+        int size = ir.size();
+        int[] targets = new int[ir.labelCount() + 1]; // per label, the code index it stands for
+        int count = 0;
+        int tables = 0;
+        for (int k = 0; k < size; k++) {
+            int op = ir.op(k);
+            if (op == Ir.LABEL) {
+                targets[ir.dest(k)] = 4 * count;
+            } else {
+                count++;
+                if (op == Ir.JUMP_TABLE) tables++;
+            }
+        }
+        code = new int[4 * count];
+        tableTargets = new int[tables][];
+        tableLows = new int[tables];
+        int pc = 0;
+        tables = 0;
+        for (int k = 0; k < size; k++) {
+            int op = ir.op(k);
+            if (op == Ir.LABEL) continue;
+            int dest = ir.dest(k);
+            int src2 = ir.src2(k);
+            if (Ir.isJump(op)) dest = targets[dest];
+            if (op == Ir.JUMP_TABLE) {
+                int[] labels = ir.tableLabels(src2);
+                int[] entries = new int[labels.length];
+                for (int i = 0; i < labels.length; i++) entries[i] = targets[labels[i]];
+                tableTargets[tables] = entries;
+                tableLows[tables] = ir.tableLow(src2);
+                src2 = tables++;
+            }
+            code[pc] = op;
+            code[pc + 1] = dest;
+            code[pc + 2] = ir.src1(k);
+            code[pc + 3] = src2;
+            pc += 4;
+        }
+
+        initial = new double[ir.operandCount()];
+        for (int v = 0; v < initial.length; v++) {
+            int kind = ir.kind(v);
+            if (kind == Ir.CONSTANT || kind == Ir.STRING) initial[v] = ir.value(v);
+        }
+        values = new double[initial.length];
+    }
+
+    // Runs the program from the start with every variable and temporary at
+    // 0; true if it ran to the end, false if it was stopped after 'limit'
+    // instructions. An int division by zero throws ArithmeticException.
+    public boolean run(long limit) {
+        final int[] code = this.code;
+        final double[] r = values;
+        System.arraycopy(initial, 0, r, 0, r.length);
+        final int end = code.length;
+        long count = 0;
+        long start = System.nanoTime();
+        int pc = 0;
+        while (pc < end && count < limit) {
+            int op = code[pc];
+            int d = code[pc + 1];
+            int a = code[pc + 2];
+            int b = code[pc + 3];
+            pc += 4;
+            count++;
+            switch (op) {
+                case Ir.COPY: r[d] = r[a]; break;
+                case Ir.NEG: r[d] = -r[a]; break;
+                case Ir.NOT: r[d] = r[a] == 0 ? 1 : 0; break;
+                case Ir.INEG: r[d] = -(int) r[a]; break;
+                case Ir.TO_INT: r[d] = (int) r[a]; break;
+                case Ir.TO_FLOAT: r[d] = (float) r[a]; break;
+                case Ir.ADD: r[d] = r[a] + r[b]; break;
+                case Ir.SUB: r[d] = r[a] - r[b]; break;
+                case Ir.MUL: r[d] = r[a] * r[b]; break;
+                case Ir.DIV: r[d] = r[a] / r[b]; break;
+                case Ir.IADD: r[d] = (int) r[a] + (int) r[b]; break;
+                case Ir.ISUB: r[d] = (int) r[a] - (int) r[b]; break;
+                case Ir.IMUL: r[d] = (int) r[a] * (int) r[b]; break;
+                case Ir.IDIV: r[d] = (int) r[a] / (int) r[b]; break;
+                case Ir.LT: r[d] = r[a] < r[b] ? 1 : 0; break;
+                case Ir.GT: r[d] = r[a] > r[b] ? 1 : 0; break;
+                case Ir.LE: r[d] = r[a] <= r[b] ? 1 : 0; break;
+                case Ir.GE: r[d] = r[a] >= r[b] ? 1 : 0; break;
+                case Ir.EQ: r[d] = r[a] == r[b] ? 1 : 0; break;
+                case Ir.NE: r[d] = r[a] != r[b] ? 1 : 0; break;
+                case Ir.GOTO: pc = d; break;
+                case Ir.IF: if (r[a] != 0) pc = d; break;
+                case Ir.IF_FALSE: if (r[a] == 0) pc = d; break;
+                case Ir.IF_LT: if (r[a] < r[b]) pc = d; break;
+                case Ir.IF_GT: if (r[a] > r[b]) pc = d; break;
+                case Ir.IF_LE: if (r[a] <= r[b]) pc = d; break;
+                case Ir.IF_GE: if (r[a] >= r[b]) pc = d; break;
+                case Ir.IF_EQ: if (r[a] == r[b]) pc = d; break;
+                case Ir.IF_NE: if (r[a] != r[b]) pc = d; break;
+                case Ir.IF_FALSE_LT: if (!(r[a] < r[b])) pc = d; break;
+                case Ir.IF_FALSE_GT: if (!(r[a] > r[b])) pc = d; break;
+                case Ir.IF_FALSE_LE: if (!(r[a] <= r[b])) pc = d; break;
+                case Ir.IF_FALSE_GE: if (!(r[a] >= r[b])) pc = d; break;
+                case Ir.IF_FALSE_EQ: if (r[a] != r[b]) pc = d; break;
+                case Ir.IF_FALSE_NE: if (r[a] == r[b]) pc = d; break;
+                case Ir.JUMP_TABLE: {
+                    // Anything but a whole number in range, NaN included, takes the default
+                    double i = r[a] - tableLows[b];
+                    int[] entries = tableTargets[b];
+                    pc = i >= 0 && i < entries.length && i == (int) i ? entries[(int) i] : d;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("unknown opcode " + op);
+            }
+        }
+        nanos = System.nanoTime() - start;
+        executed = count;
+        finished = pc >= end;
+        return finished;
+    }
+
+    public Ir ir() { return ir; }
+
+    // Of the last run
+    public long executed() { return executed; }
+    public long nanos() { return nanos; }
+    public boolean isFinished() { return finished; }
+
+    // Value of an operand where the last run ended
+    public double value(int operand) {
+        return values[operand];
+    }
+}
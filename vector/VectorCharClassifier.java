@@ -0,0 +1,62 @@
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// CharClassifier using jdk.incubator.vector: each step loads SPECIES.length()
+// chars, builds the class mask and jumps to the first char outside it. Tails
+// shorter than one vector go through the scalar loops. Needs
+// --add-modules jdk.incubator.vector to compile and run (see README).
+public class VectorCharClassifier extends CharClassifier {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    // Each step builds the mask of chars outside the class directly: subtracting
+    // the low end of a range and comparing unsigned tests both bounds at once
+    @Override
+    public int spaceEnd(char[] a, int from, int to) {
+        // Most whitespace runs are a single char; don't pay for a vector load on them
+        if (from >= to || !LexerDFA.isSpace(a[from])) return from;
+        int i = from;
+        for (; i <= to - LANES; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, a, i);
+            // \t \n \u000B \f \r are 9..13
+            VectorMask<Short> other = v.sub((short) 9).compare(VectorOperators.UNSIGNED_GT, (short) 4)
+                .and(v.compare(VectorOperators.NE, (short) ' '));
+            int miss = other.firstTrue();
+            if (miss < LANES) return i + miss;
+        }
+        return super.spaceEnd(a, i, to);
+    }
+
+    @Override
+    public int identEnd(char[] a, int from, int to) {
+        int i = from;
+        for (; i <= to - LANES; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, a, i);
+            // Setting bit 0x20 folds A-Z onto a-z and leaves every other char outside a-z
+            VectorMask<Short> other = v.or((short) 0x20).sub((short) 'a').compare(VectorOperators.UNSIGNED_GT, (short) 25)
+                .and(v.sub((short) '0').compare(VectorOperators.UNSIGNED_GT, (short) 9))
+                .and(v.compare(VectorOperators.NE, (short) '_'));
+            int miss = other.firstTrue();
+            if (miss < LANES) return i + miss;
+        }
+        return super.identEnd(a, i, to);
+    }
+
+    @Override
+    public int digitEnd(char[] a, int from, int to) {
+        int i = from;
+        for (; i <= to - LANES; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, a, i);
+            int miss = v.sub((short) '0').compare(VectorOperators.UNSIGNED_GT, (short) 9).firstTrue();
+            if (miss < LANES) return i + miss;
+        }
+        return super.digitEnd(a, i, to);
+    }
+}